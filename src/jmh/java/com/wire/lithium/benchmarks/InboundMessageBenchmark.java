@@ -0,0 +1,239 @@
+package com.wire.lithium.benchmarks;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.protobuf.ByteString;
+import com.waz.model.Messages;
+import com.wire.bots.cryptobox.CryptoException;
+import com.wire.lithium.ClientRepo;
+import com.wire.lithium.Configuration;
+import com.wire.lithium.helpers.MemStorage;
+import com.wire.lithium.helpers.Util;
+import com.wire.lithium.server.resources.MessageResource;
+import com.wire.xenon.MessageHandlerBase;
+import com.wire.xenon.WireAPI;
+import com.wire.xenon.assets.MessageText;
+import com.wire.xenon.backend.models.Conversation;
+import com.wire.xenon.backend.models.NewBot;
+import com.wire.xenon.backend.models.Payload;
+import com.wire.xenon.crypto.Crypto;
+import com.wire.xenon.crypto.CryptoDatabase;
+import com.wire.xenon.models.otr.Missing;
+import com.wire.xenon.models.otr.PreKeys;
+import com.wire.xenon.state.State;
+import jakarta.ws.rs.core.Response;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inbound message path: {@link MessageResource#newMessage} → {@link ClientRepo#getClient} → decrypt → handler.
+ * Crypto runs on the real cryptobox with {@link MemStorage} behind it, the Backend is replaced by {@link StubAPI}.
+ * <p>
+ * Every invocation gets a freshly encrypted payload (a ciphertext can be decrypted only once):
+ * <ul>
+ * <li>text - text message over an established session</li>
+ * <li>asset - asset (original + uploaded) message over an established session</li>
+ * <li>prekey - first contact: prekey message from a client the bot has never seen</li>
+ * </ul>
+ * Run with: mvn -P benchmarks test-compile exec:exec -Djmh.args="InboundMessageBenchmark"
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@org.openjdk.jmh.annotations.State(Scope.Thread)
+public class InboundMessageBenchmark {
+    private static final String TYPE = "conversation.otr-message-add";
+
+    @Param({"text", "asset", "prekey"})
+    public String message;
+
+    @Param({"true", "false"})
+    public boolean clientCache;
+
+    private String root;
+    private MemStorage storage;
+    private MessageResource resource;
+
+    private UUID botId;
+    private String botClient;
+    private UUID convId;
+    private PreKeys botPreKeys;
+    private PreKeys botLastPreKey;
+
+    private UUID userId;
+    private String userClient;
+    private Crypto user;
+
+    private Payload payload;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        root = Files.createTempDirectory("lithium-jmh").toString();
+        storage = new MemStorage();
+
+        botId = UUID.randomUUID();
+        botClient = "bot-" + botId;
+        convId = UUID.randomUUID();
+        userId = UUID.randomUUID();
+        userClient = "user-" + userId;
+
+        final NewBot state = new NewBot();
+        state.id = botId;
+        state.client = botClient;
+        state.token = "token";
+        state.conversation = new Conversation();
+        state.conversation.id = convId;
+        state.conversation.members = new ArrayList<>();
+
+        user = newCrypto(userId);
+
+        try (Crypto bot = newCrypto(botId)) {
+            // bot's prekeys as the Backend would hand them out to the senders
+            botPreKeys = new PreKeys(bot.newPreKeys(0, 1), botClient, botId);
+            botLastPreKey = new PreKeys(new ArrayList<>(Collections.singletonList(bot.newLastPreKey())), botClient, botId);
+
+            // first contact and a reply, so that the user sends plain session messages from now on
+            bot.decrypt(userId, userClient, user.encrypt(botPreKeys, text()).get(botId, botClient));
+            final Missing missing = new Missing();
+            missing.add(userId, userClient);
+            user.decrypt(botId, botClient, bot.encrypt(missing, text()).get(userId, userClient));
+        }
+
+        final Configuration.ClientCache cache = new Configuration.ClientCache();
+        cache.enabled = clientCache;
+        final WireAPI api = new StubAPI(botId, state.conversation);
+        final ClientRepo repo = new ClientRepo(null, this::newCrypto, id -> new MemState(state), cache, new MetricRegistry()) {
+            @Override
+            protected WireAPI createApi(NewBot bot) {
+                return api;
+            }
+        };
+        resource = new MessageResource(new MessageHandlerBase() {
+        }, repo);
+    }
+
+    @Setup(Level.Invocation)
+    public void encrypt() throws Exception {
+        switch (message) {
+            case "text":
+                payload = encrypt(null, text());
+                break;
+            case "asset":
+                payload = encrypt(null, asset());
+                break;
+            case "prekey":
+                // new client every time so that the bot has to create a new session from its last resort prekey
+                userClient = "user-" + UUID.randomUUID();
+                payload = encrypt(botLastPreKey, text());
+                break;
+            default:
+                throw new IllegalArgumentException(message);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        user.close();
+        Util.deleteDir(root);
+    }
+
+    @Benchmark
+    public Response newMessage() throws Exception {
+        final Response response = resource.newMessage(botId, UUID.randomUUID(), payload);
+        if (response.getStatus() != 200)
+            throw new IllegalStateException("newMessage: " + response.getStatus() + " " + response.getEntity());
+        return response;
+    }
+
+    private Payload encrypt(PreKeys preKeys, byte[] content) throws Exception {
+        final String cipher;
+        if (preKeys != null) {
+            cipher = user.encrypt(preKeys, content).get(botId, botClient);
+        } else {
+            final Missing missing = new Missing();
+            missing.add(botId, botClient);
+            cipher = user.encrypt(missing, content).get(botId, botClient);
+        }
+
+        final Payload payload = new Payload();
+        payload.type = TYPE;
+        payload.from = new Payload.Qualified(userId, "");
+        payload.conversation = new Payload.Qualified(convId, "");
+        payload.time = new Date().toString();
+        payload.data = new Payload.Data();
+        payload.data.sender = userClient;
+        payload.data.recipient = botClient;
+        payload.data.text = cipher;
+        return payload;
+    }
+
+    private Crypto newCrypto(UUID id) throws CryptoException {
+        return new CryptoDatabase(id, storage, root);
+    }
+
+    private static byte[] text() {
+        return new MessageText("Hello from JMH").createGenericMsg().toByteArray();
+    }
+
+    private static byte[] asset() {
+        final Messages.Asset.Original original = Messages.Asset.Original.newBuilder()
+                .setMimeType("application/pdf")
+                .setSize(1024 * 1024)
+                .setName("report.pdf")
+                .build();
+        final Messages.Asset.RemoteData uploaded = Messages.Asset.RemoteData.newBuilder()
+                .setOtrKey(ByteString.copyFrom(new byte[32]))
+                .setSha256(ByteString.copyFrom(new byte[32]))
+                .setAssetId("3-1-" + UUID.randomUUID())
+                .setAssetToken("token")
+                .build();
+        return Messages.GenericMessage.newBuilder()
+                .setMessageId(UUID.randomUUID().toString())
+                .setAsset(Messages.Asset.newBuilder()
+                        .setOriginal(original)
+                        .setUploaded(uploaded))
+                .build()
+                .toByteArray();
+    }
+
+    private static class MemState implements State {
+        private final NewBot bot;
+
+        MemState(NewBot bot) {
+            this.bot = bot;
+        }
+
+        @Override
+        public boolean saveState(NewBot newBot) {
+            return true;
+        }
+
+        @Override
+        public NewBot getState() {
+            return bot;
+        }
+
+        @Override
+        public boolean removeState() {
+            return true;
+        }
+    }
+}
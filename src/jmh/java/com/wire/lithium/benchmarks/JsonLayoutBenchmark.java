@@ -0,0 +1,86 @@
+package com.wire.lithium.benchmarks;
+
+import ch.qos.logback.access.spi.IAccessEvent;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import com.wire.lithium.helpers.LogEvents;
+import com.wire.lithium.helpers.MapJsonLayouts;
+import com.wire.lithium.server.monitoring.AbstractJsonLayout;
+import com.wire.lithium.server.monitoring.AccessEventJsonLayout;
+import com.wire.lithium.server.monitoring.LoggingEventJsonLayout;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.MDC;
+
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON layouts: the map based layouts they replaced ({@link MapJsonLayouts}) against the streaming ones, as String
+ * ({@code doLayout}) and as bytes ({@code encode}, streaming only). Events carry the MDC of an inbound message.
+ * Compare ops/s and {@code gc.alloc.rate.norm}.
+ * <p>
+ * Run with: mvn -P benchmarks test-compile exec:exec -Djmh.args="JsonLayoutBenchmark"
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@org.openjdk.jmh.annotations.State(Scope.Thread)
+public class JsonLayoutBenchmark {
+    @Param({"map", "streaming"})
+    public String layout;
+
+    private AbstractJsonLayout<ILoggingEvent> logs;
+    private AbstractJsonLayout<IAccessEvent> access;
+    private ILoggingEvent log;
+    private IAccessEvent request;
+
+    @Setup
+    public void setup() {
+        if ("map".equals(layout)) {
+            logs = new MapJsonLayouts.LoggingEvent();
+            access = new MapJsonLayouts.AccessEvent();
+        } else {
+            logs = new LoggingEventJsonLayout(Collections.emptyList());
+            access = new AccessEventJsonLayout(Collections.emptyList());
+        }
+
+        MDC.put("botId", UUID.randomUUID().toString());
+        MDC.put("eventId", UUID.randomUUID().toString());
+        MDC.put("conversationId", UUID.randomUUID().toString());
+
+        log = LogEvents.log("newMessage: bot: {}, event: {}", null, UUID.randomUUID(), UUID.randomUUID());
+        request = LogEvents.access(null);
+    }
+
+    @TearDown
+    public void tearDown() {
+        MDC.clear();
+    }
+
+    @Benchmark
+    public String log() {
+        return logs.doLayout(log);
+    }
+
+    @Benchmark
+    public String access() {
+        return access.doLayout(request);
+    }
+
+    @Benchmark
+    public byte[] logBytes() {
+        return "map".equals(layout) ? logs.doLayout(log).getBytes() : logs.encode(log);
+    }
+}
@@ -0,0 +1,71 @@
+package com.wire.lithium.benchmarks;
+
+import com.wire.lithium.server.monitoring.RequestIds;
+import com.wire.lithium.server.monitoring.RequestMdcFactoryFilter;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.MDC;
+
+import java.lang.reflect.Proxy;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request ids under contention: {@link UUID#randomUUID()}, as the request filter used to generate them, against
+ * {@link RequestIds}. {@code filter} runs the whole request filter, the legacy one without clearing the MDC.
+ * All cores call at the same time, change with -t.
+ * <p>
+ * Run with: mvn -P benchmarks test-compile exec:exec -Djmh.args="RequestIdBenchmark"
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(Threads.MAX)
+@org.openjdk.jmh.annotations.State(Scope.Benchmark)
+public class RequestIdBenchmark {
+    @Param({"random", "ordered"})
+    public String ids;
+
+    private final RequestMdcFactoryFilter filter = new RequestMdcFactoryFilter();
+    private ContainerRequestContext request;
+    private boolean random;
+
+    @Setup
+    public void setup() {
+        random = "random".equals(ids);
+        request = (ContainerRequestContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[]{ContainerRequestContext.class},
+                (proxy, method, args) -> "getHeaderString".equals(method.getName()) && "X-Real-IP".equals(args[0])
+                        ? "10.0.0.1"
+                        : null);
+    }
+
+    @Benchmark
+    public UUID id() {
+        return random ? UUID.randomUUID() : RequestIds.next();
+    }
+
+    @Benchmark
+    public String filter() {
+        if (random) {
+            MDC.put("appRequest", UUID.randomUUID().toString());
+            MDC.put("realIp", request.getHeaderString("X-Real-IP"));
+            return MDC.get("appRequest");
+        }
+
+        filter.filter(request);
+        return MDC.get("appRequest");
+    }
+}
@@ -0,0 +1,160 @@
+package com.wire.lithium.benchmarks;
+
+import com.codahale.metrics.MetricRegistry;
+import com.wire.bots.cryptobox.IRecord;
+import com.wire.bots.cryptobox.IStorage;
+import com.wire.lithium.helpers.Util;
+import com.wire.lithium.storage.MappedState;
+import com.wire.lithium.storage.MappedStorage;
+import com.wire.lithium.storage.SegmentStore;
+import com.wire.xenon.backend.models.Conversation;
+import com.wire.xenon.backend.models.NewBot;
+import com.wire.xenon.crypto.storage.JdbiStorage;
+import com.wire.xenon.factories.StorageFactory;
+import com.wire.xenon.state.JdbiState;
+import io.dropwizard.db.DataSourceFactory;
+import org.flywaydb.core.Flyway;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.sqlobject.SqlObjectPlugin;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Storage backends behind {@link com.wire.lithium.Server#getStorageFactory()} and
+ * {@link com.wire.lithium.Server#getCryptoFactory()}:
+ * <ul>
+ * <li>mapped - {@link SegmentStore} on a temp dir</li>
+ * <li>postgres - JDBI on the database of the tests (POSTGRES_URL, POSTGRES_USER, POSTGRES_PASSWORD)</li>
+ * </ul>
+ * session: fetch and persist of a ~2KB session, as done for every message. state: read of a bot's state, as done for
+ * every {@code ClientRepo.getClient} without client cache.
+ * <p>
+ * Run with: mvn -P benchmarks test-compile exec:exec -Djmh.args="StorageBenchmark"
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(4)
+@org.openjdk.jmh.annotations.State(Scope.Benchmark)
+public class StorageBenchmark {
+    private static final int BOTS = 1_000;
+
+    @Param({"mapped", "postgres"})
+    public String backend;
+
+    private Path root;
+    private SegmentStore store;
+    private Flyway flyway;
+
+    private IStorage crypto;
+    private StorageFactory states;
+    private UUID[] bots;
+    private byte[] session;
+
+    @Setup
+    public void setup() throws Exception {
+        switch (backend) {
+            case "mapped":
+                root = Files.createTempDirectory("lithium-jmh");
+                store = new SegmentStore(root, 64 * 1024 * 1024, false, 0.5, 60_000, Executors.defaultThreadFactory(),
+                        new MetricRegistry());
+                crypto = new MappedStorage(store);
+                states = botId -> new MappedState(botId, store);
+                break;
+            case "postgres":
+                final Jdbi jdbi = postgres();
+                crypto = new JdbiStorage(jdbi);
+                states = botId -> new JdbiState(botId, jdbi);
+                break;
+            default:
+                throw new IllegalArgumentException(backend);
+        }
+
+        session = new byte[2048];
+        ThreadLocalRandom.current().nextBytes(session);
+
+        bots = new UUID[BOTS];
+        for (int i = 0; i < BOTS; i++) {
+            bots[i] = UUID.randomUUID();
+
+            final NewBot bot = new NewBot();
+            bot.id = bots[i];
+            bot.client = "client";
+            bot.token = "token";
+            bot.conversation = new Conversation();
+            bot.conversation.id = UUID.randomUUID();
+            states.create(bots[i]).saveState(bot);
+            crypto.fetchSession(bots[i].toString(), "user_client").persist(session);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (store != null) {
+            store.close();
+            Util.deleteDir(root.toString());
+        }
+        if (flyway != null)
+            flyway.clean();
+    }
+
+    @Benchmark
+    public byte[] session() throws Exception {
+        final IRecord record = crypto.fetchSession(bot().toString(), "user_client");
+        record.persist(session);
+        return record.getData();
+    }
+
+    @Benchmark
+    public NewBot state() throws Exception {
+        return states.create(bot()).getState();
+    }
+
+    private UUID bot() {
+        return bots[ThreadLocalRandom.current().nextInt(BOTS)];
+    }
+
+    private Jdbi postgres() {
+        final DataSourceFactory dataSourceFactory = new DataSourceFactory();
+        dataSourceFactory.setDriverClass("org.postgresql.Driver");
+
+        final String url = System.getenv("POSTGRES_URL");
+        dataSourceFactory.setUrl("jdbc:postgresql://" + (url != null ? url : "localhost/lithium"));
+        final String user = System.getenv("POSTGRES_USER");
+        if (user != null)
+            dataSourceFactory.setUser(user);
+        final String password = System.getenv("POSTGRES_PASSWORD");
+        if (password != null)
+            dataSourceFactory.setPassword(password);
+
+        flyway = Flyway
+                .configure()
+                .cleanDisabled(false)
+                .dataSource(dataSourceFactory.getUrl(), dataSourceFactory.getUser(), dataSourceFactory.getPassword())
+                .baselineOnMigrate(true)
+                .load();
+        flyway.migrate();
+
+        return Jdbi.create(dataSourceFactory.build(new MetricRegistry(), "StorageBenchmark"))
+                .installPlugin(new SqlObjectPlugin());
+    }
+}
@@ -0,0 +1,142 @@
+package com.wire.lithium.benchmarks;
+
+import com.wire.xenon.WireAPI;
+import com.wire.xenon.assets.IAsset;
+import com.wire.xenon.backend.models.Conversation;
+import com.wire.xenon.backend.models.User;
+import com.wire.xenon.models.AssetKey;
+import com.wire.xenon.models.otr.Devices;
+import com.wire.xenon.models.otr.Missing;
+import com.wire.xenon.models.otr.OtrMessage;
+import com.wire.xenon.models.otr.PreKey;
+import com.wire.xenon.models.otr.PreKeys;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * {@link WireAPI} that never leaves the JVM, so the benchmarks measure only the local work
+ */
+public class StubAPI implements WireAPI {
+    private final UUID botId;
+    private final Conversation conversation;
+
+    public StubAPI(UUID botId, Conversation conversation) {
+        this.botId = botId;
+        this.conversation = conversation;
+    }
+
+    @Override
+    public Devices sendMessage(OtrMessage msg, Object... ignoreMissing) {
+        return new Devices();
+    }
+
+    @Override
+    public Devices sendPartialMessage(OtrMessage msg, UUID userId) {
+        return new Devices();
+    }
+
+    @Override
+    public Collection<User> getUsers(Collection<UUID> ids) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public User getSelf() {
+        User user = new User();
+        user.id = botId;
+        return user;
+    }
+
+    @Override
+    public Conversation getConversation() {
+        return conversation;
+    }
+
+    @Override
+    public PreKeys getPreKeys(Missing missing) {
+        return new PreKeys();
+    }
+
+    @Override
+    public ArrayList<Integer> getAvailablePrekeys(String client) {
+        return new ArrayList<>();
+    }
+
+    @Override
+    public void uploadPreKeys(ArrayList<PreKey> preKeys) {
+    }
+
+    @Override
+    public AssetKey uploadAsset(IAsset asset) {
+        return new AssetKey();
+    }
+
+    @Override
+    public byte[] downloadAsset(String assetId, String assetToken) {
+        return new byte[0];
+    }
+
+    @Override
+    public boolean deleteConversation(UUID teamId) {
+        return true;
+    }
+
+    @Override
+    public User addService(UUID serviceId, UUID providerId) {
+        return new User();
+    }
+
+    @Override
+    public User addParticipants(UUID... userIds) {
+        return new User();
+    }
+
+    @Override
+    public Conversation createConversation(String name, UUID teamId, List<UUID> users) {
+        return conversation;
+    }
+
+    @Override
+    public Conversation createOne2One(UUID teamId, UUID userId) {
+        return conversation;
+    }
+
+    @Override
+    public void leaveConversation(UUID user) {
+    }
+
+    @Override
+    public User getUser(UUID userId) {
+        User user = new User();
+        user.id = userId;
+        return user;
+    }
+
+    @Override
+    public UUID getUserId(String handle) {
+        return UUID.randomUUID();
+    }
+
+    @Override
+    public boolean hasDevice(UUID userId, String clientId) {
+        return true;
+    }
+
+    @Override
+    public UUID getTeam() {
+        return null;
+    }
+
+    @Override
+    public Collection<UUID> getTeamMembers(UUID teamId) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public void acceptConnection(UUID user) {
+    }
+}
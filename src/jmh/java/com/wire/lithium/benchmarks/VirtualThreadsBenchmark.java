@@ -0,0 +1,83 @@
+package com.wire.lithium.benchmarks;
+
+import com.wire.lithium.tools.VirtualThreads;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Requests that block, e.g. on the outbound calls to the Backend, handled by a platform pool of Jetty's default size
+ * (1024 threads) against a virtual thread per request, as with {@code virtualThreads: true}. One operation handles
+ * {@code requests} requests at once, each blocking for {@code blockMillis}: requests/s = ops/s × requests.
+ * The peak number of platform threads of the trial is printed after it, next to the allocations of the gc profiler.
+ * <p>
+ * Virtual threads need Java 21 or newer, the virtual runs fail on older runtimes.
+ * <p>
+ * Run with: mvn -P benchmarks test-compile exec:exec -Djmh.args="VirtualThreadsBenchmark"
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@org.openjdk.jmh.annotations.State(Scope.Benchmark)
+public class VirtualThreadsBenchmark {
+    private static final int PLATFORM_THREADS = 1024;
+
+    @Param({"platform", "virtual"})
+    public String threads;
+
+    @Param({"1000", "5000"})
+    public int requests;
+
+    @Param({"10"})
+    public int blockMillis;
+
+    private ExecutorService executor;
+
+    @Setup
+    public void setup() {
+        executor = "virtual".equals(threads)
+                ? VirtualThreads.newExecutor()
+                : Executors.newFixedThreadPool(PLATFORM_THREADS);
+        ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        System.out.printf("%nPeak platform threads: %d%n", ManagementFactory.getThreadMXBean().getPeakThreadCount());
+        executor.shutdownNow();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public void requests() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(requests);
+        for (int i = 0; i < requests; i++) {
+            executor.execute(() -> {
+                try {
+                    Thread.sleep(blockMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+    }
+}
@@ -19,7 +19,9 @@
 package com.wire.lithium;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.wire.lithium.client.StreamingClient;
 import com.wire.lithium.models.NewBotResponseModel;
+import com.wire.lithium.tools.AssetStreams;
 import com.wire.xenon.Const;
 import com.wire.xenon.WireAPI;
 import com.wire.xenon.assets.IAsset;
@@ -32,6 +34,7 @@ import com.wire.xenon.tools.Logger;
 import com.wire.xenon.tools.Util;
 import jakarta.annotation.Nullable;
 import jakarta.ws.rs.NotSupportedException;
+import jakarta.ws.rs.ProcessingException;
 import jakarta.ws.rs.client.Client;
 import jakarta.ws.rs.client.Entity;
 import jakarta.ws.rs.client.Invocation;
@@ -40,10 +43,20 @@ import jakarta.ws.rs.core.*;
 import org.glassfish.jersey.client.ClientProperties;
 import org.glassfish.jersey.logging.LoggingFeature;
 
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.logging.Level;
 
@@ -59,6 +72,7 @@ public class API implements WireAPI {
     private final WebTarget bot;
 
     private final Client httpClient;
+    private final StreamingClient streamingClient;
     private final String token;
 
     public API(Client httpClient, String token) {
@@ -67,6 +81,7 @@ public class API implements WireAPI {
 
     public API(Client httpClient, String token, String wireHost) {
         this.httpClient = httpClient;
+        this.streamingClient = StreamingClient.of(httpClient);
         this.token = token;
 
         this.wireHost = wireHost;
@@ -115,6 +130,13 @@ public class API implements WireAPI {
         return this.wireHost;
     }
 
+    /**
+     * @return Non blocking variant of this API for the same bot
+     */
+    public AsyncAPI async() {
+        return new AsyncAPI(streamingClient, token, wireHost);
+    }
+
     /**
      * This method sends the OtrMessage to BE. Message must contain cipher for all participants and all their clients.
      *
@@ -234,42 +256,21 @@ public class API implements WireAPI {
 
     @Override
     public AssetKey uploadAsset(IAsset asset) throws Exception {
-        StringBuilder sb = new StringBuilder();
-
-        // Part 1
-        String strMetadata = String.format("{\"public\": %s, \"retention\": \"%s\"}",
-                asset.isPublic(),
-                asset.getRetention());
-        sb.append("--frontier\r\n");
-        sb.append("Content-Type: application/json; charset=utf-8\r\n");
-        sb.append("Content-Length: ")
-                .append(strMetadata.length())
-                .append("\r\n\r\n");
-        sb.append(strMetadata)
-                .append("\r\n");
-
-        // Part 2
-        sb.append("--frontier\r\n");
-        sb.append("Content-Type: ")
-                .append(asset.getMimeType())
-                .append("\r\n");
-        sb.append("Content-Length: ")
-                .append(asset.getEncryptedData().length)
-                .append("\r\n");
-        sb.append("Content-MD5: ")
-                .append(Util.calcMd5(asset.getEncryptedData()))
-                .append("\r\n\r\n");
-
-        // Complete
-        ByteArrayOutputStream os = new ByteArrayOutputStream();
-        os.write(sb.toString().getBytes(StandardCharsets.UTF_8));
-        os.write(asset.getEncryptedData());
-        os.write("\r\n--frontier--\r\n".getBytes(StandardCharsets.UTF_8));
+        final byte[] data = asset.getEncryptedData();
+        final Multipart multipart = new Multipart(asset.isPublic(), asset.getRetention(), asset.getMimeType(),
+                data.length, Util.calcMd5(data));
+
+        // written straight into the request, without building the whole frame in memory first
+        final StreamingOutput body = out -> {
+            out.write(multipart.head);
+            out.write(data);
+            out.write(multipart.tail);
+        };
 
         try (Response response = assets
                 .request(MediaType.APPLICATION_JSON_TYPE)
                 .header(HttpHeaders.AUTHORIZATION, bearer())
-                .post(Entity.entity(os.toByteArray(), "multipart/mixed; boundary=frontier"))) {
+                .post(Entity.entity(body, Multipart.CONTENT_TYPE))) {
 
             if (response.getStatus() >= 400) {
                 throw new HttpException(response.readEntity(String.class), response.getStatus());
@@ -279,8 +280,87 @@ public class API implements WireAPI {
         }
     }
 
+    /**
+     * Uploads encrypted asset stored in the file. The file is read twice: first for Content-MD5,
+     * that precedes the data in the multipart frame, then while it is sent.
+     *
+     * @param encrypted Encrypted asset, see {@link AssetStreams#encrypt(InputStream, java.io.OutputStream)}
+     * @param mimeType  Mime type of the asset
+     * @param isPublic  Public asset
+     * @param retention Retention: eternal, persistent, volatile, eternal-infrequent_access or expiring
+     * @return Asset key and token
+     * @throws Exception if the upload failed
+     */
+    public AssetKey uploadAsset(Path encrypted, String mimeType, boolean isPublic, String retention) throws Exception {
+        final String md5 = AssetStreams.md5(encrypted);
+        try (FileChannel channel = FileChannel.open(encrypted, StandardOpenOption.READ)) {
+            return uploadAsset(Channels.newInputStream(channel), channel.size(), md5, mimeType, isPublic, retention);
+        }
+    }
+
+    /**
+     * Uploads encrypted asset from the stream. The multipart frame is written directly to the connection,
+     * so the memory used does not depend on the size of the asset.
+     *
+     * @param encrypted Encrypted asset data. Not closed
+     * @param length    Number of bytes in the stream
+     * @param md5       Base64 MD5 of the encrypted data, see {@link AssetStreams.Encrypted#md5}
+     * @param mimeType  Mime type of the asset
+     * @param isPublic  Public asset
+     * @param retention Retention: eternal, persistent, volatile, eternal-infrequent_access or expiring
+     * @return Asset key and token
+     * @throws Exception if the upload failed
+     */
+    public AssetKey uploadAsset(InputStream encrypted, long length, String md5, String mimeType, boolean isPublic,
+                                String retention) throws Exception {
+        final Multipart multipart = new Multipart(isPublic, retention, mimeType, length, md5);
+
+        // Dropwizard's connector buffers request entities, so the stream is sent with the JDK client
+        final HttpRequest.BodyPublisher body = HttpRequest.BodyPublishers.fromPublisher(
+                HttpRequest.BodyPublishers.ofInputStream(() -> new SequenceInputStream(Collections.enumeration(List.of(
+                        new ByteArrayInputStream(multipart.head),
+                        new UnclosableInputStream(encrypted),
+                        new ByteArrayInputStream(multipart.tail))))),
+                multipart.length(length));
+
+        final HttpRequest request = HttpRequest.newBuilder(assets.getUri())
+                .header(HttpHeaders.AUTHORIZATION, bearer())
+                .header(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.CONTENT_TYPE, Multipart.CONTENT_TYPE)
+                .timeout(streamingClient.getUploadTimeout(multipart.length(length)))
+                .POST(body)
+                .build();
+
+        final HttpResponse<InputStream> response = streamingClient.getClient()
+                .send(request, HttpResponse.BodyHandlers.ofInputStream());
+        try (InputStream in = response.body()) {
+            if (response.statusCode() >= 400) {
+                throw new HttpException(new String(in.readAllBytes(), StandardCharsets.UTF_8), response.statusCode());
+            }
+
+            return StreamingClient.MAPPER.readValue(in, AssetKey.class);
+        }
+    }
+
     @Override
     public byte[] downloadAsset(String assetId, String assetToken) throws HttpException {
+        try (InputStream in = downloadAssetStream(assetId, assetToken)) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new ProcessingException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Opens the encrypted asset without buffering it. Closing the stream releases the connection.
+     * To decrypt and verify it while reading see {@link AssetStreams#decrypt(InputStream, byte[], byte[])}
+     *
+     * @param assetId    Asset key
+     * @param assetToken Asset token, can be null
+     * @return Encrypted asset data
+     * @throws HttpException if the asset could not be fetched
+     */
+    public InputStream downloadAssetStream(String assetId, String assetToken) throws HttpException {
         Invocation.Builder req = assets
                 .path(assetId)
                 .request()
@@ -308,7 +388,22 @@ public class API implements WireAPI {
             throw new HttpException(response.readEntity(String.class), response.getStatus());
         }
 
-        return response.readEntity(byte[].class);
+        return response.readEntity(InputStream.class);
+    }
+
+    /**
+     * Transfers the encrypted asset into the channel, e.g. a {@link FileChannel}, through a fixed size buffer
+     *
+     * @param assetId    Asset key
+     * @param assetToken Asset token, can be null
+     * @param target     Where the asset is written to. Not closed
+     * @return Number of bytes transferred
+     * @throws IOException if the asset could not be fetched or written
+     */
+    public long downloadAsset(String assetId, String assetToken, WritableByteChannel target) throws HttpException, IOException {
+        try (InputStream in = downloadAssetStream(assetId, assetToken)) {
+            return AssetStreams.transfer(in, target);
+        }
     }
 
     @Override
@@ -378,6 +473,63 @@ public class API implements WireAPI {
         return String.format("Bearer %s", token);
     }
 
+    /**
+     * Multipart frame of the asset upload: metadata part and the headers of the data part, then the data, then the end
+     */
+    static final class Multipart {
+        static final String CONTENT_TYPE = "multipart/mixed; boundary=frontier";
+
+        final byte[] head;
+        final byte[] tail = "\r\n--frontier--\r\n".getBytes(StandardCharsets.UTF_8);
+
+        Multipart(boolean isPublic, String retention, String mimeType, long length, String md5) {
+            StringBuilder sb = new StringBuilder();
+
+            // Part 1
+            String strMetadata = String.format("{\"public\": %s, \"retention\": \"%s\"}",
+                    isPublic,
+                    retention);
+            sb.append("--frontier\r\n");
+            sb.append("Content-Type: application/json; charset=utf-8\r\n");
+            sb.append("Content-Length: ")
+                    .append(strMetadata.length())
+                    .append("\r\n\r\n");
+            sb.append(strMetadata)
+                    .append("\r\n");
+
+            // Part 2
+            sb.append("--frontier\r\n");
+            sb.append("Content-Type: ")
+                    .append(mimeType)
+                    .append("\r\n");
+            sb.append("Content-Length: ")
+                    .append(length)
+                    .append("\r\n");
+            sb.append("Content-MD5: ")
+                    .append(md5)
+                    .append("\r\n\r\n");
+
+            head = sb.toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        long length(long data) {
+            return head.length + data + tail.length;
+        }
+    }
+
+    /**
+     * The caller owns the stream: the JDK client closes the body when it is done with it
+     */
+    private static final class UnclosableInputStream extends FilterInputStream {
+        UnclosableInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
     public static class MetaData {
         @JsonProperty("public")
         public boolean scope;
@@ -0,0 +1,327 @@
+//
+// Wire
+// Copyright (C) 2016 Wire Swiss GmbH
+//
+// This program is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with this program. If not, see http://www.gnu.org/licenses/.
+//
+
+package com.wire.lithium;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.wire.lithium.client.StreamingClient;
+import com.wire.lithium.tools.AssetStreams;
+import com.wire.xenon.assets.IAsset;
+import com.wire.xenon.backend.models.Conversation;
+import com.wire.xenon.backend.models.User;
+import com.wire.xenon.exceptions.HttpException;
+import com.wire.xenon.models.AssetKey;
+import com.wire.xenon.models.otr.Devices;
+import com.wire.xenon.models.otr.Missing;
+import com.wire.xenon.models.otr.OtrMessage;
+import com.wire.xenon.models.otr.PreKeys;
+import com.wire.xenon.tools.Util;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.UriBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non blocking variant of {@link API}. Requests are sent with the JDK {@link HttpClient}, so no thread waits
+ * for the response: a handler can send to several conversations or look up users concurrently and join the futures.
+ * <p>
+ * Responses are handled as in {@link API}: 412 completes {@link #sendMessage} with the missing devices,
+ * any other status {@literal >}= 400 completes the future exceptionally with {@link HttpException}.
+ * A request without a response within the timeout of the {@link StreamingClient} completes it with
+ * {@link java.net.http.HttpTimeoutException}.
+ */
+public class AsyncAPI {
+    private final HttpClient httpClient;
+    private final StreamingClient streamingClient;
+    private final String token;
+    private final URI bot;
+
+    public AsyncAPI(String token, String wireHost) {
+        this(StreamingClient.DEFAULT, token, wireHost);
+    }
+
+    public AsyncAPI(HttpClient httpClient, String token, String wireHost) {
+        this(new StreamingClient(httpClient, StreamingClient.DEFAULT.getTimeout()), token, wireHost);
+    }
+
+    /**
+     * @param streamingClient JDK client and the timeout of the requests, e.g. {@link StreamingClient#of} the Jersey client
+     * @param token           Bot's token
+     * @param wireHost        Backend
+     */
+    public AsyncAPI(StreamingClient streamingClient, String token, String wireHost) {
+        this.httpClient = streamingClient.getClient();
+        this.streamingClient = streamingClient;
+        this.token = token;
+        this.bot = UriBuilder.fromUri(wireHost).path("bot").build();
+    }
+
+    /**
+     * See {@link API#sendMessage(OtrMessage, Object...)}
+     *
+     * @return Missing devices if the Backend responded with 412, otherwise deleted and redundant devices
+     */
+    public CompletableFuture<Devices> sendMessage(OtrMessage msg, Object... ignoreMissing) {
+        URI uri = target("messages")
+                .queryParam("ignore_missing", ignoreMissing)
+                .build();
+        return post(uri, msg, new TypeReference<>() {
+        }, true);
+    }
+
+    /**
+     * See {@link API#sendPartialMessage(OtrMessage, UUID)}
+     */
+    public CompletableFuture<Devices> sendPartialMessage(OtrMessage msg, UUID userId) {
+        URI uri = target("messages")
+                .queryParam("report_missing", userId)
+                .build();
+        return post(uri, msg, new TypeReference<>() {
+        }, true);
+    }
+
+    public CompletableFuture<Collection<User>> getUsers(Collection<UUID> ids) {
+        URI uri = target("users")
+                .queryParam("ids", ids.toArray())
+                .build();
+        return send(get(uri), new TypeReference<>() {
+        }, false);
+    }
+
+    public CompletableFuture<User> getUser(UUID userId) {
+        return getUsers(Collections.singletonList(userId))
+                .thenApply(users -> users.stream()
+                        .findFirst()
+                        .orElse(null));
+    }
+
+    public CompletableFuture<User> getSelf() {
+        return send(get(target("self").build()), new TypeReference<>() {
+        }, false);
+    }
+
+    public CompletableFuture<Conversation> getConversation() {
+        return send(get(target("conversation").build()), new TypeReference<>() {
+        }, false);
+    }
+
+    public CompletableFuture<PreKeys> getPreKeys(Missing missing) {
+        URI uri = target("users")
+                .path("prekeys")
+                .build();
+        return post(uri, missing, new TypeReference<>() {
+        }, false);
+    }
+
+    /**
+     * Uploads the encrypted asset, see {@link API#uploadAsset(IAsset)}
+     */
+    public CompletableFuture<AssetKey> uploadAsset(IAsset asset) {
+        final HttpRequest.BodyPublisher body;
+        try {
+            final byte[] data = asset.getEncryptedData();
+            final API.Multipart multipart = new API.Multipart(asset.isPublic(), asset.getRetention(), asset.getMimeType(),
+                    data.length, Util.calcMd5(data));
+            body = HttpRequest.BodyPublishers.ofByteArrays(List.of(multipart.head, data, multipart.tail));
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        return send(upload(body), new TypeReference<>() {
+        }, false);
+    }
+
+    /**
+     * Uploads the encrypted asset stored in the file, see {@link API#uploadAsset(Path, String, boolean, String)}.
+     * The file is read by the JDK client while it is sent.
+     */
+    public CompletableFuture<AssetKey> uploadAsset(Path encrypted, String mimeType, boolean isPublic, String retention) {
+        final HttpRequest.BodyPublisher body;
+        try {
+            final long length = Files.size(encrypted);
+            final API.Multipart multipart = new API.Multipart(isPublic, retention, mimeType, length,
+                    AssetStreams.md5(encrypted));
+            body = HttpRequest.BodyPublishers.fromPublisher(
+                    HttpRequest.BodyPublishers.ofInputStream(() -> new SequenceInputStream(Collections.enumeration(List.of(
+                            new ByteArrayInputStream(multipart.head),
+                            open(encrypted),
+                            new ByteArrayInputStream(multipart.tail))))),
+                    multipart.length(length));
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        return send(upload(body), new TypeReference<>() {
+        }, false);
+    }
+
+    /**
+     * See {@link API#downloadAsset(String, String)}
+     *
+     * @return Encrypted asset
+     */
+    public CompletableFuture<byte[]> downloadAsset(String assetId, String assetToken) {
+        return downloadAsset(assetId, assetToken, HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    /**
+     * See {@link API#downloadAssetStream(String, String)}
+     *
+     * @return Encrypted asset data. Closing the stream releases the connection
+     */
+    public CompletableFuture<InputStream> downloadAssetStream(String assetId, String assetToken) {
+        return downloadAsset(assetId, assetToken, HttpResponse.BodyHandlers.ofInputStream());
+    }
+
+    private <T> CompletableFuture<T> downloadAsset(String assetId, String assetToken, HttpResponse.BodyHandler<T> handler) {
+        HttpRequest.Builder req = HttpRequest.newBuilder(target("assets").path(assetId).build())
+                .timeout(streamingClient.getTimeout())
+                .header(HttpHeaders.AUTHORIZATION, bearer())
+                .GET();
+
+        if (assetToken != null && !assetToken.isBlank())
+            req.header("Asset-Token", assetToken);
+
+        // the Backend redirects to the storage, which must not get our token
+        return httpClient.sendAsync(req.build(), HttpResponse.BodyHandlers.ofString())
+                .thenCompose(res -> {
+                    if (res.statusCode() >= 400)
+                        return CompletableFuture.failedFuture(new HttpException(res.body(), res.statusCode()));
+
+                    final String location = res.headers().firstValue(HttpHeaders.LOCATION).orElse(null);
+                    if (location == null)
+                        return CompletableFuture.failedFuture(new HttpException("Missing asset location", res.statusCode()));
+
+                    final HttpRequest blob = HttpRequest.newBuilder(URI.create(location))
+                            .timeout(streamingClient.getTimeout())
+                            .GET()
+                            .build();
+                    return httpClient.sendAsync(blob, handler);
+                })
+                .thenCompose(res -> {
+                    if (res.statusCode() >= 400)
+                        return CompletableFuture.failedFuture(new HttpException(error(res.body()), res.statusCode()));
+                    return CompletableFuture.completedFuture(res.body());
+                });
+    }
+
+    private <T> CompletableFuture<T> send(HttpRequest request, TypeReference<T> type, boolean acceptMissing) {
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .thenCompose(res -> {
+                    int statusCode = res.statusCode();
+                    // 412: message was not sent due to missing clients. Parse those missing clients so the caller can add them
+                    if (statusCode >= 400 && !(acceptMissing && statusCode == 412)) {
+                        String body = new String(res.body(), StandardCharsets.UTF_8);
+                        return CompletableFuture.failedFuture(new HttpException(body, statusCode));
+                    }
+
+                    try {
+                        return CompletableFuture.completedFuture(StreamingClient.MAPPER.readValue(res.body(), type));
+                    } catch (IOException e) {
+                        return CompletableFuture.failedFuture(e);
+                    }
+                });
+    }
+
+    private HttpRequest get(URI uri) {
+        return HttpRequest.newBuilder(uri)
+                .timeout(streamingClient.getTimeout())
+                .header(HttpHeaders.AUTHORIZATION, bearer())
+                .header(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON)
+                .GET()
+                .build();
+    }
+
+    /**
+     * Sends the entity as JSON. An entity that cannot be serialized completes the future exceptionally
+     */
+    private <T> CompletableFuture<T> post(URI uri, Object entity, TypeReference<T> type, boolean acceptMissing) {
+        final byte[] json;
+        try {
+            json = StreamingClient.MAPPER.writeValueAsBytes(entity);
+        } catch (JsonProcessingException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .timeout(streamingClient.getTimeout())
+                .header(HttpHeaders.AUTHORIZATION, bearer())
+                .header(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(json))
+                .build();
+        return send(request, type, acceptMissing);
+    }
+
+    private HttpRequest upload(HttpRequest.BodyPublisher body) {
+        final long length = Math.max(body.contentLength(), 0);
+        return HttpRequest.newBuilder(target("assets").build())
+                .timeout(streamingClient.getUploadTimeout(length))
+                .header(HttpHeaders.AUTHORIZATION, bearer())
+                .header(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.CONTENT_TYPE, API.Multipart.CONTENT_TYPE)
+                .POST(body)
+                .build();
+    }
+
+    private UriBuilder target(String path) {
+        return UriBuilder.fromUri(bot).path(path);
+    }
+
+    private String bearer() {
+        return String.format("Bearer %s", token);
+    }
+
+    private static InputStream open(Path file) {
+        try {
+            return Files.newInputStream(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String error(Object body) {
+        if (body instanceof byte[])
+            return new String((byte[]) body, StandardCharsets.UTF_8);
+        if (body instanceof InputStream) {
+            try (InputStream in = (InputStream) body) {
+                return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                return e.getMessage();
+            }
+        }
+        return String.valueOf(body);
+    }
+}
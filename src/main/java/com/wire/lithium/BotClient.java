@@ -18,13 +18,250 @@
 
 package com.wire.lithium;
 
+import com.wire.bots.cryptobox.CryptoException;
+import com.wire.lithium.crypto.LockingStorage;
+import com.wire.lithium.server.monitoring.StageTimes;
+import com.wire.lithium.tools.AssetStreams;
 import com.wire.xenon.WireAPI;
 import com.wire.xenon.WireClientBase;
+import com.wire.xenon.assets.IGeneric;
+import com.wire.xenon.backend.models.Conversation;
 import com.wire.xenon.backend.models.NewBot;
+import com.wire.xenon.backend.models.User;
 import com.wire.xenon.crypto.Crypto;
+import com.wire.xenon.exceptions.HttpException;
+import com.wire.xenon.models.AssetKey;
+import com.wire.xenon.models.otr.Devices;
+import com.wire.xenon.models.otr.Missing;
+import com.wire.xenon.models.otr.OtrMessage;
+import com.wire.xenon.models.otr.PreKeys;
+import com.wire.xenon.models.otr.Recipients;
+import com.wire.xenon.tools.Logger;
+import jakarta.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.UUID;
 
 public class BotClient extends WireClientBase {
+    @Nullable
+    private final DeviceCache deviceCache;
+    @Nullable
+    private final UserCache userCache;
+    @Nullable
+    private final ConversationCache conversationCache;
+    private final StageTimes stageTimes = new StageTimes();
+
     public BotClient(WireAPI api, Crypto crypto, NewBot state) {
+        this(api, crypto, state, null, null, null);
+    }
+
+    /**
+     * @param deviceCache       Known devices per conversation, shared between the clients. When null the devices are
+     *                          fetched from the Backend on every send
+     * @param userCache         User profiles, shared between the clients. When null every lookup is a request
+     * @param conversationCache Bots' conversations. When null every call is a request
+     */
+    public BotClient(WireAPI api, Crypto crypto, NewBot state, @Nullable DeviceCache deviceCache,
+                     @Nullable UserCache userCache, @Nullable ConversationCache conversationCache) {
         super(api, crypto, state);
+        this.deviceCache = deviceCache;
+        this.userCache = userCache;
+        this.conversationCache = conversationCache;
+    }
+
+    @Override
+    public String decrypt(UUID userId, String clientId, String cypher) throws CryptoException {
+        final long start = System.nanoTime();
+        try {
+            return super.decrypt(userId, clientId, cypher);
+        } finally {
+            stageTimes.add(StageTimes.Stage.DECRYPT, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void send(IGeneric message) throws Exception {
+        final long start = System.nanoTime();
+        try {
+            super.send(message);
+        } finally {
+            stageTimes.add(StageTimes.Stage.SEND, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void send(IGeneric message, UUID userId) throws Exception {
+        final long start = System.nanoTime();
+        try {
+            super.send(message, userId);
+        } finally {
+            stageTimes.add(StageTimes.Stage.SEND, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        final long start = System.nanoTime();
+        try {
+            super.close();
+        } finally {
+            LockingStorage.releaseHeld();
+            stageTimes.add(StageTimes.Stage.CLOSE, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return Time this client spent in each stage of the message it was created for
+     */
+    public StageTimes getStageTimes() {
+        return stageTimes;
+    }
+
+    @Override
+    public Conversation getConversation() {
+        if (conversationCache == null)
+            return super.getConversation();
+        return conversationCache.get(getId(), super::getConversation);
+    }
+
+    @Override
+    public Collection<User> getUsers(Collection<UUID> userIds) {
+        if (userCache == null)
+            return super.getUsers(userIds);
+        return userCache.getUsers(getId(), api, userIds);
+    }
+
+    @Override
+    public User getUser(UUID userId) {
+        if (userCache == null)
+            return super.getUser(userId);
+        return userCache.getUser(getId(), api, userId);
+    }
+
+    @Override
+    protected void postGenericMessage(IGeneric generic) throws Exception {
+        if (deviceCache == null) {
+            super.postGenericMessage(generic);
+            return;
+        }
+
+        byte[] content = generic.createGenericMsg().toByteArray();
+        OtrMessage msg = new OtrMessage(getDeviceId(), encrypt(content, knownDevices()));
+        Devices res = api.sendMessage(msg, false);
+        deviceCache.update(getId(), getConversationId(), res);
+        sendMissing(msg, res, content);
+    }
+
+    @Override
+    protected void postGenericMessage(IGeneric generic, UUID userId) throws Exception {
+        if (deviceCache == null) {
+            super.postGenericMessage(generic, userId);
+            return;
+        }
+
+        Missing missing = new Missing();
+        Missing known = knownDevices();
+        if (known.containsKey(userId))
+            missing.add(userId, known.toClients(userId));
+
+        byte[] content = generic.createGenericMsg().toByteArray();
+        OtrMessage msg = new OtrMessage(getDeviceId(), encrypt(content, missing));
+        Devices res = api.sendPartialMessage(msg, userId);
+        deviceCache.update(getId(), getConversationId(), res);
+        sendMissing(msg, res, content);
+    }
+
+    /**
+     * @return Known clients in this conversation. Fetched from the Backend and cached when not known yet
+     */
+    private Missing knownDevices() throws HttpException {
+        Missing known = deviceCache.get(getId(), getConversationId());
+        if (known == null) {
+            OtrMessage msg = new OtrMessage(getDeviceId(), new Recipients());
+            known = api.sendMessage(msg).missing;
+            deviceCache.put(getId(), getConversationId(), known);
+        }
+        return known;
+    }
+
+    /**
+     * Encrypts for the clients the Backend reported as missing (new sessions from their prekeys) and sends again
+     */
+    private void sendMissing(OtrMessage msg, Devices res, byte[] content) throws Exception {
+        if (res.missing.isEmpty())
+            return;
+
+        PreKeys preKeys = api.getPreKeys(res.missing);
+        Logger.debug("Fetched %d preKeys for %d devices. Bot: %s", preKeys.count(), res.size(), getId());
+        msg.add(crypto.encrypt(preKeys, content));
+
+        res = api.sendMessage(msg, true);
+        if (!res.missing.isEmpty()) {
+            Logger.error("Failed to send otr message to %d devices. Bot: %s", res.size(), getId());
+        }
+    }
+
+    /**
+     * Streams the encrypted asset from the file, see {@link API#uploadAsset(Path, String, boolean, String)}
+     */
+    public AssetKey uploadAsset(Path encrypted, String mimeType, boolean isPublic, String retention) throws Exception {
+        return api().uploadAsset(encrypted, mimeType, isPublic, retention);
+    }
+
+    /**
+     * Streams the encrypted asset, see {@link API#uploadAsset(InputStream, long, String, String, boolean, String)}
+     *
+     * @param data      Encrypted asset data
+     * @param encrypted Length and digests of the data as returned by {@link AssetStreams#encrypt}
+     */
+    public AssetKey uploadAsset(InputStream data, AssetStreams.Encrypted encrypted, String mimeType, boolean isPublic,
+                                String retention) throws Exception {
+        return api().uploadAsset(data, encrypted.length, encrypted.md5, mimeType, isPublic, retention);
+    }
+
+    /**
+     * Streaming variant of {@link #downloadAsset(String, String, byte[], byte[])}. The asset is decrypted while it is read
+     * and its SHA-256 is verified when the stream reaches the end, see {@link AssetStreams#decrypt}
+     *
+     * @return Plain asset data. Close it to release the connection
+     */
+    public InputStream downloadAssetStream(String assetId, String assetToken, byte[] sha256Challenge, byte[] otrKey) throws Exception {
+        InputStream encrypted = api().downloadAssetStream(assetId, assetToken);
+        try {
+            return AssetStreams.decrypt(encrypted, otrKey, sha256Challenge);
+        } catch (Exception e) {
+            encrypted.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Decrypts the asset into the channel, e.g. a {@link java.nio.channels.FileChannel}, without holding it in memory
+     *
+     * @return Number of plain bytes written
+     */
+    public long downloadAsset(String assetId, String assetToken, byte[] sha256Challenge, byte[] otrKey,
+                              WritableByteChannel target) throws Exception {
+        try (InputStream in = downloadAssetStream(assetId, assetToken, sha256Challenge, otrKey)) {
+            return AssetStreams.transfer(in, target);
+        }
+    }
+
+    /**
+     * Non blocking API of this bot, e.g. to send to several users or look up users concurrently.
+     * Messages must be encrypted by the caller, see {@link #encrypt(byte[], Missing)}
+     */
+    public AsyncAPI async() {
+        return api().async();
+    }
+
+    private API api() {
+        if (!(api instanceof API))
+            throw new UnsupportedOperationException("Streaming and async calls require " + API.class.getName());
+        return (API) api;
     }
 }
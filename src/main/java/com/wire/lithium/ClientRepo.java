@@ -1,16 +1,30 @@
 package com.wire.lithium;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.caffeine.MetricsStatsCounter;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
 import com.wire.bots.cryptobox.CryptoException;
+import com.wire.lithium.server.monitoring.StageTimes;
 import com.wire.xenon.WireAPI;
 import com.wire.xenon.WireClient;
 import com.wire.xenon.backend.models.NewBot;
 import com.wire.xenon.crypto.Crypto;
 import com.wire.xenon.factories.CryptoFactory;
 import com.wire.xenon.factories.StorageFactory;
+import com.wire.xenon.models.otr.Missing;
+import com.wire.xenon.models.otr.PreKey;
+import com.wire.xenon.models.otr.PreKeys;
+import com.wire.xenon.models.otr.Recipients;
 import com.wire.xenon.state.State;
+import com.wire.xenon.tools.Logger;
+import jakarta.annotation.Nullable;
 import jakarta.ws.rs.client.Client;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.UUID;
 
 public class ClientRepo {
@@ -18,20 +32,140 @@ public class ClientRepo {
     protected final CryptoFactory cf;
     protected final StorageFactory sf;
 
+    @Nullable
+    private final Cache<UUID, CachedBot> cache;
+    @Nullable
+    private final DeviceCache deviceCache;
+    @Nullable
+    private final UserCache userCache;
+    @Nullable
+    private final ConversationCache conversationCache;
+
     public ClientRepo(Client httpClient, CryptoFactory cf, StorageFactory sf) {
         this.httpClient = httpClient;
         this.cf = cf;
         this.sf = sf;
+        this.cache = null;
+        this.deviceCache = null;
+        this.userCache = null;
+        this.conversationCache = null;
+    }
+
+    /**
+     * Creates repo that keeps bot's state, API and one crypto box per bot in memory between the requests.
+     * It starts no threads: the {@link UserCache} is off
+     *
+     * @param httpClient Jersey client used for the outbound calls
+     * @param cf         Crypto factory
+     * @param sf         Storage factory
+     * @param config     Cache bounds. Caching is turned off when not enabled
+     * @param metrics    Registry where the cache hit/miss/eviction metrics are reported
+     */
+    public ClientRepo(Client httpClient, CryptoFactory cf, StorageFactory sf,
+                      Configuration.ClientCache config, MetricRegistry metrics) {
+        this(httpClient, cf, sf, config, new Configuration.DeviceCache(), disabled(new Configuration.UserCache()),
+                new Configuration.ConversationCache(), metrics);
+    }
+
+    /**
+     * Creates repo that keeps bot's state, API and one crypto box per bot in memory between the requests,
+     * the known devices of each conversation, the user profiles and the bots' conversations, as set in the configuration.
+     * The {@link #getUserCache() user cache} runs threads of its own and must be stopped with the application
+     *
+     * @param httpClient Jersey client used for the outbound calls
+     * @param cf         Crypto factory
+     * @param sf         Storage factory
+     * @param config     Application configuration: clientCache, deviceCache, userCache and conversationCache
+     * @param metrics    Registry where the cache hit/miss/eviction metrics are reported
+     */
+    public ClientRepo(Client httpClient, CryptoFactory cf, StorageFactory sf,
+                      Configuration config, MetricRegistry metrics) {
+        this(httpClient, cf, sf, config.clientCache, config.deviceCache, config.userCache, config.conversationCache,
+                metrics);
+    }
+
+    private ClientRepo(Client httpClient, CryptoFactory cf, StorageFactory sf, Configuration.ClientCache config,
+                       Configuration.DeviceCache devices, Configuration.UserCache users,
+                       Configuration.ConversationCache conversations, MetricRegistry metrics) {
+        this.httpClient = httpClient;
+        this.cf = cf;
+        this.sf = sf;
+        this.deviceCache = devices.enabled ? new DeviceCache(devices, metrics) : null;
+        this.userCache = users.enabled ? new UserCache(users, metrics) : null;
+        this.conversationCache = conversations.enabled ? new ConversationCache(conversations, metrics) : null;
+
+        if (!config.enabled) {
+            this.cache = null;
+            return;
+        }
+
+        final String prefix = MetricRegistry.name(ClientRepo.class, "cache");
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(config.maxSize)
+                .expireAfterAccess(config.expireAfterAccess.toJavaDuration())
+                .recordStats(() -> new MetricsStatsCounter(metrics, prefix))
+                .removalListener((UUID botId, CachedBot bot, RemovalCause cause) -> {
+                    if (bot != null)
+                        bot.retire();
+                })
+                .build();
+
+        metrics.gauge(MetricRegistry.name(prefix, "size"), () -> (Gauge<Long>) cache::estimatedSize);
     }
 
     public WireClient getClient(UUID botId) throws IOException, CryptoException {
-        NewBot state = sf.create(botId).getState();
-        Crypto crypto = cf.create(botId);
-        WireAPI api = new API(httpClient, state.token);
-        return new BotClient(api, crypto, state);
+        final long start = System.nanoTime();
+        if (cache == null) {
+            NewBot state = sf.create(botId).getState();
+            final long loaded = System.nanoTime();
+            Crypto crypto = cf.create(botId);
+            WireAPI api = createApi(state);
+            return timed(new BotClient(api, crypto, state, deviceCache, userCache, conversationCache), start, loaded);
+        }
+
+        CachedBot bot = getCachedBot(botId);
+        final long loaded = System.nanoTime();
+
+        // Cached crypto box can serve only one request at the time. Concurrent requests get their own box
+        Crypto crypto = bot.lease();
+        if (crypto == null)
+            crypto = cf.create(botId);
+
+        return timed(new BotClient(bot.api, crypto, bot.state, deviceCache, userCache, conversationCache), start, loaded);
+    }
+
+    private static Configuration.UserCache disabled(Configuration.UserCache config) {
+        config.enabled = false;
+        return config;
+    }
+
+    private static BotClient timed(BotClient client, long start, long loaded) {
+        client.getStageTimes()
+                .add(StageTimes.Stage.STATE, loaded - start)
+                .add(StageTimes.Stage.CRYPTO, System.nanoTime() - loaded);
+        return client;
+    }
+
+    /**
+     * Bot's state, from the cache when enabled
+     *
+     * @param botId Bot id
+     * @return State of the bot
+     * @throws IOException {@link com.wire.xenon.exceptions.MissingStateException} if the bot does not exist
+     */
+    public NewBot getState(UUID botId) throws IOException {
+        if (cache == null)
+            return sf.create(botId).getState();
+
+        return getCachedBot(botId).state;
     }
 
     public void purgeBot(UUID botId) throws IOException {
+        if (cache != null)
+            cache.invalidate(botId);
+        if (conversationCache != null)
+            conversationCache.invalidate(botId);
+
         State state = sf.create(botId);
         if (state == null)
             return;
@@ -41,6 +175,67 @@ public class ClientRepo {
             throw new IOException("Failed to purge Bot: " + botId);
     }
 
+    /**
+     * Override this method in case you need a custom {@link WireAPI} implementation
+     *
+     * @param state Bot's state
+     * @return API used by the {@link WireClient} of this bot
+     */
+    protected WireAPI createApi(NewBot state) {
+        return new API(httpClient, state.token);
+    }
+
+    private CachedBot getCachedBot(UUID botId) throws IOException {
+        CachedBot bot = cache.getIfPresent(botId);
+        if (bot != null)
+            return bot;
+
+        NewBot state = sf.create(botId).getState();
+        CachedBot created = new CachedBot(botId, state, createApi(state));
+        CachedBot existing = cache.asMap().putIfAbsent(botId, created);
+        return existing != null ? existing : created;
+    }
+
+    /**
+     * Retires the bot's cached crypto box, e.g. once prekeys were generated in another box of the bot. The next client
+     * opens a new box from the storage; a client that holds the box keeps it until it is closed
+     *
+     * @param botId Bot
+     */
+    public void evictCrypto(UUID botId) {
+        if (cache == null)
+            return;
+
+        // not through getIfPresent: this is no lookup of the bot
+        final CachedBot bot = cache.asMap().get(botId);
+        if (bot != null)
+            bot.evict();
+    }
+
+    /**
+     * @return Known devices per conversation or null when disabled
+     */
+    @Nullable
+    public DeviceCache getDeviceCache() {
+        return deviceCache;
+    }
+
+    /**
+     * @return Shared user profiles or null when disabled
+     */
+    @Nullable
+    public UserCache getUserCache() {
+        return userCache;
+    }
+
+    /**
+     * @return Bots' conversations or null when disabled
+     */
+    @Nullable
+    public ConversationCache getConversationCache() {
+        return conversationCache;
+    }
+
     public Client getHttpClient() {
         return httpClient;
     }
@@ -52,4 +247,136 @@ public class ClientRepo {
     public StorageFactory getSf() {
         return sf;
     }
+
+    /**
+     * Cached per bot objects. Crypto box is opened lazily and leased exclusively to one client at the time.
+     */
+    private final class CachedBot {
+        private final UUID botId;
+        private final NewBot state;
+        private final WireAPI api;
+
+        private Crypto crypto;
+        private boolean leased;
+        private boolean retired;
+
+        CachedBot(UUID botId, NewBot state, WireAPI api) {
+            this.botId = botId;
+            this.state = state;
+            this.api = api;
+        }
+
+        @Nullable
+        synchronized Crypto lease() throws CryptoException {
+            if (leased || retired)
+                return null;
+
+            if (crypto == null || crypto.isClosed())
+                crypto = cf.create(botId);
+
+            leased = true;
+            return new LeasedCrypto(this, crypto);
+        }
+
+        synchronized void release() {
+            leased = false;
+            if (retired)
+                closeCrypto();
+        }
+
+        synchronized void retire() {
+            retired = true;
+            if (!leased)
+                closeCrypto();
+        }
+
+        /**
+         * Retires the box and removes this entry from the cache, so the next client opens a new box
+         */
+        void evict() {
+            retire();
+            cache.asMap().remove(botId, this);
+        }
+
+        private void closeCrypto() {
+            if (crypto == null)
+                return;
+
+            try {
+                crypto.close();
+            } catch (IOException e) {
+                Logger.exception(e, "CachedBot: failed to close crypto. Bot: %s", botId);
+            }
+            crypto = null;
+        }
+    }
+
+    /**
+     * Crypto handed out to the {@link WireClient}. Closing it returns the box to the cache instead of closing it.
+     */
+    private static final class LeasedCrypto implements Crypto {
+        private final CachedBot owner;
+        private final Crypto delegate;
+        private boolean released;
+
+        LeasedCrypto(CachedBot owner, Crypto delegate) {
+            this.owner = owner;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public byte[] getIdentity() throws CryptoException {
+            return delegate.getIdentity();
+        }
+
+        @Override
+        public byte[] getLocalFingerprint() throws CryptoException {
+            return delegate.getLocalFingerprint();
+        }
+
+        @Override
+        public PreKey newLastPreKey() throws CryptoException {
+            return delegate.newLastPreKey();
+        }
+
+        @Override
+        public ArrayList<PreKey> newPreKeys(int from, int count) throws CryptoException {
+            return delegate.newPreKeys(from, count);
+        }
+
+        @Override
+        public Recipients encrypt(PreKeys preKeys, byte[] content) throws CryptoException {
+            return delegate.encrypt(preKeys, content);
+        }
+
+        @Override
+        public Recipients encrypt(Missing missing, byte[] content) throws CryptoException {
+            return delegate.encrypt(missing, content);
+        }
+
+        @Override
+        public String decrypt(UUID userId, String clientId, String cypher) throws CryptoException {
+            return delegate.decrypt(userId, clientId, cypher);
+        }
+
+        @Override
+        public synchronized boolean isClosed() {
+            return released || delegate.isClosed();
+        }
+
+        @Override
+        public void purge() throws IOException {
+            owner.evict();
+            delegate.purge();
+        }
+
+        @Override
+        public synchronized void close() {
+            if (released)
+                return;
+
+            released = true;
+            owner.release();
+        }
+    }
 }
@@ -21,10 +21,18 @@ package com.wire.lithium;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import io.dropwizard.client.JerseyClientConfiguration;
 import io.dropwizard.db.DataSourceFactory;
+import io.dropwizard.util.DataSize;
+import io.dropwizard.util.Duration;
 import io.federecio.dropwizard.swagger.SwaggerBundleConfiguration;
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.DecimalMax;
+import jakarta.validation.constraints.DecimalMin;
+import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotNull;
 
+import java.util.ArrayList;
+import java.util.List;
+
 
 /**
  * Application configuration class. Extend this class to add your custom configuration
@@ -38,18 +46,81 @@ public class Configuration extends io.dropwizard.core.Configuration {
     @NotNull
     public String token;   // Service token. Obtained when the Service is registered with Wire
 
+    @JsonProperty
+    @NotNull
+    public List<String> tokens = new ArrayList<>();   // Further accepted service tokens, e.g. the new one while rotating
+
     @JsonProperty
     public boolean healthchecks = true;
 
+    @JsonProperty
+    @NotNull
+    public Duration healthcheckInterval = Duration.seconds(30);   // Health checks run in the background, /healthcheck answers with the latest results
+
+    @JsonProperty
+    public boolean prometheus = true;   // Metrics in the Prometheus text format on the admin port: /metrics/prometheus
+
+    @JsonProperty
+    public boolean virtualThreads = false;   // Run requests, queued messages and async client calls on virtual threads (Java 21+)
+
     @Valid
     private _JerseyClientConfiguration jerseyClient = new _JerseyClientConfiguration();
 
+    @JsonProperty
+    @NotNull
+    public Transport transport = Transport.HTTP1;   // Outbound transport of the Jersey client, see Transport
+
     @JsonProperty("swagger")
     public SwaggerBundleConfiguration swagger = new _SwaggerBundleConfiguration();
 
     @JsonProperty
     public String apiHost = "https://prod-nginz-https.wire.com";
 
+    @JsonProperty
+    @Valid
+    @NotNull
+    public ClientCache clientCache = new ClientCache();
+
+    @JsonProperty
+    @Valid
+    @NotNull
+    public DeviceCache deviceCache = new DeviceCache();
+
+    @JsonProperty
+    @Valid
+    @NotNull
+    public UserCache userCache = new UserCache();
+
+    @JsonProperty
+    @Valid
+    @NotNull
+    public ConversationCache conversationCache = new ConversationCache();
+
+    @JsonProperty
+    @Valid
+    @NotNull
+    public Storage storage = new Storage();
+
+    @JsonProperty
+    @Valid
+    @NotNull
+    public WriteBehind writeBehind = new WriteBehind();
+
+    @JsonProperty
+    @Valid
+    @NotNull
+    public SessionLocks sessionLocks = new SessionLocks();
+
+    @JsonProperty
+    @Valid
+    @NotNull
+    public MessagePipeline messagePipeline = new MessagePipeline();
+
+    @JsonProperty
+    @Valid
+    @NotNull
+    public Prekeys prekeys = new Prekeys();
+
     @JsonProperty("jerseyClient")
     public JerseyClientConfiguration getJerseyClient() {
         return jerseyClient;
@@ -65,6 +136,234 @@ public class Configuration extends io.dropwizard.core.Configuration {
         public boolean baseline;
     }
 
+    /**
+     * Bounds for the per-bot state, API and crypto cache kept by {@link ClientRepo}
+     */
+    public static class ClientCache {
+        @JsonProperty
+        public boolean enabled = true;
+
+        @JsonProperty
+        @Min(1)
+        public long maxSize = 1_000;
+
+        @JsonProperty
+        @NotNull
+        public Duration expireAfterAccess = Duration.minutes(10);
+    }
+
+    /**
+     * HTTP1: Apache connector configured by jerseyClient, one request per connection at a time.
+     * HTTP2: JDK client, concurrent requests are multiplexed over a few connections. jerseyClient's timeouts still apply.
+     */
+    public enum Transport {
+        HTTP1,
+        HTTP2
+    }
+
+    /**
+     * Bounds for the per conversation device lists kept by {@link com.wire.lithium.DeviceCache}
+     */
+    public static class DeviceCache {
+        @JsonProperty
+        public boolean enabled = true;
+
+        @JsonProperty
+        @Min(1)
+        public long maxSize = 10_000;
+
+        @JsonProperty
+        @NotNull
+        public Duration expireAfterWrite = Duration.hours(1);
+    }
+
+    /**
+     * Bounds for the shared user profiles kept by {@link com.wire.lithium.UserCache} and how lookups are batched
+     */
+    public static class UserCache {
+        @JsonProperty
+        public boolean enabled = true;
+
+        @JsonProperty
+        @Min(1)
+        public long maxSize = 10_000;
+
+        @JsonProperty
+        @NotNull
+        public Duration expireAfterWrite = Duration.minutes(10);
+
+        @JsonProperty
+        @NotNull
+        public Duration window = Duration.milliseconds(10);   // Lookups of one bot within the window share a request
+
+        @JsonProperty
+        @Min(1)
+        public int batchSize = 64;   // Max ids per request
+
+        @JsonProperty
+        @Min(1)
+        public int parallelism = 4;   // Max concurrent requests
+    }
+
+    /**
+     * Bounds for the per bot conversations kept by {@link com.wire.lithium.ConversationCache}
+     */
+    public static class ConversationCache {
+        @JsonProperty
+        public boolean enabled = true;
+
+        @JsonProperty
+        @Min(1)
+        public long maxSize = 10_000;
+
+        @JsonProperty
+        @NotNull
+        public Duration expireAfterWrite = Duration.minutes(10);   // Events we do not see (e.g. receipt mode) are picked up by then
+    }
+
+    /**
+     * Where bot states and crypto material are kept.
+     * POSTGRES: the database configured in database.
+     * MAPPED: memory-mapped segment files in path, for single node deployments. See {@link com.wire.lithium.storage.SegmentStore}
+     */
+    public static class Storage {
+        @JsonProperty
+        @NotNull
+        public StorageType type = StorageType.POSTGRES;
+
+        @JsonProperty
+        @NotNull
+        public String path = "data";
+
+        @JsonProperty
+        @NotNull
+        public DataSize segmentSize = DataSize.megabytes(64);   // Also the max size of one state or session
+
+        @JsonProperty
+        public boolean fsync = false;   // Flush every write to disk. Without it writes survive a crash of the process, not of the OS
+
+        @JsonProperty
+        @DecimalMin("0.0")
+        @DecimalMax("1.0")
+        public double compactionThreshold = 0.5;   // Segments with less live data than this ratio are rewritten
+
+        @JsonProperty
+        @NotNull
+        public Duration compactionInterval = Duration.minutes(10);
+    }
+
+    public enum StorageType {
+        POSTGRES,
+        MAPPED
+    }
+
+    /**
+     * Crypto sessions are written to the database on every message by default. When enabled they are kept in memory
+     * and written in batches, see {@link com.wire.lithium.crypto.WriteBehindStorage} for what can be lost on a crash.
+     */
+    public static class WriteBehind {
+        @JsonProperty
+        public boolean enabled = false;
+
+        @JsonProperty
+        @NotNull
+        public Duration flushInterval = Duration.seconds(1);   // Max time an update stays only in memory
+
+        @JsonProperty
+        @Min(1)
+        public int batchSize = 500;   // Pending sessions that trigger a flush before the interval
+    }
+
+    /**
+     * In-process locks that serialize the use of a crypto session, see {@link com.wire.lithium.crypto.LockingStorage}
+     */
+    public static class SessionLocks {
+        @JsonProperty
+        public boolean enabled = true;
+
+        @JsonProperty
+        @Min(1)
+        public int stripes = 1024;
+
+        @JsonProperty
+        public boolean fair = true;   // Waiting messages get the session in arrival order
+
+        @JsonProperty
+        @NotNull
+        public Duration timeout = Duration.seconds(10);   // Crypto fails with StorageException after that
+    }
+
+    /**
+     * Inbound messages are processed in the request by default. In async mode they are queued and acknowledged right away.
+     */
+    public static class MessagePipeline {
+        @JsonProperty
+        public boolean async = false;
+
+        @JsonProperty
+        @Min(1)
+        public int lanes = 16;
+
+        @JsonProperty
+        @Min(1)
+        public int queueCapacity = 1_000;
+
+        @JsonProperty
+        @NotNull
+        public Duration retryAfter = Duration.seconds(5);
+
+        @JsonProperty
+        @NotNull
+        public Duration shutdownTimeout = Duration.seconds(30);
+    }
+
+    /**
+     * Prekeys handed out to the Backend when a new bot is created
+     */
+    public static class Prekeys {
+        @JsonProperty
+        @Min(1)
+        public int count = 50;   // Number of prekeys besides the last resort prekey
+
+        @JsonProperty
+        public boolean pool = false;   // Generate identities and prekeys in the background, ahead of new bots
+
+        @JsonProperty
+        @Min(1)
+        public int poolSize = 100;
+
+        @JsonProperty
+        @Min(1)
+        public int generators = 1;
+
+        @JsonProperty
+        public boolean replenish = false;   // Top up the prekeys of existing bots in the background. Runs on the instance that holds the storage lock
+
+        @JsonProperty
+        @Min(1)
+        public int threshold = 10;   // Bots with fewer prekeys on the Backend are topped up to count
+
+        @JsonProperty
+        @NotNull
+        public Duration interval = Duration.hours(1);   // Pause between two scans of all bots
+
+        @JsonProperty
+        @NotNull
+        public Duration jitter = Duration.minutes(5);   // Max random delay added to the pause
+
+        @JsonProperty
+        @Min(1)
+        public int batchSize = 100;
+
+        @JsonProperty
+        @Min(1)
+        public int concurrency = 4;   // Bots checked at once
+
+        @JsonProperty
+        @Min(1)
+        public int rate = 20;   // Bots checked per second
+    }
+
     public static class _JerseyClientConfiguration extends JerseyClientConfiguration {
         public _JerseyClientConfiguration() {
             setChunkedEncodingEnabled(false);
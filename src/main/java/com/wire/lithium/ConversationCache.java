@@ -0,0 +1,49 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.caffeine.MetricsStatsCounter;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.wire.xenon.backend.models.Conversation;
+
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * Conversation of each bot as returned by {@code /bot/conversation}. Loaded on first use and dropped when
+ * a member-join, member-leave, rename or delete event for the bot passes through the message resource.
+ * Cached conversations are shared between requests and must not be modified.
+ */
+public class ConversationCache {
+    private final Cache<UUID, Conversation> cache;
+    private final Meter invalidations;
+
+    /**
+     * @param config  Cache bounds
+     * @param metrics Registry where hits, misses, load times and invalidations are reported
+     */
+    public ConversationCache(Configuration.ConversationCache config, MetricRegistry metrics) {
+        final String prefix = MetricRegistry.name(ConversationCache.class);
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(config.maxSize)
+                .expireAfterWrite(config.expireAfterWrite.toJavaDuration())
+                .recordStats(() -> new MetricsStatsCounter(metrics, prefix))
+                .build();
+        this.invalidations = metrics.meter(MetricRegistry.name(prefix, "invalidations"));
+    }
+
+    /**
+     * @param botId  Bot
+     * @param loader Fetches the conversation if it is not cached. Concurrent calls for the same bot wait for one load
+     * @return Bot's conversation
+     */
+    public Conversation get(UUID botId, Supplier<Conversation> loader) {
+        return cache.get(botId, id -> loader.get());
+    }
+
+    public void invalidate(UUID botId) {
+        invalidations.mark();
+        cache.invalidate(botId);
+    }
+}
@@ -0,0 +1,177 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.codahale.metrics.caffeine.MetricsStatsCounter;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.wire.xenon.models.otr.Devices;
+import com.wire.xenon.models.otr.Missing;
+import jakarta.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Known user → client ids per bot and conversation, shared by all {@link BotClient}s. Without it every send first asks
+ * the Backend for the device list (412 with all clients as missing). Entries are corrected from the missing, deleted
+ * and redundant clients the Backend reports on each send and from member-leave events.
+ * Entries are never modified in place, updates replace them.
+ * <p>
+ * Bots in the same conversation get an entry each: the Backend answers a bot with the clients it can see, its own
+ * included, and a member-leave event reaches each bot on its own.
+ */
+public class DeviceCache {
+    private final Cache<Key, Missing> cache;
+    private final Meter sent;
+    private final Meter missing;
+
+    /**
+     * @param config  Cache bounds
+     * @param metrics Registry where cache stats and the rate of sends rejected with 412 are reported
+     */
+    public DeviceCache(Configuration.DeviceCache config, MetricRegistry metrics) {
+        final String prefix = MetricRegistry.name(DeviceCache.class);
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(config.maxSize)
+                .expireAfterWrite(config.expireAfterWrite.toJavaDuration())
+                .recordStats(() -> new MetricsStatsCounter(metrics, prefix))
+                .build();
+
+        this.sent = metrics.meter(MetricRegistry.name(BotClient.class, "sent"));
+        this.missing = metrics.meter(MetricRegistry.name(BotClient.class, "412"));
+        metrics.gauge(MetricRegistry.name(BotClient.class, "412-ratio"), () -> new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                return Ratio.of(missing.getOneMinuteRate(), sent.getOneMinuteRate());
+            }
+        });
+    }
+
+    /**
+     * @param botId  Bot
+     * @param convId Conversation of the bot
+     * @return Known clients or null if the conversation is not cached. Must not be modified
+     */
+    @Nullable
+    public Missing get(UUID botId, UUID convId) {
+        return cache.getIfPresent(new Key(botId, convId));
+    }
+
+    /**
+     * Replaces the known clients of the conversation. They come from the 412 to an empty message,
+     * so that is recorded as a rejected send too
+     *
+     * @param botId   Bot
+     * @param convId  Conversation of the bot
+     * @param devices All clients in the conversation
+     */
+    public void put(UUID botId, UUID convId, Missing devices) {
+        sent.mark();
+        missing.mark();
+        cache.put(new Key(botId, convId), copy(devices));
+    }
+
+    /**
+     * Applies the Backend's response to a send and records whether it was rejected with 412
+     *
+     * @param botId  Bot that sent
+     * @param convId Conversation of the bot
+     * @param res    Missing, deleted and redundant clients reported by the Backend
+     */
+    public void update(UUID botId, UUID convId, Devices res) {
+        sent.mark();
+        if (!res.missing.isEmpty())
+            missing.mark();
+
+        if (res.missing.isEmpty() && res.deleted.isEmpty() && res.redundant.isEmpty())
+            return;
+
+        cache.asMap().computeIfPresent(new Key(botId, convId), (key, known) -> {
+            final Missing ret = copy(known);
+            add(ret, res.missing);
+            remove(ret, res.deleted);
+            remove(ret, res.redundant);
+            return ret;
+        });
+    }
+
+    /**
+     * Users left the conversation
+     *
+     * @param botId   Bot that got the event
+     * @param convId  Conversation of the bot
+     * @param userIds Users who left
+     */
+    public void removeUsers(UUID botId, UUID convId, Collection<UUID> userIds) {
+        cache.asMap().computeIfPresent(new Key(botId, convId), (key, known) -> {
+            final Missing ret = copy(known);
+            for (UUID userId : userIds) {
+                ret.remove(userId);
+            }
+            return ret;
+        });
+    }
+
+    public void invalidate(UUID botId, UUID convId) {
+        cache.invalidate(new Key(botId, convId));
+    }
+
+    private static Missing copy(Missing devices) {
+        final Missing ret = new Missing();
+        for (UUID userId : devices.toUserIds()) {
+            ret.put(userId, new ArrayList<>(devices.toClients(userId)));
+        }
+        return ret;
+    }
+
+    private static void add(Missing devices, Missing clients) {
+        for (UUID userId : clients.toUserIds()) {
+            final Collection<String> known = devices.computeIfAbsent(userId, k -> new ArrayList<>());
+            for (String clientId : clients.toClients(userId)) {
+                if (!known.contains(clientId))
+                    known.add(clientId);
+            }
+        }
+    }
+
+    private static void remove(Missing devices, Missing clients) {
+        for (UUID userId : clients.toUserIds()) {
+            final Collection<String> known = devices.toClients(userId);
+            if (known == null)
+                continue;
+
+            known.removeAll(clients.toClients(userId));
+            if (known.isEmpty())
+                devices.remove(userId);
+        }
+    }
+
+    private static final class Key {
+        private final UUID botId;
+        private final UUID convId;
+
+        Key(UUID botId, UUID convId) {
+            this.botId = botId;
+            this.convId = convId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            final Key key = (Key) o;
+            return botId.equals(key.botId) && convId.equals(key.convId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(botId, convId);
+        }
+    }
+}
@@ -22,18 +22,44 @@ import com.codahale.metrics.Gauge;
 import com.codahale.metrics.health.HealthCheck;
 import com.codahale.metrics.jmx.JmxReporter;
 import com.fasterxml.jackson.jakarta.rs.json.JacksonJsonProvider;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.wire.bots.cryptobox.IStorage;
+import com.wire.lithium.client.Http2ConnectorProvider;
+import com.wire.lithium.client.StreamingClient;
+import com.wire.lithium.crypto.LockingStorage;
+import com.wire.lithium.crypto.PrekeyPool;
+import com.wire.lithium.crypto.PrekeyReplenisher;
+import com.wire.lithium.crypto.WriteBehindStorage;
 import com.wire.lithium.healthchecks.Alice2Bob;
+import com.wire.lithium.healthchecks.CachedHealthCheck;
 import com.wire.lithium.healthchecks.CryptoHealthCheck;
 import com.wire.lithium.healthchecks.Outbound;
 import com.wire.lithium.healthchecks.StorageHealthCheck;
+import com.wire.lithium.server.dispatch.MessageDispatcher;
 import com.wire.lithium.server.filters.AuthenticationFeature;
+import com.wire.lithium.server.filters.ServiceTokens;
+import com.wire.lithium.server.monitoring.MessageMetrics;
+import com.wire.lithium.server.monitoring.PrometheusServlet;
 import com.wire.lithium.server.monitoring.RequestMdcFactoryFilter;
+import com.wire.lithium.server.monitoring.RingBufferAppender;
 import com.wire.lithium.server.monitoring.StatusResource;
 import com.wire.lithium.server.monitoring.VersionResource;
 import com.wire.lithium.server.resources.BotsResource;
 import com.wire.lithium.server.resources.MessageResource;
 import com.wire.lithium.server.tasks.AvailablePrekeysTask;
 import com.wire.lithium.server.tasks.ConversationTask;
+import com.wire.lithium.server.tasks.FleetConversationTask;
+import com.wire.lithium.server.tasks.FleetPrekeysTask;
+import com.wire.lithium.server.tasks.ServiceTokenTask;
+import com.wire.lithium.storage.BotIdsDAO;
+import com.wire.lithium.storage.BotIndex;
+import com.wire.lithium.storage.FileLeaderLock;
+import com.wire.lithium.storage.LeaderLock;
+import com.wire.lithium.storage.MappedState;
+import com.wire.lithium.storage.MappedStorage;
+import com.wire.lithium.storage.PostgresLeaderLock;
+import com.wire.lithium.storage.SegmentStore;
+import com.wire.lithium.tools.VirtualThreads;
 import com.wire.xenon.Const;
 import com.wire.xenon.MessageHandlerBase;
 import com.wire.xenon.crypto.CryptoDatabase;
@@ -43,19 +69,35 @@ import com.wire.xenon.factories.StorageFactory;
 import com.wire.xenon.state.JdbiState;
 import com.wire.xenon.tools.Logger;
 import io.dropwizard.client.JerseyClientBuilder;
+import io.dropwizard.client.JerseyClientConfiguration;
 import io.dropwizard.configuration.EnvironmentVariableSubstitutor;
 import io.dropwizard.configuration.SubstitutingSourceProvider;
 import io.dropwizard.core.Application;
 import io.dropwizard.core.setup.Bootstrap;
 import io.dropwizard.core.setup.Environment;
+import io.dropwizard.lifecycle.ExecutorServiceManager;
 import io.dropwizard.servlets.tasks.Task;
+import io.dropwizard.util.Duration;
 import jakarta.annotation.Nullable;
 import jakarta.ws.rs.client.Client;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.util.component.LifeCycle;
+import org.eclipse.jetty.util.thread.ThreadPool;
 import org.flywaydb.core.Flyway;
+import org.glassfish.jersey.client.ClientProperties;
 import org.jdbi.v3.core.Jdbi;
 import org.jdbi.v3.sqlobject.SqlObjectPlugin;
 
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.SortedMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -64,12 +106,19 @@ import java.util.concurrent.TimeUnit;
  * @param <Config> Dropwizard configuration
  */
 public abstract class Server<Config extends Configuration> extends Application<Config> {
+    private static final String REPLENISH_LOCK = "replenish";
+
     protected ClientRepo repo;
     protected Config config;
     protected Environment environment;
     protected Client client;
     protected MessageHandlerBase messageHandler;
     protected Jdbi jdbi;
+    @Nullable
+    protected SegmentStore segmentStore;
+    @Nullable
+    private IStorage cryptoStorage;
+    protected ServiceTokens serviceTokens;
 
     /**
      * This method is called once by the sdk in order to create the main message handler
@@ -122,9 +171,25 @@ public abstract class Server<Config extends Configuration> extends Application<C
         System.setProperty(Const.WIRE_BOTS_SDK_TOKEN, config.token);
         System.setProperty(Const.WIRE_BOTS_SDK_API, config.apiHost);
 
-        setupDatabase(config.database);
+        final List<String> tokens = new ArrayList<>();
+        tokens.add(config.token);
+        tokens.addAll(config.tokens);
+        serviceTokens = new ServiceTokens(tokens);
+
+        if (useVirtualThreads()) {
+            Logger.info("Using virtual threads");
+            env.lifecycle().addEventListener(new VirtualThreadsListener());
+        }
+
+        if (config.storage.type == Configuration.StorageType.MAPPED) {
+            segmentStore = createSegmentStore(config.storage, env);
+        } else {
+            setupDatabase(config.database);
+
+            jdbi = buildJdbi(config.database, env);
+        }
 
-        jdbi = buildJdbi(config.database, env);
+        cryptoStorage = createCryptoStorage();
 
         client = createHttpClient(config, env);
 
@@ -136,6 +201,8 @@ public abstract class Server<Config extends Configuration> extends Application<C
 
         addResources();
 
+        createPrekeyReplenisher();
+
         initTelemetry();
 
         if (config.healthchecks) {
@@ -145,17 +212,58 @@ public abstract class Server<Config extends Configuration> extends Application<C
         onRun(config, env);
     }
 
-    private Client createHttpClient(Config config, Environment env) {
-        return new JerseyClientBuilder(env)
-                .using(config.getJerseyClient())
-                .withProvider(JacksonJsonProvider.class)
-                .build(getName());
+    private Client createHttpClient(Config config, Environment env) throws GeneralSecurityException, IOException {
+        JerseyClientConfiguration jersey = config.getJerseyClient();
+        JerseyClientBuilder builder = new JerseyClientBuilder(env)
+                .using(jersey)
+                .withProvider(JacksonJsonProvider.class);
+
+        ExecutorService executor = null;
+        if (useVirtualThreads()) {
+            executor = VirtualThreads.newExecutor();
+            env.lifecycle().manage(new ExecutorServiceManager(executor, Duration.seconds(5), "jersey-client"));
+            builder.using(executor);
+        }
+
+        // JDK client of the streaming uploads and the async API, shared with the HTTP/2 connector
+        HttpClient streaming = StreamingClient.newBuilder(jersey, executor)
+                .version(config.transport == Configuration.Transport.HTTP2
+                        ? HttpClient.Version.HTTP_2
+                        : HttpClient.Version.HTTP_1_1)
+                .build();
+        builder.withProperty(StreamingClient.PROPERTY, new StreamingClient(streaming, jersey.getTimeout().toJavaDuration()));
+
+        if (config.transport == Configuration.Transport.HTTP2) {
+            builder.using(new Http2ConnectorProvider(streaming, env.metrics()))
+                    .withProperty(ClientProperties.READ_TIMEOUT, (int) jersey.getTimeout().toMilliseconds());
+        }
+
+        return builder.build(getName());
+    }
+
+    /**
+     * Virtual threads are used when enabled in the configuration and supported by the runtime
+     *
+     * @return true if requests, queued messages and async client calls run on virtual threads
+     */
+    protected boolean useVirtualThreads() {
+        if (!config.virtualThreads)
+            return false;
+
+        if (!VirtualThreads.isAvailable()) {
+            Logger.warning("Virtual threads are enabled, but not supported by Java %s", Runtime.version());
+            return false;
+        }
+        return true;
     }
 
     protected ClientRepo createClientRepo() {
         StorageFactory storageFactory = getStorageFactory();
         CryptoFactory cryptoFactory = getCryptoFactory();
-        return new ClientRepo(getClient(), cryptoFactory, storageFactory);
+        ClientRepo repo = new ClientRepo(getClient(), cryptoFactory, storageFactory, config, environment.metrics());
+        if (repo.getUserCache() != null)
+            environment.lifecycle().manage(repo.getUserCache());
+        return repo;
     }
 
     @Nullable
@@ -174,12 +282,116 @@ public abstract class Server<Config extends Configuration> extends Application<C
         flyway.migrate();
     }
 
+    /**
+     * Opens the segment files of the MAPPED storage. The store is closed by the Dropwizard lifecycle
+     *
+     * @param storage Storage configuration
+     * @param env     Environment object
+     * @return Store with the segments replayed
+     * @throws IOException if the segments cannot be read
+     */
+    protected SegmentStore createSegmentStore(Configuration.Storage storage, Environment env) throws IOException {
+        ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                .setNameFormat("segment-compaction")
+                .setDaemon(true)
+                .build();
+
+        SegmentStore store = new SegmentStore(
+                Paths.get(storage.path),
+                storage.segmentSize.toBytes(),
+                storage.fsync,
+                storage.compactionThreshold,
+                storage.compactionInterval.toMilliseconds(),
+                threadFactory,
+                env.metrics());
+
+        env.lifecycle().manage(store);
+        return store;
+    }
+
     public StorageFactory getStorageFactory() {
+        if (segmentStore != null)
+            return botId -> new MappedState(botId, segmentStore);
         return botId -> new JdbiState(botId, getJdbi());
     }
 
+    /**
+     * Lists the bots of the storage, see {@link #getStorageFactory()}
+     */
+    public BotIndex getBotIndex() {
+        if (segmentStore != null)
+            return () -> MappedState.botIds(segmentStore);
+        return () -> getJdbi().onDemand(BotIdsDAO.class).getBotIds();
+    }
+
     public CryptoFactory getCryptoFactory() {
-        return (botId) -> new CryptoDatabase(botId, new JdbiStorage(getJdbi()));
+        return (botId) -> new CryptoDatabase(botId, getCryptoStorage());
+    }
+
+    /**
+     * Storage behind {@link #getCryptoFactory()}. Pre-generated keys are written here when the prekey pool is enabled
+     *
+     * @return Crypto storage
+     */
+    public IStorage getCryptoStorage() {
+        if (cryptoStorage != null)
+            return cryptoStorage;
+        return new JdbiStorage(getJdbi());
+    }
+
+    /**
+     * Builds the storage shared by all crypto boxes: the segment files or Postgres, optionally behind the write-behind
+     * layer, with sessions locked in memory when enabled
+     *
+     * @return Shared storage or null when there is no storage
+     */
+    @Nullable
+    protected IStorage createCryptoStorage() {
+        IStorage storage;
+        if (segmentStore != null) {
+            storage = new MappedStorage(segmentStore);
+        } else if (jdbi != null) {
+            storage = createWriteBehindStorage();
+            if (storage == null)
+                storage = new JdbiStorage(jdbi);
+        } else {
+            return null;
+        }
+
+        Configuration.SessionLocks locks = config.sessionLocks;
+        if (locks.enabled)
+            storage = new LockingStorage(storage, locks.stripes, locks.fair, locks.timeout.toMilliseconds(),
+                    environment.metrics());
+
+        return storage;
+    }
+
+    /**
+     * Creates the write-behind layer for crypto sessions when enabled
+     *
+     * @return Storage managed by the Dropwizard lifecycle, flushed on shutdown, or null when sessions are written through
+     */
+    @Nullable
+    protected WriteBehindStorage createWriteBehindStorage() {
+        Configuration.WriteBehind writeBehind = config.writeBehind;
+        if (!writeBehind.enabled || jdbi == null)
+            return null;
+
+        ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                .setNameFormat("session-flush")
+                .setDaemon(true)
+                .build();
+
+        WriteBehindStorage storage = new WriteBehindStorage(
+                new JdbiStorage(jdbi),
+                WriteBehindStorage.jdbiWriter(jdbi),
+                writeBehind.flushInterval.toMilliseconds(),
+                writeBehind.batchSize,
+                threadFactory,
+                environment.metrics());
+
+        environment.lifecycle().manage(storage);
+        return storage;
     }
 
     private void addResources() {
@@ -187,6 +399,7 @@ public abstract class Server<Config extends Configuration> extends Application<C
         addResource(new VersionResource()); // add version endpoint
         addResource(new StatusResource()); // empty status for k8s
         addResource(new RequestMdcFactoryFilter()); // MDC data
+        environment.lifecycle().addEventListener(new MdcCleanupListener()); // MDC cleared after the request log
         /* //- Wire Common --- */
 
         botResource();
@@ -194,17 +407,126 @@ public abstract class Server<Config extends Configuration> extends Application<C
 
         addTask(new ConversationTask(getRepo()));
         addTask(new AvailablePrekeysTask(getRepo()));
+        addTask(new ServiceTokenTask(serviceTokens));
+        addTask(new FleetConversationTask(getRepo(), getBotIndex()));
+        addTask(new FleetPrekeysTask(getRepo(), getBotIndex()));
     }
 
     protected void messageResource() {
-        addResource(new MessageResource(messageHandler, getRepo()));
+        addResource(new MessageResource(messageHandler, getRepo(), createMessageDispatcher(),
+                new MessageMetrics(environment.metrics())));
+    }
+
+    /**
+     * Creates the background queue for inbound messages when the async pipeline is enabled
+     *
+     * @return Dispatcher managed by the Dropwizard lifecycle or null when messages are processed within the request
+     */
+    @Nullable
+    protected MessageDispatcher createMessageDispatcher() {
+        Configuration.MessagePipeline pipeline = config.messagePipeline;
+        if (!pipeline.async)
+            return null;
+
+        ThreadFactory threadFactory = useVirtualThreads()
+                ? VirtualThreads.threadFactory("message-lane-")
+                : new ThreadFactoryBuilder()
+                .setNameFormat("message-lane-%d")
+                .setDaemon(true)
+                .build();
+
+        MessageDispatcher dispatcher = new MessageDispatcher(
+                pipeline.lanes,
+                pipeline.queueCapacity,
+                pipeline.retryAfter.toSeconds(),
+                pipeline.shutdownTimeout.toMilliseconds(),
+                threadFactory,
+                environment.metrics());
+
+        environment.lifecycle().manage(dispatcher);
+        return dispatcher;
     }
 
     protected void botResource() {
         StorageFactory storageFactory = getStorageFactory();
         CryptoFactory cryptoFactory = getCryptoFactory();
 
-        addResource(new BotsResource(messageHandler, storageFactory, cryptoFactory));
+        addResource(new BotsResource(messageHandler, storageFactory, cryptoFactory, createPrekeyPool(), config.prekeys.count));
+    }
+
+    /**
+     * Creates the background generator of new bot keys when enabled
+     *
+     * @return Pool managed by the Dropwizard lifecycle or null when the keys are generated within the request
+     */
+    @Nullable
+    protected PrekeyPool createPrekeyPool() {
+        Configuration.Prekeys prekeys = config.prekeys;
+        if (!prekeys.pool)
+            return null;
+
+        ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                .setNameFormat("prekey-pool-%d")
+                .setDaemon(true)
+                .build();
+
+        PrekeyPool pool = new PrekeyPool(
+                getCryptoStorage(),
+                prekeys.poolSize,
+                prekeys.count,
+                prekeys.generators,
+                threadFactory,
+                environment.metrics());
+
+        environment.lifecycle().manage(pool);
+        return pool;
+    }
+
+    /**
+     * Creates the background top up of the existing bots' prekeys when enabled
+     *
+     * @return Replenisher managed by the Dropwizard lifecycle or null when disabled
+     */
+    @Nullable
+    protected PrekeyReplenisher createPrekeyReplenisher() {
+        Configuration.Prekeys prekeys = config.prekeys;
+        if (!prekeys.replenish)
+            return null;
+
+        ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                .setNameFormat("prekey-replenish-%d")
+                .setDaemon(true)
+                .build();
+
+        PrekeyReplenisher replenisher = new PrekeyReplenisher(
+                getRepo(),
+                getBotIndex(),
+                createLeaderLock(REPLENISH_LOCK),
+                prekeys.threshold,
+                prekeys.count,
+                prekeys.interval.toMilliseconds(),
+                prekeys.jitter.toMilliseconds(),
+                prekeys.batchSize,
+                prekeys.concurrency,
+                prekeys.rate,
+                threadFactory,
+                environment.metrics());
+
+        environment.lifecycle().manage(replenisher);
+        return replenisher;
+    }
+
+    /**
+     * Lock in the storage shared by the instances: a file next to the segments of the MAPPED storage, an advisory lock
+     * of the database otherwise
+     *
+     * @param name Name of the lock
+     * @return Lock held by one instance at a time
+     */
+    protected LeaderLock createLeaderLock(String name) {
+        if (segmentStore != null)
+            return new FileLeaderLock(Paths.get(config.storage.path, name + ".lock"));
+        return new PostgresLeaderLock(getJdbi(), ("lithium." + name).hashCode());
     }
 
     protected void addTask(Task task) {
@@ -225,13 +547,23 @@ public abstract class Server<Config extends Configuration> extends Application<C
 
         registerFeatures();
 
-        environment.healthChecks().register("Storage", new StorageHealthCheck(storageFactory));
-        environment.healthChecks().register("Crypto", new CryptoHealthCheck(cryptoFactory));
-        environment.healthChecks().register("Alice2Bob", new Alice2Bob(cryptoFactory));
-        environment.healthChecks().register("Outbound", new Outbound(getClient()));
+        final ScheduledExecutorService healthChecks = environment.lifecycle()
+                .scheduledExecutorService("health-check-%d", true)
+                .build();
+        addHealthCheck("Storage", new StorageHealthCheck(storageFactory), healthChecks);
+        addHealthCheck("Crypto", new CryptoHealthCheck(cryptoFactory), healthChecks);
+        addHealthCheck("Alice2Bob", new Alice2Bob(cryptoFactory), healthChecks);
+        addHealthCheck("Outbound", new Outbound(getClient()), healthChecks);
 
         environment.metrics().register("logger.errors", (Gauge<Integer>) Logger::getErrorCount);
         environment.metrics().register("logger.warnings", (Gauge<Integer>) Logger::getWarningCount);
+        RingBufferAppender.registerMetrics(environment.metrics());
+
+        if (config.prometheus) {
+            environment.admin()
+                    .addServlet("prometheus", new PrometheusServlet(environment.metrics()))
+                    .addMapping("/metrics/prometheus");
+        }
 
         JmxReporter jmxReporter = JmxReporter.forRegistry(environment.metrics())
                 .convertRatesTo(TimeUnit.SECONDS)
@@ -240,6 +572,20 @@ public abstract class Server<Config extends Configuration> extends Application<C
         jmxReporter.start();
     }
 
+    /**
+     * Registers the health check to run in the background, see {@link CachedHealthCheck}
+     */
+    private void addHealthCheck(String name, HealthCheck healthCheck, ScheduledExecutorService executor) {
+        CachedHealthCheck cached = new CachedHealthCheck(
+                healthCheck,
+                config.healthcheckInterval.toMilliseconds(),
+                executor,
+                environment.metrics());
+
+        environment.lifecycle().manage(cached);
+        environment.healthChecks().register(name, cached);
+    }
+
     private void runHealthChecks() {
         Logger.info("Running health checks...");
         final SortedMap<String, HealthCheck.Result> results = environment.healthChecks().runHealthChecks();
@@ -253,7 +599,41 @@ public abstract class Server<Config extends Configuration> extends Application<C
     }
 
     protected void registerFeatures() {
-        this.environment.jersey().register(AuthenticationFeature.class);
+        this.environment.jersey().register(new AuthenticationFeature(serviceTokens));
+    }
+
+    /**
+     * Lets Jetty dispatch the request handling to virtual threads. Jetty's thread pool keeps running the selectors.
+     */
+    private static class VirtualThreadsListener implements LifeCycle.Listener {
+        @Override
+        public void lifeCycleStarting(LifeCycle event) {
+            if (!(event instanceof org.eclipse.jetty.server.Server))
+                return;
+
+            ThreadPool threadPool = ((org.eclipse.jetty.server.Server) event).getThreadPool();
+            if (threadPool instanceof org.eclipse.jetty.util.VirtualThreads.Configurable) {
+                ((org.eclipse.jetty.util.VirtualThreads.Configurable) threadPool)
+                        .setVirtualThreadsExecutor(org.eclipse.jetty.util.VirtualThreads.getDefaultVirtualThreadsExecutor());
+            } else {
+                Logger.warning("Jetty thread pool %s does not support virtual threads", threadPool.getClass().getName());
+            }
+        }
+    }
+
+    /**
+     * Clears the MDC set by {@link RequestMdcFactoryFilter} once Jetty has written the request log
+     */
+    private static class MdcCleanupListener implements LifeCycle.Listener {
+        @Override
+        public void lifeCycleStarting(LifeCycle event) {
+            if (!(event instanceof org.eclipse.jetty.server.Server))
+                return;
+
+            for (Connector connector : ((org.eclipse.jetty.server.Server) event).getConnectors()) {
+                connector.addBean(new RequestMdcFactoryFilter.ClearOnComplete());
+            }
+        }
     }
 
     public ClientRepo getRepo() {
@@ -275,4 +655,9 @@ public abstract class Server<Config extends Configuration> extends Application<C
     public Jdbi getJdbi() {
         return jdbi;
     }
+
+    @Nullable
+    public SegmentStore getSegmentStore() {
+        return segmentStore;
+    }
 }
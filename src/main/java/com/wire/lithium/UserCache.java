@@ -0,0 +1,232 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.caffeine.MetricsStatsCounter;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.wire.xenon.WireAPI;
+import com.wire.xenon.backend.models.User;
+import io.dropwizard.lifecycle.Managed;
+import jakarta.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User profiles shared by all {@link BotClient}s. Profiles that are not cached are collected per bot for a short window
+ * and fetched with one {@code /bot/users?ids=} request, so concurrent lookups of the same bot cost one round trip.
+ * Long id lists are split into requests of at most batchSize ids that run in parallel.
+ * <p>
+ * The window and the requests run on threads of the cache: {@link #close} it, or let the lifecycle stop it,
+ * when it is no longer used.
+ */
+public class UserCache implements Managed, AutoCloseable {
+    private final Cache<UUID, User> cache;
+    private final Map<UUID, Batch> pending = new ConcurrentHashMap<>();
+    private final long window;
+    private final int batchSize;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService fetcher;
+
+    private final Meter requests;
+    private final Histogram batches;
+
+    /**
+     * @param config  Cache bounds, coalescing window and request sizes
+     * @param metrics Registry where cache stats, the rate of requests and the number of ids per request are reported
+     */
+    public UserCache(Configuration.UserCache config, MetricRegistry metrics) {
+        final String prefix = MetricRegistry.name(UserCache.class);
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(config.maxSize)
+                .expireAfterWrite(config.expireAfterWrite.toJavaDuration())
+                .recordStats(() -> new MetricsStatsCounter(metrics, prefix))
+                .build();
+        this.window = config.window.toMilliseconds();
+        this.batchSize = config.batchSize;
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("user-cache-window")
+                .setDaemon(true)
+                .build());
+        this.fetcher = Executors.newFixedThreadPool(config.parallelism, new ThreadFactoryBuilder()
+                .setNameFormat("user-cache-%d")
+                .setDaemon(true)
+                .build());
+
+        this.requests = metrics.meter(MetricRegistry.name(prefix, "requests"));
+        this.batches = metrics.histogram(MetricRegistry.name(prefix, "batch-size"));
+    }
+
+    /**
+     * @param botId  Bot whose token is used if the user must be fetched
+     * @param api    Bot's API
+     * @param userId User
+     * @return Profile or null if the Backend does not know the user
+     */
+    @Nullable
+    public User getUser(UUID botId, WireAPI api, UUID userId) {
+        final User user = cache.getIfPresent(userId);
+        if (user != null)
+            return user;
+
+        return join(request(botId, api, List.of(userId)).get(userId));
+    }
+
+    /**
+     * @param botId Bot whose token is used if some users must be fetched
+     * @param api   Bot's API
+     * @param ids   Users
+     * @return Profiles of the users the Backend knows, in the order of the ids
+     */
+    public Collection<User> getUsers(UUID botId, WireAPI api, Collection<UUID> ids) {
+        final Map<UUID, User> found = cache.getAllPresent(ids);
+        final List<UUID> missing = new ArrayList<>();
+        for (UUID id : ids) {
+            if (!found.containsKey(id))
+                missing.add(id);
+        }
+
+        final Map<UUID, CompletableFuture<User>> fetched = request(botId, api, missing);
+
+        final Set<User> ret = new LinkedHashSet<>();
+        for (UUID id : ids) {
+            final User user = found.containsKey(id) ? found.get(id) : join(fetched.get(id));
+            if (user != null)
+                ret.add(user);
+        }
+        return ret;
+    }
+
+    public void invalidate(UUID userId) {
+        cache.invalidate(userId);
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void stop() throws InterruptedException {
+        close();
+    }
+
+    /**
+     * Sends the pending batches, waits a few seconds for the requests in flight and stops the threads.
+     * Lookups that miss the cache fail afterwards
+     */
+    @Override
+    public void close() throws InterruptedException {
+        scheduler.shutdownNow();
+        for (Map.Entry<UUID, Batch> entry : pending.entrySet()) {
+            flush(entry.getKey(), entry.getValue());
+        }
+        fetcher.shutdown();
+        scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        fetcher.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Adds the ids to the bot's pending batch. The batch is sent when the window closes or when it is full
+     */
+    private Map<UUID, CompletableFuture<User>> request(UUID botId, WireAPI api, Collection<UUID> ids) {
+        final Map<UUID, CompletableFuture<User>> ret = new HashMap<>();
+        if (ids.isEmpty())
+            return ret;
+        if (scheduler.isShutdown())
+            throw new IllegalStateException("UserCache is closed");
+
+        while (true) {
+            final Batch batch = pending.computeIfAbsent(botId, id -> {
+                final Batch b = new Batch(api);
+                scheduler.schedule(() -> flush(botId, b), window, TimeUnit.MILLISECONDS);
+                return b;
+            });
+
+            synchronized (batch) {
+                if (batch.closed)
+                    continue;   // flushed meanwhile, start a new one
+
+                for (UUID id : ids) {
+                    ret.put(id, batch.futures.computeIfAbsent(id, k -> new CompletableFuture<>()));
+                }
+            }
+
+            if (batch.futures.size() >= batchSize)
+                flush(botId, batch);
+            return ret;
+        }
+    }
+
+    private void flush(UUID botId, Batch batch) {
+        synchronized (batch) {
+            if (batch.closed)
+                return;
+            batch.closed = true;
+        }
+        pending.remove(botId, batch);
+
+        for (List<UUID> chunk : Lists.partition(new ArrayList<>(batch.futures.keySet()), batchSize)) {
+            fetcher.execute(() -> fetch(batch, chunk));
+        }
+    }
+
+    private void fetch(Batch batch, List<UUID> ids) {
+        requests.mark();
+        batches.update(ids.size());
+        try {
+            final Map<UUID, User> users = new HashMap<>();
+            for (User user : batch.api.getUsers(ids)) {
+                users.put(user.id, user);
+                cache.put(user.id, user);
+            }
+            for (UUID id : ids) {
+                batch.futures.get(id).complete(users.get(id));
+            }
+        } catch (Exception e) {
+            for (UUID id : ids) {
+                batch.futures.get(id).completeExceptionally(e);
+            }
+        }
+    }
+
+    private static User join(CompletableFuture<User> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * Ids requested by one bot within the window. Sent with the API of the first caller
+     */
+    private static final class Batch {
+        final WireAPI api;
+        final Map<UUID, CompletableFuture<User>> futures = new ConcurrentHashMap<>();
+        boolean closed;
+
+        Batch(WireAPI api) {
+            this.api = api;
+        }
+    }
+}
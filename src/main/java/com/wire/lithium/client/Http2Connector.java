@@ -0,0 +1,222 @@
+package com.wire.lithium.client;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import jakarta.ws.rs.ProcessingException;
+import jakarta.ws.rs.core.HttpHeaders;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.ClientRequest;
+import org.glassfish.jersey.client.ClientResponse;
+import org.glassfish.jersey.client.spi.AsyncConnectorCallback;
+import org.glassfish.jersey.client.spi.Connector;
+import org.glassfish.jersey.message.internal.Statuses;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Future;
+
+/**
+ * Jersey connector over the JDK {@link HttpClient}. HTTP/2 is negotiated with the server (ALPN), so concurrent
+ * requests to the same host are multiplexed as streams over a few connections instead of holding one connection each.
+ * Servers that do not speak HTTP/2 are served over HTTP/1.1.
+ * <p>
+ * Request entities are serialized before the request is sent. Large uploads should stream with
+ * {@link com.wire.lithium.API#uploadAsset(InputStream, long, String, String, boolean, String)}.
+ */
+public class Http2Connector implements Connector {
+    // set by the JDK client itself
+    private static final Set<String> RESTRICTED = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+    private static final int MAX_REDIRECTS = 5;
+
+    static {
+        RESTRICTED.addAll(List.of("connection", "content-length", "expect", "host", "upgrade"));
+    }
+
+    private final HttpClient client;
+    private final Timer requests;
+    private final Counter streams;
+    private final Meter http2;
+    private final Meter http1;
+    private final Meter errors;
+
+    /**
+     * @param client  JDK client, see {@link Http2ConnectorProvider}
+     * @param metrics Registry where the request timer, active streams and responses per protocol are reported
+     */
+    public Http2Connector(HttpClient client, MetricRegistry metrics) {
+        this.client = client;
+
+        final String prefix = MetricRegistry.name(Http2Connector.class);
+        this.requests = metrics.timer(MetricRegistry.name(prefix, "requests"));
+        this.streams = metrics.counter(MetricRegistry.name(prefix, "streams", "active"));
+        this.http2 = metrics.meter(MetricRegistry.name(prefix, "responses", "http2"));
+        this.http1 = metrics.meter(MetricRegistry.name(prefix, "responses", "http1"));
+        this.errors = metrics.meter(MetricRegistry.name(prefix, "errors"));
+    }
+
+    @Override
+    public ClientResponse apply(ClientRequest request) {
+        try {
+            return send(request).join();
+        } catch (CompletionException e) {
+            throw processing(e.getCause());
+        }
+    }
+
+    @Override
+    public Future<?> apply(ClientRequest request, AsyncConnectorCallback callback) {
+        final CompletableFuture<ClientResponse> ret;
+        try {
+            ret = send(request);
+        } catch (ProcessingException e) {
+            callback.failure(e);
+            return CompletableFuture.failedFuture(e);
+        }
+        return ret.whenComplete((response, e) -> {
+            if (e != null)
+                callback.failure(processing(e instanceof CompletionException ? e.getCause() : e));
+            else
+                callback.response(response);
+        });
+    }
+
+    @Override
+    public String getName() {
+        return "JDK HttpClient " + client.version();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private CompletableFuture<ClientResponse> send(ClientRequest request) {
+        final HttpRequest req = toHttpRequest(request);
+        final boolean follow = request.resolveProperty(ClientProperties.FOLLOW_REDIRECTS, Boolean.TRUE);
+        final Timer.Context time = requests.time();
+
+        streams.inc();
+        return send(req, follow ? MAX_REDIRECTS : 0)
+                .whenComplete((res, e) -> {
+                    streams.dec();
+                    time.stop();
+                    if (e != null)
+                        errors.mark();
+                    else if (res.version() == HttpClient.Version.HTTP_2)
+                        http2.mark();
+                    else
+                        http1.mark();
+                })
+                .thenApply(res -> toClientResponse(request, res));
+    }
+
+    private CompletableFuture<HttpResponse<InputStream>> send(HttpRequest req, int redirects) {
+        return client.sendAsync(req, HttpResponse.BodyHandlers.ofInputStream())
+                .thenCompose(res -> {
+                    final String location = res.headers().firstValue(HttpHeaders.LOCATION).orElse(null);
+                    if (redirects == 0 || location == null || res.statusCode() < 300 || res.statusCode() >= 400)
+                        return CompletableFuture.completedFuture(res);
+
+                    close(res.body());
+                    return send(redirect(req, res.statusCode(), req.uri().resolve(location)), redirects - 1);
+                });
+    }
+
+    private HttpRequest toHttpRequest(ClientRequest request) {
+        final HttpRequest.BodyPublisher body;
+        if (request.hasEntity()) {
+            // headers are final only after the entity is written
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            request.setStreamProvider(contentLength -> out);
+            try {
+                request.writeEntity();
+            } catch (IOException e) {
+                throw new ProcessingException(e.getMessage(), e);
+            }
+            body = HttpRequest.BodyPublishers.ofByteArray(out.toByteArray());
+        } else {
+            body = HttpRequest.BodyPublishers.noBody();
+        }
+
+        final HttpRequest.Builder builder = HttpRequest.newBuilder(request.getUri())
+                .method(request.getMethod(), body);
+
+        final int timeout = request.resolveProperty(ClientProperties.READ_TIMEOUT, 0);
+        if (timeout > 0)
+            builder.timeout(Duration.ofMillis(timeout));
+
+        for (Map.Entry<String, List<String>> header : request.getStringHeaders().entrySet()) {
+            if (RESTRICTED.contains(header.getKey()))
+                continue;
+            for (String value : header.getValue()) {
+                builder.header(header.getKey(), value);
+            }
+        }
+        return builder.build();
+    }
+
+    private static ClientResponse toClientResponse(ClientRequest request, HttpResponse<InputStream> res) {
+        final ClientResponse ret = new ClientResponse(Statuses.from(res.statusCode()), request, res.uri());
+        for (Map.Entry<String, List<String>> header : res.headers().map().entrySet()) {
+            // HTTP/2 pseudo headers
+            if (header.getKey().startsWith(":"))
+                continue;
+            for (String value : header.getValue()) {
+                ret.getHeaders().add(header.getKey(), value);
+            }
+        }
+        ret.setEntityStream(res.body());
+        return ret;
+    }
+
+    /**
+     * 303, and 301/302 for anything but HEAD, continue with GET as browsers and the Apache connector do
+     */
+    private static HttpRequest redirect(HttpRequest req, int status, URI location) {
+        final HttpRequest.Builder builder = HttpRequest.newBuilder(location);
+        req.timeout().ifPresent(builder::timeout);
+
+        final boolean keepMethod = status == 307 || status == 308 || req.method().equals("HEAD");
+        if (keepMethod)
+            builder.method(req.method(), req.bodyPublisher().orElse(HttpRequest.BodyPublishers.noBody()));
+        else
+            builder.GET();
+
+        // credentials are not forwarded to another host
+        final boolean sameHost = location.getHost() != null && location.getHost().equalsIgnoreCase(req.uri().getHost());
+        req.headers().map().forEach((name, values) -> {
+            if (!sameHost && name.equalsIgnoreCase(HttpHeaders.AUTHORIZATION))
+                return;
+            if (!keepMethod && name.equalsIgnoreCase(HttpHeaders.CONTENT_TYPE))
+                return;
+            values.forEach(value -> builder.header(name, value));
+        });
+        return builder.build();
+    }
+
+    private static ProcessingException processing(Throwable e) {
+        if (e instanceof ProcessingException)
+            return (ProcessingException) e;
+        return new ProcessingException(e.getMessage(), e);
+    }
+
+    private static void close(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.wire.lithium.client;
+
+import com.codahale.metrics.MetricRegistry;
+import jakarta.annotation.Nullable;
+import jakarta.ws.rs.client.Client;
+import jakarta.ws.rs.core.Configuration;
+import org.glassfish.jersey.client.spi.Connector;
+import org.glassfish.jersey.client.spi.ConnectorProvider;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.Executor;
+
+/**
+ * Plugs {@link Http2Connector} into a Jersey client, e.g. {@code new JerseyClientBuilder(env).using(provider)}.
+ * All clients built from this provider share one JDK client and so its connections.
+ */
+public class Http2ConnectorProvider implements ConnectorProvider {
+    private final HttpClient client;
+    private final MetricRegistry metrics;
+
+    /**
+     * @param connectTimeout Connect timeout
+     * @param executor       Executor for the async part of the JDK client. Its default pool is used when null
+     * @param metrics        Registry where the connector's metrics are reported
+     */
+    public Http2ConnectorProvider(Duration connectTimeout, @Nullable Executor executor, MetricRegistry metrics) {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NEVER)   // per request, see Http2Connector
+                .connectTimeout(connectTimeout);
+        if (executor != null)
+            builder.executor(executor);
+
+        this.client = builder.build();
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param client  JDK client that must not follow redirects, see {@link Http2Connector}
+     * @param metrics Registry where the connector's metrics are reported
+     */
+    public Http2ConnectorProvider(HttpClient client, MetricRegistry metrics) {
+        this.client = client;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Connector getConnector(Client client, Configuration runtimeConfig) {
+        return new Http2Connector(this.client, metrics);
+    }
+}
@@ -0,0 +1,239 @@
+package com.wire.lithium.client;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.client.JerseyClientConfiguration;
+import io.dropwizard.client.proxy.AuthConfiguration;
+import io.dropwizard.client.proxy.ProxyConfiguration;
+import io.dropwizard.client.ssl.TlsConfiguration;
+import jakarta.annotation.Nullable;
+import jakarta.ws.rs.client.Client;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Authenticator;
+import java.net.InetSocketAddress;
+import java.net.PasswordAuthentication;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * JDK client for the streaming asset uploads and {@link com.wire.lithium.AsyncAPI}, next to the Jersey client of the
+ * {@link com.wire.lithium.API}. Every request gets a timeout: the JDK client has none of its own.
+ * <p>
+ * {@link #create} applies the connect timeout, the read timeout, the proxy and the key and trust stores of the
+ * {@code jerseyClient} configuration. Server passes it to the APIs as the property {@link #PROPERTY} of the Jersey
+ * client; APIs of a Jersey client without it use {@link #DEFAULT}.
+ */
+public class StreamingClient {
+    public static final String PROPERTY = StreamingClient.class.getName();
+
+    /**
+     * Slowest upload rate, in bytes per second, that the upload timeout allows for
+     */
+    static final long MIN_UPLOAD_RATE = 256 * 1024;
+
+    public static final ObjectMapper MAPPER = new ObjectMapper()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    public static final StreamingClient DEFAULT = new StreamingClient(HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(40))
+            .build(), Duration.ofSeconds(60));
+
+    private final HttpClient client;
+    private final Duration timeout;
+
+    /**
+     * @param client  JDK client
+     * @param timeout Max time until the response headers are received
+     */
+    public StreamingClient(HttpClient client, Duration timeout) {
+        this.client = client;
+        this.timeout = timeout;
+    }
+
+    /**
+     * @param jersey Jersey client of the API
+     * @return The client set as the property {@link #PROPERTY} of the Jersey client or {@link #DEFAULT}
+     */
+    public static StreamingClient of(@Nullable Client jersey) {
+        final Object ret = jersey != null ? jersey.getConfiguration().getProperty(PROPERTY) : null;
+        return ret instanceof StreamingClient ? (StreamingClient) ret : DEFAULT;
+    }
+
+    /**
+     * @param config   Jersey client configuration
+     * @param version  HTTP version of the transport
+     * @param executor Executor for the async part of the JDK client. Its default pool is used when null
+     * @return Client with the timeouts, the proxy and the TLS stores of the configuration
+     * @throws GeneralSecurityException if the key or the trust store cannot be loaded
+     * @throws IOException              if the key or the trust store cannot be read
+     */
+    public static StreamingClient create(JerseyClientConfiguration config, HttpClient.Version version,
+                                         @Nullable Executor executor) throws GeneralSecurityException, IOException {
+        final HttpClient client = newBuilder(config, executor)
+                .version(version)
+                .build();
+        return new StreamingClient(client, config.getTimeout().toJavaDuration());
+    }
+
+    /**
+     * Builder with the connect timeout, the proxy and the TLS stores of the configuration. Redirects are not followed
+     *
+     * @param config   Jersey client configuration
+     * @param executor Executor for the async part of the JDK client. Its default pool is used when null
+     * @return New builder
+     * @throws GeneralSecurityException if the key or the trust store cannot be loaded
+     * @throws IOException              if the key or the trust store cannot be read
+     */
+    public static HttpClient.Builder newBuilder(JerseyClientConfiguration config, @Nullable Executor executor)
+            throws GeneralSecurityException, IOException {
+        final HttpClient.Builder builder = HttpClient.newBuilder()
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .connectTimeout(config.getConnectionTimeout().toJavaDuration());
+        if (executor != null)
+            builder.executor(executor);
+
+        final ProxyConfiguration proxy = config.getProxyConfiguration();
+        if (proxy != null && proxy.getHost() != null) {
+            final int port = proxy.getPort() != null && proxy.getPort() > 0 ? proxy.getPort() : 8080;
+            builder.proxy(new Proxies(new InetSocketAddress(proxy.getHost(), port), proxy.getNonProxyHosts()));
+
+            final AuthConfiguration auth = proxy.getAuth();
+            if (auth != null && auth.getUsername() != null)
+                builder.authenticator(new ProxyAuthenticator(auth.getUsername(), auth.getPassword()));
+        }
+
+        final TlsConfiguration tls = config.getTlsConfiguration();
+        if (tls != null) {
+            builder.sslContext(sslContext(tls));
+
+            final SSLParameters parameters = new SSLParameters();
+            if (tls.getSupportedProtocols() != null)
+                parameters.setProtocols(tls.getSupportedProtocols().toArray(new String[0]));
+            if (tls.getSupportedCiphers() != null)
+                parameters.setCipherSuites(tls.getSupportedCiphers().toArray(new String[0]));
+            builder.sslParameters(parameters);
+        }
+        return builder;
+    }
+
+    public HttpClient getClient() {
+        return client;
+    }
+
+    /**
+     * @return Max time until the response headers are received
+     */
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * The response comes only once the whole body is sent, so an upload gets the time to send it at
+     * {@link #MIN_UPLOAD_RATE} on top of the timeout
+     *
+     * @param length Number of bytes sent
+     * @return Timeout of the upload
+     */
+    public Duration getUploadTimeout(long length) {
+        return timeout.plusMillis(length * 1000 / MIN_UPLOAD_RATE);
+    }
+
+    private static SSLContext sslContext(TlsConfiguration tls) throws GeneralSecurityException, IOException {
+        KeyManagerFactory keys = null;
+        if (tls.getKeyStorePath() != null) {
+            final char[] password = password(tls.getKeyStorePassword());
+            keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keys.init(load(tls.getKeyStorePath(), tls.getKeyStoreType(), password), password);
+        }
+
+        TrustManagerFactory trust = null;
+        if (tls.getTrustStorePath() != null) {
+            trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trust.init(load(tls.getTrustStorePath(), tls.getTrustStoreType(), password(tls.getTrustStorePassword())));
+        }
+
+        final SSLContext ret = SSLContext.getInstance(tls.getProtocol());
+        ret.init(keys != null ? keys.getKeyManagers() : null, trust != null ? trust.getTrustManagers() : null, null);
+        return ret;
+    }
+
+    private static KeyStore load(File file, String type, char[] password) throws GeneralSecurityException, IOException {
+        final KeyStore ret = KeyStore.getInstance(type);
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            ret.load(in, password);
+        }
+        return ret;
+    }
+
+    @Nullable
+    private static char[] password(@Nullable String password) {
+        return password != null ? password.toCharArray() : null;
+    }
+
+    /**
+     * The proxy for all hosts but the non proxy hosts: exact names or {@code *.domain}
+     */
+    static final class Proxies extends ProxySelector {
+        private final List<Proxy> proxy;
+        private final List<String> nonProxyHosts;
+
+        Proxies(InetSocketAddress address, @Nullable List<String> nonProxyHosts) {
+            this.proxy = List.of(new Proxy(Proxy.Type.HTTP, address));
+            this.nonProxyHosts = nonProxyHosts != null ? nonProxyHosts : Collections.emptyList();
+        }
+
+        @Override
+        public List<Proxy> select(URI uri) {
+            final String host = uri.getHost();
+            for (String pattern : nonProxyHosts) {
+                if (host != null && matches(pattern, host))
+                    return List.of(Proxy.NO_PROXY);
+            }
+            return proxy;
+        }
+
+        @Override
+        public void connectFailed(URI uri, SocketAddress sa, IOException ioe) {
+        }
+
+        private static boolean matches(String pattern, String host) {
+            if (pattern.startsWith("*"))
+                return host.toLowerCase().endsWith(pattern.substring(1).toLowerCase());
+            return host.equalsIgnoreCase(pattern);
+        }
+    }
+
+    private static final class ProxyAuthenticator extends Authenticator {
+        private final String username;
+        private final char[] password;
+
+        ProxyAuthenticator(String username, @Nullable String password) {
+            this.username = username;
+            this.password = password != null ? password.toCharArray() : new char[0];
+        }
+
+        @Override
+        protected PasswordAuthentication getPasswordAuthentication() {
+            if (getRequestorType() != RequestorType.PROXY)
+                return null;
+            return new PasswordAuthentication(username, password);
+        }
+    }
+}
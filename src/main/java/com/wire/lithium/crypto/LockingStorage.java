@@ -0,0 +1,197 @@
+package com.wire.lithium.crypto;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.wire.bots.cryptobox.IRecord;
+import com.wire.bots.cryptobox.IStorage;
+import com.wire.bots.cryptobox.PreKey;
+import com.wire.bots.cryptobox.StorageException;
+
+import java.util.Objects;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Serializes the use of a session within this process. Cryptobox fetches the session before it encrypts or decrypts
+ * and persists it after, so the session is locked from {@link #fetchSession} until {@link IRecord#persist} of the
+ * returned record. Concurrent messages for the same session wait in memory instead of polling the storage.
+ * <p>
+ * Sessions are mapped onto a fixed number of locks (stripes), so unrelated sessions may share a lock. The locks
+ * are not bound to threads: persist may run on another thread than fetch. A session is held only between fetch and
+ * persist, never two at the time, so sharing a stripe cannot deadlock.
+ * <p>
+ * Cryptobox does not persist the record when it fails to copy the session between fetch and persist. The record
+ * fetched last by each thread is remembered, and a record not persisted by then is released when the same thread
+ * fetches again or calls {@link #releaseHeld()}, as {@link com.wire.lithium.BotClient#close()} does.
+ */
+public class LockingStorage implements IStorage {
+    /**
+     * Record fetched last by the thread, whichever storage it came from
+     */
+    private static final ThreadLocal<Record> HELD = new ThreadLocal<>();
+
+    private final IStorage delegate;
+    private final Semaphore[] stripes;
+    private final long timeout;
+
+    private final Timer waits;
+    private final Meter contended;
+    private final Meter timeouts;
+    private final Meter abandoned;
+
+    /**
+     * @param delegate Storage the sessions are read from and written to
+     * @param stripes  Number of locks, rounded up to a power of two
+     * @param fair     Waiting callers get the lock in arrival order
+     * @param timeout  Max time in ms to wait for a session
+     * @param metrics  Registry where wait times, contention and timeouts are reported
+     */
+    public LockingStorage(IStorage delegate, int stripes, boolean fair, long timeout, MetricRegistry metrics) {
+        this.delegate = delegate;
+        int size = 1;
+        while (size < stripes) {
+            size <<= 1;
+        }
+        this.stripes = new Semaphore[size];
+        for (int i = 0; i < this.stripes.length; i++) {
+            this.stripes[i] = new Semaphore(1, fair);
+        }
+        this.timeout = timeout;
+
+        final String prefix = MetricRegistry.name(LockingStorage.class);
+        this.waits = metrics.timer(MetricRegistry.name(prefix, "wait"));
+        this.contended = metrics.meter(MetricRegistry.name(prefix, "contended"));
+        this.timeouts = metrics.meter(MetricRegistry.name(prefix, "timeouts"));
+        this.abandoned = metrics.meter(MetricRegistry.name(prefix, "abandoned"));
+    }
+
+    /**
+     * Releases the session the current thread fetched and did not persist, e.g. because the crypto box failed
+     * in between. Call it once the thread is done with its crypto boxes
+     */
+    public static void releaseHeld() {
+        final Record record = HELD.get();
+        if (record == null)
+            return;
+
+        HELD.remove();
+        record.abandon();
+    }
+
+    @Override
+    public IRecord fetchSession(String id, String sid) throws StorageException {
+        releaseHeld();
+
+        final Semaphore lock = stripe(id, sid);
+        acquire(lock, id, sid);
+        final Record ret;
+        try {
+            ret = new Record(delegate.fetchSession(id, sid), lock, abandoned);
+        } catch (StorageException | RuntimeException e) {
+            lock.release();
+            throw e;
+        }
+        HELD.set(ret);
+        return ret;
+    }
+
+    @Override
+    public byte[] fetchIdentity(String id) throws StorageException {
+        return delegate.fetchIdentity(id);
+    }
+
+    @Override
+    public void insertIdentity(String id, byte[] data) throws StorageException {
+        delegate.insertIdentity(id, data);
+    }
+
+    @Override
+    public PreKey[] fetchPrekeys(String id) throws StorageException {
+        return delegate.fetchPrekeys(id);
+    }
+
+    @Override
+    public void insertPrekey(String id, int kid, byte[] data) throws StorageException {
+        delegate.insertPrekey(id, kid, data);
+    }
+
+    @Override
+    public void purge(String id) throws StorageException {
+        delegate.purge(id);
+    }
+
+    private void acquire(Semaphore lock, String id, String sid) throws StorageException {
+        try {
+            // unlike tryAcquire(), a timed tryAcquire honours the fairness and does not barge ahead of waiting callers
+            if (lock.tryAcquire(0, TimeUnit.MILLISECONDS))
+                return;
+
+            contended.mark();
+            try (Timer.Context ignored = waits.time()) {
+                if (!lock.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                    timeouts.mark();
+                    throw new StorageException(String.format("Timed out waiting for session %s of %s", sid, id));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageException(String.format("Interrupted waiting for session %s of %s", sid, id));
+        }
+    }
+
+    private Semaphore stripe(String id, String sid) {
+        int h = Objects.hash(id, sid);
+        h ^= (h >>> 16);
+        return stripes[h & (stripes.length - 1)];
+    }
+
+    /**
+     * Releases the session's lock once persisted or abandoned
+     */
+    private static final class Record implements IRecord {
+        private final IRecord record;
+        private final Semaphore lock;
+        private final Meter abandoned;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        Record(IRecord record, Semaphore lock, Meter abandoned) {
+            this.record = record;
+            this.lock = lock;
+            this.abandoned = abandoned;
+        }
+
+        @Override
+        public byte[] getData() {
+            return record != null ? record.getData() : null;
+        }
+
+        @Override
+        public void persist(byte[] update) {
+            try {
+                if (record != null)
+                    record.persist(update);
+            } finally {
+                if (HELD.get() == this)
+                    HELD.remove();
+                release();
+            }
+        }
+
+        /**
+         * Releases the lock of a session that was not persisted, the stored session is left as it was
+         */
+        void abandon() {
+            if (release())
+                abandoned.mark();
+        }
+
+        private boolean release() {
+            if (!released.compareAndSet(false, true))
+                return false;
+            lock.release();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.wire.lithium.crypto;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.wire.bots.cryptobox.CryptoException;
+import com.wire.bots.cryptobox.IRecord;
+import com.wire.bots.cryptobox.IStorage;
+import com.wire.xenon.crypto.CryptoDatabase;
+import com.wire.xenon.models.otr.PreKey;
+import com.wire.xenon.tools.Logger;
+import io.dropwizard.lifecycle.Managed;
+import jakarta.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Generates identities and prekeys for new bots ahead of time. Each entry is created in a throwaway crypto box,
+ * its raw key material is kept in memory and the box is purged. Taking an entry only writes this material
+ * into the {@link IStorage} under the new bot's id, so a {@link CryptoDatabase} opened for that bot later
+ * uses the pre-generated identity and prekeys.
+ */
+public class PrekeyPool implements Managed {
+    private final IStorage storage;
+    private final BlockingQueue<Keys> pool;
+    private final int prekeys;
+    private final int generators;
+    private final ThreadFactory threadFactory;
+    private final List<Thread> threads = new ArrayList<>();
+
+    private final Meter refills;
+    private final Meter hits;
+    private final Meter misses;
+
+    private volatile boolean running;
+
+    /**
+     * @param storage       Crypto storage the keys are bound to
+     * @param size          Max number of ready key sets
+     * @param prekeys       Number of prekeys per bot (besides the last resort prekey)
+     * @param generators    Number of threads generating the keys
+     * @param threadFactory Factory for the generator threads
+     * @param metrics       Registry where pool size, refill rate and hit ratio are reported
+     */
+    public PrekeyPool(IStorage storage, int size, int prekeys, int generators,
+                      ThreadFactory threadFactory, MetricRegistry metrics) {
+        this.storage = storage;
+        this.pool = new ArrayBlockingQueue<>(size);
+        this.prekeys = prekeys;
+        this.generators = generators;
+        this.threadFactory = threadFactory;
+
+        final String prefix = MetricRegistry.name(PrekeyPool.class);
+        this.refills = metrics.meter(MetricRegistry.name(prefix, "refills"));
+        this.hits = metrics.meter(MetricRegistry.name(prefix, "hits"));
+        this.misses = metrics.meter(MetricRegistry.name(prefix, "misses"));
+        metrics.gauge(MetricRegistry.name(prefix, "size"), () -> (Gauge<Integer>) pool::size);
+        metrics.gauge(MetricRegistry.name(prefix, "hit-ratio"), () -> new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                return Ratio.of(hits.getCount(), hits.getCount() + misses.getCount());
+            }
+        });
+    }
+
+    /**
+     * Binds a ready key set to the bot
+     *
+     * @param botId New bot
+     * @return Public part of the bound keys or null if the pool is empty and the keys must be generated inline
+     * @throws IOException if the keys could not be stored
+     */
+    @Nullable
+    public Keys take(UUID botId) throws IOException {
+        final Keys keys = pool.poll();
+        if (keys == null) {
+            misses.mark();
+            return null;
+        }
+        hits.mark();
+
+        final String id = botId.toString();
+        storage.insertIdentity(id, keys.identity);
+        for (com.wire.bots.cryptobox.PreKey preKey : keys.records) {
+            storage.insertPrekey(id, preKey.id, preKey.data);
+        }
+        return keys;
+    }
+
+    public int size() {
+        return pool.size();
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        for (int i = 0; i < generators; i++) {
+            final Thread thread = threadFactory.newThread(this::refill);
+            threads.add(thread);
+            thread.start();
+        }
+    }
+
+    @Override
+    public void stop() throws InterruptedException {
+        running = false;
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        threads.clear();
+        pool.clear();
+    }
+
+    private void refill() {
+        while (running) {
+            try {
+                pool.put(generate());
+                refills.mark();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                Logger.exception(e, "PrekeyPool: failed to generate keys: %s", e.getMessage());
+            }
+        }
+    }
+
+    private Keys generate() throws CryptoException, IOException {
+        final Capture capture = new Capture();
+        final CryptoDatabase crypto = new CryptoDatabase(UUID.randomUUID(), capture);
+        try {
+            final PreKey lastPreKey = crypto.newLastPreKey();
+            final ArrayList<PreKey> preKeys = crypto.newPreKeys(0, prekeys);
+            return new Keys(capture.identity, capture.prekeys, lastPreKey, preKeys);
+        } finally {
+            crypto.purge();
+        }
+    }
+
+    /**
+     * Key set handed out to a new bot
+     */
+    public static final class Keys {
+        public final PreKey lastPreKey;
+        public final ArrayList<PreKey> preKeys;
+
+        private final byte[] identity;
+        private final List<com.wire.bots.cryptobox.PreKey> records;
+
+        private Keys(byte[] identity, List<com.wire.bots.cryptobox.PreKey> records, PreKey lastPreKey, ArrayList<PreKey> preKeys) {
+            this.identity = identity;
+            this.records = records;
+            this.lastPreKey = lastPreKey;
+            this.preKeys = preKeys;
+        }
+    }
+
+    /**
+     * Collects what the throwaway box stores. It has no sessions.
+     */
+    private static final class Capture implements IStorage {
+        private final List<com.wire.bots.cryptobox.PreKey> prekeys = new ArrayList<>();
+        private byte[] identity;
+
+        @Override
+        public IRecord fetchSession(String id, String sid) {
+            return null;
+        }
+
+        @Override
+        public byte[] fetchIdentity(String id) {
+            return identity;
+        }
+
+        @Override
+        public void insertIdentity(String id, byte[] data) {
+            identity = data;
+        }
+
+        @Override
+        public com.wire.bots.cryptobox.PreKey[] fetchPrekeys(String id) {
+            return null;
+        }
+
+        @Override
+        public void insertPrekey(String id, int kid, byte[] data) {
+            prekeys.add(new com.wire.bots.cryptobox.PreKey(kid, data));
+        }
+
+        @Override
+        public void purge(String id) {
+        }
+    }
+}
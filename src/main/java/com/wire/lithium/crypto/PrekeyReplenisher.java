@@ -0,0 +1,227 @@
+package com.wire.lithium.crypto;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.wire.lithium.ClientRepo;
+import com.wire.lithium.storage.BotIndex;
+import com.wire.lithium.storage.LeaderLock;
+import com.wire.xenon.WireClient;
+import com.wire.xenon.models.otr.PreKey;
+import com.wire.xenon.tools.Logger;
+import io.dropwizard.lifecycle.Managed;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tops up the prekeys of all bots in the background. Every interval the bots of the {@link BotIndex} are checked in
+ * batches: when the Backend holds fewer than {@code threshold} prekeys of a bot, new prekeys are generated and
+ * uploaded so the bot has {@code count} prekeys again.
+ * <p>
+ * At most {@code concurrency} bots are checked at once and at most {@code rate} checks are started per second.
+ * The first scan and every next one are delayed by up to {@code jitter}, so instances started together do not hit the
+ * Backend at the same time. The bots are checked in a random order for the same reason.
+ * <p>
+ * Replenishment runs on one instance only: a scan starts only on the instance that holds the {@link LeaderLock} of the
+ * storage, the others skip it and try again at their next scan. Two instances topping up the same bot would generate
+ * different prekeys with the same ids, one set would end up on the Backend and the other in the storage, and new
+ * devices would fail to decrypt their first message.
+ */
+public class PrekeyReplenisher implements Managed {
+    static final int LAST_RESORT_ID = 0xFFFF;
+
+    private final ClientRepo repo;
+    private final BotIndex index;
+    private final LeaderLock lock;
+    private final int threshold;
+    private final int count;
+    private final long interval;
+    private final long jitter;
+    private final int batchSize;
+    private final long pause;
+    private final ThreadFactory threadFactory;
+    private final ExecutorService workers;
+
+    private final Meter checks;
+    private final Meter replenished;
+    private final Meter uploaded;
+    private final Meter errors;
+    private final Meter skipped;
+    private final Timer scans;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param repo          Clients of the bots
+     * @param index         Bots to check
+     * @param lock          Lock shared by all instances, held by the one that scans
+     * @param threshold     Bots with fewer prekeys on the Backend are topped up
+     * @param count         Number of prekeys a bot is topped up to
+     * @param interval      Millis between the end of a scan and the start of the next one
+     * @param jitter        Max random millis added to the interval
+     * @param batchSize     Number of bots submitted at once
+     * @param concurrency   Max number of bots checked at once
+     * @param rate          Max number of bots checked per second
+     * @param threadFactory Factory for the scheduler and the worker threads
+     * @param metrics       Registry where checks, uploads, errors, skipped scans and scan times are reported
+     */
+    public PrekeyReplenisher(ClientRepo repo, BotIndex index, LeaderLock lock, int threshold, int count, long interval,
+                             long jitter, int batchSize, int concurrency, double rate,
+                             ThreadFactory threadFactory, MetricRegistry metrics) {
+        this.repo = repo;
+        this.index = index;
+        this.lock = lock;
+        this.threshold = threshold;
+        this.count = count;
+        this.interval = interval;
+        this.jitter = jitter;
+        this.batchSize = batchSize;
+        this.pause = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        this.threadFactory = threadFactory;
+        this.workers = Executors.newFixedThreadPool(concurrency, threadFactory);
+
+        final String prefix = MetricRegistry.name(PrekeyReplenisher.class);
+        this.checks = metrics.meter(MetricRegistry.name(prefix, "checks"));
+        this.replenished = metrics.meter(MetricRegistry.name(prefix, "replenished"));
+        this.uploaded = metrics.meter(MetricRegistry.name(prefix, "uploaded"));
+        this.errors = metrics.meter(MetricRegistry.name(prefix, "errors"));
+        this.skipped = metrics.meter(MetricRegistry.name(prefix, "skipped"));
+        this.scans = metrics.timer(MetricRegistry.name(prefix, "scans"));
+    }
+
+    @Override
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        schedule(0);
+    }
+
+    @Override
+    public void stop() throws InterruptedException {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        }
+        workers.shutdownNow();
+        workers.awaitTermination(5, TimeUnit.SECONDS);
+        lock.release();
+    }
+
+    private void schedule(long delay) {
+        final long random = jitter > 0 ? ThreadLocalRandom.current().nextLong(jitter) : 0;
+        scheduler.schedule(this::run, delay + random, TimeUnit.MILLISECONDS);
+    }
+
+    private void run() {
+        try {
+            scan();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (Exception e) {
+            Logger.exception(e, "PrekeyReplenisher: scan failed: %s", e.getMessage());
+        }
+        if (!scheduler.isShutdown())
+            schedule(interval);
+    }
+
+    /**
+     * Checks all bots once, see {@link #start()} for the periodic scans. Nothing is checked while another instance
+     * holds the lock
+     *
+     * @return Number of bots topped up
+     * @throws Exception if the bots cannot be listed
+     */
+    public int scan() throws Exception {
+        if (!lock.tryAcquire()) {
+            skipped.mark();
+            Logger.debug("PrekeyReplenisher: another instance holds the lock, scan skipped");
+            return 0;
+        }
+
+        final List<UUID> bots = new ArrayList<>(index.getBotIds());
+        Collections.shuffle(bots, ThreadLocalRandom.current());
+
+        int ret = 0;
+        try (Timer.Context ignored = scans.time()) {
+            final CompletionService<Integer> completion = new ExecutorCompletionService<>(workers);
+            long next = System.nanoTime();
+            for (int from = 0; from < bots.size(); from += batchSize) {
+                final List<UUID> batch = bots.subList(from, Math.min(bots.size(), from + batchSize));
+                for (UUID botId : batch) {
+                    final long wait = next - System.nanoTime();
+                    if (wait > 0)
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    next = Math.max(next, System.nanoTime()) + pause;
+
+                    completion.submit(() -> replenish(botId));
+                }
+                for (int i = 0; i < batch.size(); i++) {
+                    if (completion.take().get() > 0)
+                        ret++;
+                }
+            }
+        }
+        if (ret > 0)
+            Logger.info("PrekeyReplenisher: topped up %d of %d bots", ret, bots.size());
+        return ret;
+    }
+
+    /**
+     * Tops up the bot's prekeys. The new prekeys are stored from the box of this client, which may not be the cached
+     * box of the bot (a concurrent request holds that one), so the cached box is retired after the upload and the next
+     * request opens one that has them. Only called while this instance holds the lock, see the class
+     *
+     * @return Number of uploaded prekeys, 0 if the bot has enough or failed
+     */
+    private int replenish(UUID botId) {
+        checks.mark();
+        try (WireClient client = repo.getClient(botId)) {
+            int available = 0;
+            int max = -1;
+            for (Integer id : client.getAvailablePrekeys()) {
+                if (id == null || id == LAST_RESORT_ID)
+                    continue;
+                available++;
+                max = Math.max(max, id);
+            }
+            if (available >= threshold)
+                return 0;
+
+            final int missing = count - available;
+            if (missing <= 0)
+                return 0;
+
+            final ArrayList<PreKey> preKeys = client.newPreKeys(nextId(max, missing), missing);
+            client.uploadPreKeys(preKeys);
+            repo.evictCrypto(botId);
+
+            replenished.mark();
+            uploaded.mark(preKeys.size());
+            return preKeys.size();
+        } catch (Exception e) {
+            errors.mark();
+            Logger.exception(e, "PrekeyReplenisher: bot: %s, error: %s", botId, e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * New ids follow the highest id still on the Backend and start over at 0 before reaching the last resort id.
+     * The low ids are the ones used up first.
+     */
+    static int nextId(int max, int missing) {
+        final int from = max + 1;
+        return from + missing < LAST_RESORT_ID ? from : 0;
+    }
+}
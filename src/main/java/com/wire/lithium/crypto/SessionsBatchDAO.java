@@ -0,0 +1,16 @@
+package com.wire.lithium.crypto;
+
+import org.jdbi.v3.sqlobject.customizer.Bind;
+import org.jdbi.v3.sqlobject.statement.SqlBatch;
+
+import java.util.List;
+
+/**
+ * Writes many sessions in one round trip. Same upsert as xenon's SessionsDAO.insert
+ */
+public interface SessionsBatchDAO {
+    @SqlBatch("INSERT INTO Sessions (id, sid, data) VALUES (:id, :sid, :data) ON CONFLICT (id, sid) DO UPDATE SET data = EXCLUDED.data")
+    void insert(@Bind("id") List<String> ids,
+                @Bind("sid") List<String> sids,
+                @Bind("data") List<byte[]> data);
+}
@@ -0,0 +1,313 @@
+package com.wire.lithium.crypto;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.wire.bots.cryptobox.IRecord;
+import com.wire.bots.cryptobox.IStorage;
+import com.wire.bots.cryptobox.PreKey;
+import com.wire.bots.cryptobox.StorageException;
+import com.wire.xenon.crypto.storage.Session;
+import com.wire.xenon.tools.Logger;
+import io.dropwizard.lifecycle.Managed;
+import org.jdbi.v3.core.Jdbi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Crypto storage that keeps updated sessions in memory and writes them to the delegate in batches, every flush interval
+ * or as soon as batchSize sessions are pending, and on stop. A session updated several times between two flushes
+ * is written once. Identities and prekeys are passed through.
+ * <p>
+ * Durability: session updates not yet flushed are lost if the process dies without {@link #stop()}. That is at most
+ * one flush interval of updates (more while the database is unavailable: failed batches stay pending and are retried).
+ * A lost update leaves the bot with an older session than its peer, so the next messages of that peer cannot be
+ * decrypted until the session is re-established.
+ * <p>
+ * Consistency: pending sessions are visible to this process only. Another instance sharing the database reads
+ * sessions up to one flush interval old and its own flushes overwrite the newer ones, so all messages of a bot must
+ * go to the same instance, as with {@link LockingStorage}.
+ * <p>
+ * Each session is updated atomically (per key lock of the pending map). Flushes are serialized. A purge drops the
+ * bot's pending sessions, and sessions fetched before the purge and persisted after it are dropped as well, so no
+ * flush writes the purged bot's rows back.
+ */
+public class WriteBehindStorage implements IStorage, Managed {
+    /**
+     * How long a purge is remembered: longer than a fetched session is held by a message
+     */
+    static final long PURGE_MEMORY = TimeUnit.MINUTES.toNanos(10);
+
+    private final IStorage delegate;
+    private final SessionWriter writer;
+    private final long interval;
+    private final int batchSize;
+    private final ScheduledExecutorService scheduler;
+    private final Map<Key, Pending> pending = new ConcurrentHashMap<>();
+    private final Map<String, Long> purged = new ConcurrentHashMap<>();   // bot id -> nano time of the purge
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    private final Meter updates;
+    private final Meter coalesced;
+    private final Meter errors;
+    private final Timer flushes;
+    private final Histogram batches;
+    private final Histogram lag;
+
+    /**
+     * Writes sessions to the database
+     */
+    public interface SessionWriter {
+        void write(List<Session> sessions) throws Exception;
+    }
+
+    /**
+     * @param delegate      Storage the sessions are read from and identities and prekeys are passed to
+     * @param writer        Batch writer of the sessions, see {@link #jdbiWriter(Jdbi)}
+     * @param interval      Max time in ms an update stays only in memory while the database is available
+     * @param batchSize     Number of pending sessions that triggers a flush, also max sessions per batch
+     * @param threadFactory Factory for the flushing thread
+     * @param metrics       Registry where pending sessions, flush lag and batch sizes are reported
+     */
+    public WriteBehindStorage(IStorage delegate, SessionWriter writer, long interval, int batchSize,
+                              ThreadFactory threadFactory, MetricRegistry metrics) {
+        this.delegate = delegate;
+        this.writer = writer;
+        this.interval = interval;
+        this.batchSize = batchSize;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+
+        final String prefix = MetricRegistry.name(WriteBehindStorage.class);
+        this.updates = metrics.meter(MetricRegistry.name(prefix, "updates"));
+        this.coalesced = metrics.meter(MetricRegistry.name(prefix, "coalesced"));
+        this.errors = metrics.meter(MetricRegistry.name(prefix, "errors"));
+        this.flushes = metrics.timer(MetricRegistry.name(prefix, "flushes"));
+        this.batches = metrics.histogram(MetricRegistry.name(prefix, "batch-size"));
+        this.lag = metrics.histogram(MetricRegistry.name(prefix, "flush-lag"));
+        metrics.gauge(MetricRegistry.name(prefix, "pending"), () -> (Gauge<Integer>) pending::size);
+        metrics.gauge(MetricRegistry.name(prefix, "oldest-pending"), () -> (Gauge<Long>) this::oldestPending);
+    }
+
+    /**
+     * @param jdbi Database with the Sessions table
+     * @return Writer that upserts the sessions in one batch
+     */
+    public static SessionWriter jdbiWriter(Jdbi jdbi) {
+        final SessionsBatchDAO dao = jdbi.onDemand(SessionsBatchDAO.class);
+        return sessions -> {
+            final List<String> ids = new ArrayList<>(sessions.size());
+            final List<String> sids = new ArrayList<>(sessions.size());
+            final List<byte[]> data = new ArrayList<>(sessions.size());
+            for (Session session : sessions) {
+                ids.add(session.id);
+                sids.add(session.sid);
+                data.add(session.data);
+            }
+            dao.insert(ids, sids, data);
+        };
+    }
+
+    @Override
+    public IRecord fetchSession(String id, String sid) throws StorageException {
+        final Key key = new Key(id, sid);
+        final long fetched = System.nanoTime();
+        final Pending latest = pending.get(key);
+        if (latest != null)
+            return new Record(key, latest.data, fetched);
+
+        // nothing pending: the delegate has the latest session
+        final IRecord record = delegate.fetchSession(id, sid);
+        return new Record(key, record != null ? record.getData() : null, fetched);
+    }
+
+    @Override
+    public byte[] fetchIdentity(String id) throws StorageException {
+        return delegate.fetchIdentity(id);
+    }
+
+    @Override
+    public void insertIdentity(String id, byte[] data) throws StorageException {
+        delegate.insertIdentity(id, data);
+    }
+
+    @Override
+    public PreKey[] fetchPrekeys(String id) throws StorageException {
+        return delegate.fetchPrekeys(id);
+    }
+
+    @Override
+    public void insertPrekey(String id, int kid, byte[] data) throws StorageException {
+        delegate.insertPrekey(id, kid, data);
+    }
+
+    @Override
+    public void purge(String id) throws StorageException {
+        // wait for a running flush so that it cannot write the bot's sessions back
+        synchronized (this) {
+            // marked before the pending sessions are dropped: an update racing with the purge sees one or the other
+            purged.put(id, System.nanoTime());
+            pending.keySet().removeIf(key -> key.id.equals(id));
+            delegate.purge(id);
+        }
+    }
+
+    public int pending() {
+        return pending.size();
+    }
+
+    @Override
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() throws InterruptedException {
+        scheduler.shutdown();
+        scheduler.awaitTermination(1, TimeUnit.MINUTES);
+
+        flush();
+        if (!pending.isEmpty())
+            Logger.error("WriteBehindStorage: %d sessions could not be written on shutdown", pending.size());
+    }
+
+    /**
+     * Writes all pending sessions. Sessions updated while the flush runs stay pending for the next one
+     */
+    public synchronized void flush() {
+        flushRequested.set(false);
+        final long forget = System.nanoTime() - PURGE_MEMORY;
+        purged.values().removeIf(time -> time - forget < 0);
+
+        final List<Map.Entry<Key, Pending>> snapshot = new ArrayList<>(pending.entrySet());
+
+        for (int from = 0; from < snapshot.size(); from += batchSize) {
+            final List<Map.Entry<Key, Pending>> batch = snapshot.subList(from, Math.min(from + batchSize, snapshot.size()));
+            final List<Session> sessions = new ArrayList<>(batch.size());
+            for (Map.Entry<Key, Pending> entry : batch) {
+                final Session session = new Session();
+                session.id = entry.getKey().id;
+                session.sid = entry.getKey().sid;
+                session.data = entry.getValue().data;
+                sessions.add(session);
+            }
+
+            try (Timer.Context ignored = flushes.time()) {
+                writer.write(sessions);
+            } catch (Exception e) {
+                errors.mark();
+                Logger.exception(e, "WriteBehindStorage: failed to write %d sessions: %s", sessions.size(), e.getMessage());
+                return;   // retried on the next flush
+            }
+
+            final long now = System.nanoTime();
+            batches.update(sessions.size());
+            for (Map.Entry<Key, Pending> entry : batch) {
+                lag.update(TimeUnit.NANOSECONDS.toMillis(now - entry.getValue().since));
+                // removed only if not updated meanwhile
+                pending.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void update(Key key, byte[] data, long fetched) {
+        updates.mark();
+        pending.compute(key, (k, old) -> {
+            final Long purge = purged.get(k.id);
+            if (purge != null && purge - fetched >= 0)
+                return old;   // fetched before the bot was purged
+            if (old == null)
+                return new Pending(data, System.nanoTime());
+            coalesced.mark();
+            return new Pending(data, old.since);
+        });
+
+        if (pending.size() >= batchSize && flushRequested.compareAndSet(false, true)) {
+            try {
+                scheduler.execute(this::flush);
+            } catch (RejectedExecutionException e) {
+                flushRequested.set(false);   // stopping, stop() flushes
+            }
+        }
+    }
+
+    private long oldestPending() {
+        long oldest = Long.MAX_VALUE;
+        for (Pending p : pending.values()) {
+            oldest = Math.min(oldest, p.since);
+        }
+        return oldest == Long.MAX_VALUE ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest);
+    }
+
+    private static final class Key {
+        final String id;
+        final String sid;
+
+        Key(String id, String sid) {
+            this.id = id;
+            this.sid = sid;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            final Key key = (Key) o;
+            return id.equals(key.id) && sid.equals(key.sid);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(id, sid);
+        }
+    }
+
+    /**
+     * Latest session not yet written and when it first became dirty
+     */
+    private static final class Pending {
+        final byte[] data;
+        final long since;
+
+        Pending(byte[] data, long since) {
+            this.data = data;
+            this.since = since;
+        }
+    }
+
+    private final class Record implements IRecord {
+        private final Key key;
+        private final byte[] data;
+        private final long fetched;
+
+        Record(Key key, byte[] data, long fetched) {
+            this.key = key;
+            this.data = data;
+            this.fetched = fetched;
+        }
+
+        @Override
+        public byte[] getData() {
+            return data;
+        }
+
+        @Override
+        public void persist(byte[] update) {
+            if (update != null)
+                update(key, update, fetched);
+        }
+    }
+}
@@ -28,24 +28,31 @@ public class Alice2Bob extends HealthCheck {
             UUID aliceId = UUID.randomUUID();
             UUID bobId = UUID.randomUUID();
 
-            Crypto alice = cryptoFactory.create(aliceId);
-            Crypto bob = cryptoFactory.create(bobId);
-            PreKeys bobKeys = new PreKeys(bob.newPreKeys(0, 1), "bob", bobId);
-
             String text = "Hello Bob, This is Alice!";
             byte[] textBytes = text.getBytes();
+            byte[] decode;
 
-            // Encrypt using prekeys
-            Recipients encrypt = alice.encrypt(bobKeys, textBytes);
+            // remove identities, prekeys and sessions so the check does not grow the storage, also when it fails
+            Crypto alice = cryptoFactory.create(aliceId);
+            try {
+                Crypto bob = cryptoFactory.create(bobId);
+                try {
+                    PreKeys bobKeys = new PreKeys(bob.newPreKeys(0, 1), "bob", bobId);
 
-            String base64Encoded = encrypt.get(bobId, "bob");
+                    // Encrypt using prekeys
+                    Recipients encrypt = alice.encrypt(bobKeys, textBytes);
 
-            // Decrypt using initSessionFromMessage
-            String decrypt = bob.decrypt(aliceId, "alice", base64Encoded);
-            byte[] decode = Base64.getDecoder().decode(decrypt);
+                    String base64Encoded = encrypt.get(bobId, "bob");
 
-            alice.close();
-            bob.close();
+                    // Decrypt using initSessionFromMessage
+                    String decrypt = bob.decrypt(aliceId, "alice", base64Encoded);
+                    decode = Base64.getDecoder().decode(decrypt);
+                } finally {
+                    bob.purge();
+                }
+            } finally {
+                alice.purge();
+            }
 
             if (!Arrays.equals(decode, textBytes))
                 return Result.unhealthy("!Arrays.equals(decode, textBytes)");
@@ -0,0 +1,116 @@
+package com.wire.lithium.healthchecks;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.health.HealthCheck;
+import com.wire.xenon.tools.Logger;
+import io.dropwizard.lifecycle.Managed;
+
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a health check in the background every interval and answers the probes with its latest result, so a probe
+ * never waits for the storage or the crypto box. The result carries the latency of the last run and the percentiles
+ * of the recent runs. A result older than three intervals is reported as unhealthy: the check hangs.
+ * <p>
+ * Before the first background run the check runs within the probe.
+ */
+public class CachedHealthCheck extends HealthCheck implements Managed {
+    static final int STALE_INTERVALS = 3;
+
+    private final HealthCheck delegate;
+    private final long interval;
+    private final ScheduledExecutorService executor;
+    private final Timer latency;
+    private final Meter failures;
+
+    private volatile Result latest;
+    private ScheduledFuture<?> future;
+
+    /**
+     * @param delegate Health check that does the work
+     * @param interval Millis between two runs
+     * @param executor Runs the check
+     * @param metrics  Registry where the latency and the failures are reported, named after the delegate's class
+     */
+    public CachedHealthCheck(HealthCheck delegate, long interval, ScheduledExecutorService executor,
+                             MetricRegistry metrics) {
+        this.delegate = delegate;
+        this.interval = interval;
+        this.executor = executor;
+
+        final String prefix = MetricRegistry.name(delegate.getClass());
+        this.latency = metrics.timer(MetricRegistry.name(prefix, "latency"));
+        this.failures = metrics.meter(MetricRegistry.name(prefix, "failures"));
+    }
+
+    @Override
+    public void start() {
+        future = executor.scheduleWithFixedDelay(this::refresh, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() {
+        if (future != null)
+            future.cancel(true);
+    }
+
+    @Override
+    protected Result check() {
+        final Result ret = latest;
+        if (ret == null)
+            return refresh();
+
+        final long age = System.currentTimeMillis() - ret.getTime();
+        if (age > STALE_INTERVALS * interval)
+            return Result.unhealthy("No result for %d ms, last: %s", age, ret.getMessage());
+        return ret;
+    }
+
+    /**
+     * Runs the check now and caches the result
+     *
+     * @return The new result
+     */
+    public Result refresh() {
+        final Result result = delegate.execute();
+        latency.update(result.getDuration(), TimeUnit.MILLISECONDS);
+        if (!result.isHealthy()) {
+            failures.mark();
+            Logger.warning("%s: %s", delegate.getClass().getSimpleName(), result.getMessage());
+        }
+
+        final Snapshot snapshot = latency.getSnapshot();
+        final ResultBuilder builder = Result.builder();
+        if (result.isHealthy())
+            builder.healthy();
+        else if (result.getError() != null)
+            builder.unhealthy(result.getError());
+        else
+            builder.unhealthy();
+        if (result.getMessage() != null)
+            builder.withMessage(result.getMessage());
+        final Map<String, Object> details = result.getDetails();
+        if (details != null)
+            details.forEach(builder::withDetail);
+
+        final Result ret = builder
+                .withDetail("latencyMs", result.getDuration())
+                .withDetail("p50Ms", toMillis(snapshot.getMedian()))
+                .withDetail("p99Ms", toMillis(snapshot.get99thPercentile()))
+                .build();
+        ret.setDuration(result.getDuration());
+
+        latest = ret;
+        return ret;
+    }
+
+    private static double toMillis(double nanos) {
+        return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
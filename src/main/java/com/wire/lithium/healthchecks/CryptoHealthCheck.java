@@ -21,10 +21,14 @@ public class CryptoHealthCheck extends HealthCheck {
             MDCUtils.put("healthCheck", "CryptoHealthCheck"); // tag the logs with health check
             Logger.debug("Starting CryptoHealthCheck healthcheck");
 
-            try (Crypto crypto = cryptoFactory.create(UUID.randomUUID())) {
+            Crypto crypto = cryptoFactory.create(UUID.randomUUID());
+            try {
                 crypto.newLastPreKey();
                 crypto.newPreKeys(0, 8);
                 return Result.healthy();
+            } finally {
+                // remove the identity and prekeys so the check does not grow the storage
+                crypto.purge();
             }
         } catch (Exception e) {
             Logger.exception("Exception during CryptoHealthCheck.", e);
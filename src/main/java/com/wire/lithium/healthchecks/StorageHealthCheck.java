@@ -25,9 +25,17 @@ public class StorageHealthCheck extends HealthCheck {
             NewBot newBot = new NewBot();
             newBot.id = UUID.randomUUID();
             State state = storageFactory.create(newBot.id);
-            return state.saveState(newBot)
-                    ? HealthCheck.Result.healthy()
-                    : HealthCheck.Result.unhealthy("Failed to save the state");
+            try {
+                if (!state.saveState(newBot))
+                    return HealthCheck.Result.unhealthy("Failed to save the state");
+
+                return newBot.id.equals(state.getState().id)
+                        ? HealthCheck.Result.healthy()
+                        : HealthCheck.Result.unhealthy("Failed to load the state");
+            } finally {
+                // remove the row so the check does not grow the storage
+                state.removeState();
+            }
         } catch (Exception e) {
             Logger.exception("Exception during StorageHealthCheck.", e);
             return Result.unhealthy(e.getMessage());
@@ -0,0 +1,142 @@
+package com.wire.lithium.server.dispatch;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.wire.xenon.tools.Logger;
+import io.dropwizard.lifecycle.Managed;
+
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the inbound messages in the background. Every bot is pinned to one lane, so the messages of one bot
+ * (and therefore of its conversation) are processed in the order they were accepted, while different bots run in parallel.
+ * Lanes are bounded: {@link #offer(UUID, Runnable)} returns false when the lane of the bot is full.
+ */
+public class MessageDispatcher implements Managed {
+    private final Lane[] lanes;
+    private final ThreadFactory threadFactory;
+    private final long retryAfter;
+    private final long shutdownTimeout;
+    private final Meter rejected;
+
+    private volatile boolean running;
+
+    /**
+     * @param lanes           Number of lanes processed in parallel
+     * @param capacity        Max number of queued messages per lane
+     * @param retryAfter      Seconds the Backend should wait before it retries a rejected message
+     * @param shutdownTimeout Millis to wait for the queued messages on shutdown
+     * @param threadFactory   Factory for the lane threads
+     * @param metrics         Registry where queue depth and rejections are reported
+     */
+    public MessageDispatcher(int lanes, int capacity, long retryAfter, long shutdownTimeout,
+                             ThreadFactory threadFactory, MetricRegistry metrics) {
+        this.lanes = new Lane[lanes];
+        for (int i = 0; i < lanes; i++) {
+            this.lanes[i] = new Lane(capacity);
+        }
+        this.threadFactory = threadFactory;
+        this.retryAfter = retryAfter;
+        this.shutdownTimeout = shutdownTimeout;
+
+        final String prefix = MetricRegistry.name(MessageDispatcher.class);
+        this.rejected = metrics.meter(MetricRegistry.name(prefix, "rejected"));
+        metrics.gauge(MetricRegistry.name(prefix, "queued"), () -> (Gauge<Integer>) this::size);
+    }
+
+    /**
+     * Queues the task at the end of the bot's lane
+     *
+     * @param botId Bot the task belongs to
+     * @param task  Work to do
+     * @return false if the lane is full or the dispatcher is not running
+     */
+    public boolean offer(UUID botId, Runnable task) {
+        if (!running || !lane(botId).queue.offer(task)) {
+            rejected.mark();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return Seconds the Backend should wait before it retries a rejected message
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+
+    public int size() {
+        int ret = 0;
+        for (Lane lane : lanes) {
+            ret += lane.queue.size();
+        }
+        return ret;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        for (Lane lane : lanes) {
+            threadFactory.newThread(lane).start();
+        }
+    }
+
+    @Override
+    public void stop() throws InterruptedException {
+        // lanes finish once they have drained their queues
+        running = false;
+
+        final long deadline = System.currentTimeMillis() + shutdownTimeout;
+        for (Lane lane : lanes) {
+            final long wait = deadline - System.currentTimeMillis();
+            if (!lane.done.await(Math.max(wait, 0), TimeUnit.MILLISECONDS)) {
+                Logger.warning("MessageDispatcher: %d messages were not processed before shutdown", size());
+                return;
+            }
+        }
+    }
+
+    private Lane lane(UUID botId) {
+        return lanes[Math.floorMod(botId.hashCode(), lanes.length)];
+    }
+
+    private class Lane implements Runnable {
+        private final BlockingQueue<Runnable> queue;
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        Lane(int capacity) {
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Runnable task = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (task == null) {
+                        if (!running)
+                            return;
+                        continue;
+                    }
+
+                    try {
+                        task.run();
+                    } catch (Exception e) {
+                        Logger.exception(e, "MessageDispatcher: %s", e.getMessage());
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                done.countDown();
+            }
+        }
+    }
+}
@@ -8,10 +8,20 @@ import jakarta.ws.rs.ext.Provider;
 
 @Provider
 public class AuthenticationFeature implements DynamicFeature {
+    private final AuthenticationFilter filter;
+
+    public AuthenticationFeature() {
+        this(ServiceTokens.fromEnvironment());
+    }
+
+    public AuthenticationFeature(ServiceTokens tokens) {
+        this.filter = new AuthenticationFilter(tokens);
+    }
+
     @Override
     public void configure(ResourceInfo resourceInfo, FeatureContext context) {
         if (resourceInfo.getResourceMethod().getAnnotation(Authorization.class) != null) {
-            context.register(AuthenticationFilter.class);
+            context.register(filter);
         }
     }
 }
@@ -1,8 +1,6 @@
 package com.wire.lithium.server.filters;
 
-import com.wire.xenon.Const;
 import com.wire.xenon.tools.Logger;
-import com.wire.xenon.tools.Util;
 import jakarta.ws.rs.WebApplicationException;
 import jakarta.ws.rs.container.ContainerRequestContext;
 import jakarta.ws.rs.container.ContainerRequestFilter;
@@ -12,6 +10,16 @@ import jakarta.ws.rs.ext.Provider;
 
 @Provider
 public class AuthenticationFilter implements ContainerRequestFilter {
+    private final ServiceTokens tokens;
+
+    public AuthenticationFilter() {
+        this(ServiceTokens.fromEnvironment());
+    }
+
+    public AuthenticationFilter(ServiceTokens tokens) {
+        this.tokens = tokens;
+    }
+
     @Override
     public void filter(ContainerRequestContext requestContext) {
         String auth = requestContext.getHeaderString(HttpHeaders.AUTHORIZATION);
@@ -20,14 +28,13 @@ public class AuthenticationFilter implements ContainerRequestFilter {
             throw new WebApplicationException(cause, Response.Status.UNAUTHORIZED);
         }
 
-        String serviceToken = System.getProperty(Const.WIRE_BOTS_SDK_TOKEN, System.getenv("SERVICE_TOKEN"));
-
-        if (!Util.compareAuthorizations(auth, serviceToken)) {
+        String token = tokens.match(auth);
+        if (token == null) {
             Logger.warning("Wrong service token");
             Exception cause = new IllegalArgumentException("Wrong service token");
             throw new WebApplicationException(cause, Response.Status.UNAUTHORIZED);
         }
 
-        requestContext.setProperty("wire-auth", Util.extractToken(auth));
+        requestContext.setProperty("wire-auth", token);
     }
-}
\ No newline at end of file
+}
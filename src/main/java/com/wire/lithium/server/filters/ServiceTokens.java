@@ -0,0 +1,111 @@
+package com.wire.lithium.server.filters;
+
+import com.wire.xenon.Const;
+import jakarta.annotation.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Service tokens accepted in the Authorization header of the Backend's requests. More than one token is accepted
+ * while the token is rotated. The tokens are kept as bytes and compared in constant time, without allocating per
+ * request. {@link #set} replaces all tokens at once.
+ */
+public class ServiceTokens {
+    private volatile Tokens tokens;
+
+    public ServiceTokens(Collection<String> tokens) {
+        this.tokens = parse(tokens);
+    }
+
+    /**
+     * @return The token of the system property {@link Const#WIRE_BOTS_SDK_TOKEN} or the env variable SERVICE_TOKEN,
+     * read once
+     */
+    public static ServiceTokens fromEnvironment() {
+        final String token = System.getProperty(Const.WIRE_BOTS_SDK_TOKEN, System.getenv("SERVICE_TOKEN"));
+        return new ServiceTokens(token != null ? Collections.singletonList(token) : Collections.emptyList());
+    }
+
+    /**
+     * Replaces the accepted tokens
+     *
+     * @throws IllegalArgumentException if a token is empty or not Latin-1
+     */
+    public void set(Collection<String> tokens) {
+        this.tokens = parse(tokens);
+    }
+
+    public int size() {
+        return tokens.strings.length;
+    }
+
+    /**
+     * @param authorization Value of the Authorization header: "Bearer token" or just the token
+     * @return The accepted token the header carries or null
+     */
+    @Nullable
+    public String match(@Nullable String authorization) {
+        if (authorization == null)
+            return null;
+
+        // same token as Util.extractToken
+        final int start = authorization.indexOf(' ') + 1;
+        int end = authorization.indexOf(' ', start);
+        if (end < 0)
+            end = authorization.length();
+
+        final Tokens current = tokens;
+        String ret = null;
+        for (int i = 0; i < current.bytes.length; i++) {
+            if (equals(current.bytes[i], authorization, start, end))
+                ret = current.strings[i];
+        }
+        return ret;
+    }
+
+    /**
+     * Time depends on the length of the token only, not on where it differs
+     */
+    private static boolean equals(byte[] token, String value, int start, int end) {
+        if (token.length != end - start)
+            return false;
+
+        int diff = 0;
+        for (int i = 0; i < token.length; i++) {
+            diff |= (token[i] & 0xFF) ^ value.charAt(start + i);
+        }
+        return diff == 0;
+    }
+
+    private static Tokens parse(Collection<String> tokens) {
+        final List<String> strings = new ArrayList<>(tokens.size());
+        for (String token : tokens) {
+            if (token == null || token.isEmpty() || token.indexOf(' ') >= 0)
+                throw new IllegalArgumentException("Empty or invalid service token");
+            if (!StandardCharsets.ISO_8859_1.newEncoder().canEncode(token))
+                throw new IllegalArgumentException("Service token is not Latin-1");
+            if (!strings.contains(token))
+                strings.add(token);
+        }
+
+        final Tokens ret = new Tokens(strings.toArray(new String[0]));
+        for (int i = 0; i < ret.strings.length; i++) {
+            ret.bytes[i] = ret.strings[i].getBytes(StandardCharsets.ISO_8859_1);
+        }
+        return ret;
+    }
+
+    private static final class Tokens {
+        final String[] strings;
+        final byte[][] bytes;
+
+        Tokens(String[] strings) {
+            this.strings = strings;
+            this.bytes = new byte[strings.length][];
+        }
+    }
+}
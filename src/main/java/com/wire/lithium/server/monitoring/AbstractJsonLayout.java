@@ -7,30 +7,57 @@ import ch.qos.logback.core.LayoutBase;
 import ch.qos.logback.core.filter.Filter;
 import ch.qos.logback.core.spi.DeferredProcessingAware;
 import ch.qos.logback.core.spi.FilterReply;
+import ch.qos.logback.classic.util.LogbackMDCAdapter;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.annotation.Nullable;
 import org.jboss.logging.MDC;
+import org.slf4j.spi.MDCAdapter;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
 /**
- * Layout base that can convert log map to JSON.
+ * Layout base that writes the log as JSON.
+ * <p>
+ * Subclasses write their fields in {@link #writeFields} straight to a per thread {@link JsonGenerator} that is reused
+ * between events, followed by the MDC. The output is the same as of {@link #finalizeLog(Map, String)}: an MDC value
+ * replaces the field of the same name, other MDC values follow the fields. {@link #encode} returns the UTF-8 bytes
+ * without going through a String, see {@link JsonEncoder}. {@link RingBufferAppender} captures the MDC on the thread
+ * that logs and encodes the event later on its writer thread.
+ * <p>
+ * Layouts written before the streaming, which build a map and override {@link #doLayout} only, keep working: when
+ * {@link #writeFields} is not overridden the encode methods use the String of {@link #doLayout}.
  */
 abstract public class AbstractJsonLayout<T extends DeferredProcessingAware> extends LayoutBase<T> {
     protected static final DateTimeFormatter dateTimeFormatter =
             DateTimeFormatter.ISO_DATE_TIME.withZone(ZoneOffset.UTC);
 
     private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final JsonFactory jsonFactory = objectMapper.getFactory();
+    private static final byte[] LINE_SEPARATOR = CoreConstants.LINE_SEPARATOR.getBytes(StandardCharsets.UTF_8);
+    private static final int MAX_FIELDS = 32;
 
     private final List<Filter<T>> filters;
+    private final ThreadLocal<Output> outputs = new ThreadLocal<>();
+    private final boolean streaming;
 
     protected AbstractJsonLayout(List<Filter<T>> filters) {
         this.filters = filters;
+        this.streaming = overridesWriteFields(getClass());
     }
 
     protected boolean shouldIgnoreEvent(T event) {
@@ -42,6 +69,152 @@ abstract public class AbstractJsonLayout<T extends DeferredProcessingAware> exte
         return false;
     }
 
+    /**
+     * Writes the fields of the event, see {@link Fields}. Layouts that override {@link #doLayout} instead need not
+     * override it
+     *
+     * @throws UnsupportedOperationException if neither this nor {@link #doLayout} is overridden
+     */
+    protected void writeFields(T event, Fields fields) throws IOException {
+        throw new UnsupportedOperationException(getClass().getName() + " must override writeFields or doLayout");
+    }
+
+    @Override
+    public String doLayout(T event) {
+        if (shouldIgnoreEvent(event)) {
+            return null;
+        }
+
+        final Output output = output();
+        try {
+            output.chars.reset();
+            write(event, mdc(), output.charFields);
+            output.chars.write(CoreConstants.LINE_SEPARATOR);
+            return output.chars.toString();
+        } catch (IOException e) {
+            outputs.remove();
+            return failed(e, null);
+        }
+    }
+
+    /**
+     * @return UTF-8 bytes of the JSON line or null if the event is ignored
+     */
+    @Nullable
+    public byte[] encode(T event) {
+        if (!streaming) {
+            final String ret = doLayout(event);
+            return ret != null ? ret.getBytes(StandardCharsets.UTF_8) : null;
+        }
+        if (shouldIgnoreEvent(event)) {
+            return null;
+        }
+
+        final Output output = output();
+        try {
+            output.bytes.reset();
+            write(event, mdc(), output.byteFields);
+            output.bytes.write(LINE_SEPARATOR);
+            return output.bytes.toByteArray();
+        } catch (IOException e) {
+            outputs.remove();
+            return failed(e, null).getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Writes the UTF-8 JSON line of the event to the stream
+     *
+     * @param mdc MDC of the thread that logged the event, see {@link #mdc()}
+     * @return false if the event is ignored
+     */
+    boolean encode(T event, Map<String, ?> mdc, OutputStream out) throws IOException {
+        if (!streaming)
+            return encodeLayout(event, mdc, out);
+        if (shouldIgnoreEvent(event)) {
+            return false;
+        }
+
+        final Output output = output();
+        try {
+            output.bytes.reset();
+            write(event, mdc, output.byteFields);
+            output.bytes.write(LINE_SEPARATOR);
+        } catch (IOException e) {
+            outputs.remove();
+            out.write(failed(e, null).getBytes(StandardCharsets.UTF_8));
+            return true;
+        }
+        output.bytes.writeTo(out);
+        return true;
+    }
+
+    /**
+     * {@link #doLayout} of a layout that does not stream, with the MDC of the thread that logged set on this one
+     */
+    private boolean encodeLayout(T event, Map<String, ?> mdc, OutputStream out) throws IOException {
+        final Map<String, String> previous = org.slf4j.MDC.getCopyOfContextMap();
+        final String ret;
+        try {
+            org.slf4j.MDC.clear();
+            mdc.forEach((key, value) -> org.slf4j.MDC.put(key, value != null ? value.toString() : null));
+            ret = doLayout(event);
+        } finally {
+            if (previous != null)
+                org.slf4j.MDC.setContextMap(previous);
+            else
+                org.slf4j.MDC.clear();
+        }
+        if (ret == null)
+            return false;
+
+        out.write(ret.getBytes(StandardCharsets.UTF_8));
+        return true;
+    }
+
+    private static boolean overridesWriteFields(Class<?> type) {
+        for (Class<?> c = type; c != null && c != AbstractJsonLayout.class; c = c.getSuperclass()) {
+            for (Method method : c.getDeclaredMethods()) {
+                if (method.getName().equals("writeFields"))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private void write(T event, Map<String, ?> mdc, Fields fields) throws IOException {
+        fields.start(mdc);
+        writeFields(event, fields);
+        fields.end();
+    }
+
+    private Output output() {
+        Output output = outputs.get();
+        if (output == null) {
+            try {
+                output = new Output();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            outputs.set(output);
+        }
+        return output;
+    }
+
+    /**
+     * MDC of the current thread, read without copying it when the MDC is Logback's.
+     * Iterates in the same order as {@link MDC#getMap()}. The returned map is not changed afterwards, so it can be
+     * read on another thread.
+     */
+    static Map<String, ?> mdc() {
+        final MDCAdapter adapter = org.slf4j.MDC.getMDCAdapter();
+        if (adapter instanceof LogbackMDCAdapter) {
+            final Map<String, String> ret = ((LogbackMDCAdapter) adapter).getPropertyMap();
+            return ret != null ? ret : Collections.emptyMap();
+        }
+        return MDC.getMap();
+    }
+
     protected String formatTimeStamp(final long timestamp) {
         return dateTimeFormatter.format(Instant.ofEpochMilli(timestamp));
     }
@@ -75,15 +248,218 @@ abstract public class AbstractJsonLayout<T extends DeferredProcessingAware> exte
             final String json = objectMapper.writeValueAsString(jsonMap);
             return json + CoreConstants.LINE_SEPARATOR;
         } catch (JsonProcessingException e) {
-            final String message = logMessage != null ? logMessage : "http request";
-            // as we are serializing just maps then this should not happen...
-            e.printStackTrace();
-            return String.format(
-                    "It was not possible to log %s! Exception message %s, Exception %s %s",
-                    message,
-                    e.getMessage(),
-                    e,
-                    CoreConstants.LINE_SEPARATOR);
+            return failed(e, logMessage);
+        }
+    }
+
+    private static String failed(IOException e, @Nullable String logMessage) {
+        final String message = logMessage != null ? logMessage : "http request";
+        // as we are serializing just strings and numbers then this should not happen...
+        e.printStackTrace();
+        return String.format(
+                "It was not possible to log %s! Exception message %s, Exception %s %s",
+                message,
+                e.getMessage(),
+                e,
+                CoreConstants.LINE_SEPARATOR);
+    }
+
+    /**
+     * Writes the fields of one event. Each field method returns false if the MDC has a value of that name: the MDC
+     * value was written instead and the caller must not write one.
+     */
+    protected static final class Fields {
+        private final JsonGenerator generator;
+        private final String[] written = new String[MAX_FIELDS];
+        private int count;
+        private Map<String, ?> mdc;
+
+        Fields(JsonGenerator generator) {
+            this.generator = generator;
+        }
+
+        /**
+         * @return Generator to write the value of the field just started
+         */
+        public JsonGenerator generator() {
+            return generator;
+        }
+
+        /**
+         * Writes the name of the field
+         *
+         * @return true if the caller must write the value
+         */
+        public boolean field(String name) throws IOException {
+            if (count < MAX_FIELDS)
+                written[count++] = name;
+            generator.writeFieldName(name);
+            if (!mdc.containsKey(name))
+                return true;
+
+            value(mdc.get(name));
+            return false;
+        }
+
+        public void string(String name, @Nullable String value) throws IOException {
+            if (field(name))
+                generator.writeString(value);
+        }
+
+        public void number(String name, long value) throws IOException {
+            if (field(name))
+                generator.writeNumber(value);
+        }
+
+        public void number(String name, int value) throws IOException {
+            if (field(name))
+                generator.writeNumber(value);
+        }
+
+        /**
+         * @param value String, number, map or any other value Jackson can serialize
+         */
+        public void object(String name, @Nullable Object value) throws IOException {
+            if (field(name))
+                value(value);
+        }
+
+        void start(Map<String, ?> mdc) throws IOException {
+            this.mdc = mdc;
+            this.count = 0;
+            generator.writeStartObject();
+        }
+
+        void end() throws IOException {
+            for (Map.Entry<String, ?> entry : mdc.entrySet()) {
+                if (!isWritten(entry.getKey())) {
+                    generator.writeFieldName(entry.getKey());
+                    value(entry.getValue());
+                }
+            }
+            generator.writeEndObject();
+            generator.flush();
+            mdc = null;
+        }
+
+        private boolean isWritten(String name) {
+            for (int i = 0; i < count; i++) {
+                if (written[i].equals(name))
+                    return true;
+            }
+            return false;
+        }
+
+        private void value(@Nullable Object value) throws IOException {
+            if (value == null)
+                generator.writeNull();
+            else if (value instanceof String)
+                generator.writeString((String) value);
+            else
+                generator.writeObject(value);
+        }
+    }
+
+    /**
+     * Per thread buffers and generators, reused between the events
+     */
+    private static final class Output {
+        final Chars chars = new Chars();
+        final Bytes bytes = new Bytes();
+        final Fields charFields;
+        final Fields byteFields;
+
+        Output() throws IOException {
+            charFields = new Fields(generator(jsonFactory.createGenerator(chars)));
+            byteFields = new Fields(generator(jsonFactory.createGenerator(bytes, JsonEncoding.UTF8)));
+        }
+
+        private static JsonGenerator generator(JsonGenerator generator) {
+            generator.setRootValueSeparator(null);
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            return generator;
+        }
+    }
+
+    private static final class Chars extends Writer {
+        private char[] buf = new char[1024];
+        private int count;
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            ensure(len);
+            System.arraycopy(cbuf, off, buf, count, len);
+            count += len;
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            ensure(len);
+            str.getChars(off, off + len, buf, count);
+            count += len;
+        }
+
+        @Override
+        public void write(int c) {
+            ensure(1);
+            buf[count++] = (char) c;
+        }
+
+        private void ensure(int len) {
+            if (count + len > buf.length)
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + len));
+        }
+
+        void reset() {
+            count = 0;
+        }
+
+        @Override
+        public String toString() {
+            return new String(buf, 0, count);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static final class Bytes extends OutputStream {
+        private byte[] buf = new byte[1024];
+        private int count;
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensure(len);
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+        }
+
+        @Override
+        public void write(int b) {
+            ensure(1);
+            buf[count++] = (byte) b;
+        }
+
+        private void ensure(int len) {
+            if (count + len > buf.length)
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + len));
+        }
+
+        void reset() {
+            count = 0;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, count);
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            out.write(buf, 0, count);
         }
     }
 }
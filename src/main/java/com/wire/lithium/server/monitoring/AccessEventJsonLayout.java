@@ -5,9 +5,8 @@ import ch.qos.logback.classic.Level;
 import ch.qos.logback.core.filter.Filter;
 import jakarta.servlet.http.HttpServletResponse;
 
-import java.util.LinkedHashMap;
+import java.io.IOException;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Layout used on Wire production services in the ELK stack - for access events - HTTP log.
@@ -20,32 +19,26 @@ public class AccessEventJsonLayout extends AbstractJsonLayout<IAccessEvent> {
     }
 
     @Override
-    public String doLayout(IAccessEvent event) {
-        if (shouldIgnoreEvent(event)) {
-            return null;
-        }
-        final Map<String, Object> jsonMap = new LinkedHashMap<>(10);
-
-        jsonMap.put("@timestamp", formatTime(event));
-        jsonMap.put("type", "http");
-        jsonMap.put("logger", "com.wire.HttpRequest");
+    protected void writeFields(IAccessEvent event, Fields fields) throws IOException {
+        fields.string("@timestamp", formatTime(event));
+        fields.string("type", "http");
+        fields.string("logger", "com.wire.HttpRequest");
 
-        jsonMap.put("level", Level.INFO.levelStr);
-        jsonMap.put("requestURI", event.getRequestURI());
+        fields.string("level", Level.INFO.levelStr);
+        fields.string("requestURI", event.getRequestURI());
         // put there query only if it is not empty
         final String query = event.getQueryString();
         if (query != null && !query.trim().isEmpty()) {
-            jsonMap.put("query", query);
+            fields.string("query", query);
         }
-        jsonMap.put("remoteHost", event.getRemoteHost());
-        jsonMap.put("remoteAddr", event.getRemoteAddr());
-        jsonMap.put("method", event.getMethod());
-        jsonMap.put("elapsedMls", event.getElapsedTime());
+        fields.string("remoteHost", event.getRemoteHost());
+        fields.string("remoteAddr", event.getRemoteAddr());
+        fields.string("method", event.getMethod());
+        fields.number("elapsedMls", event.getElapsedTime());
         // we check for null, even though there shouldn't be null, better be safe then sorry
         final HttpServletResponse response = event.getResponse();
         if (response != null) {
-            jsonMap.put("responseStatus", response.getStatus());
+            fields.number("responseStatus", response.getStatus());
         }
-        return finalizeLog(jsonMap);
     }
 }
@@ -0,0 +1,216 @@
+package com.wire.lithium.server.monitoring;
+
+import ch.qos.logback.access.spi.IAccessEvent;
+import ch.qos.logback.core.filter.Filter;
+import ch.qos.logback.core.spi.FilterReply;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.UniformReservoir;
+import jakarta.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Access log filter that keeps errors and slow requests, but only a sample of the fast successful ones.
+ * <p>
+ * Every request, logged or not, is counted for its endpoint: the method and the path with ids replaced by
+ * {@code {id}}. Once per interval one summary per endpoint is logged with the number of requests, the histogram of
+ * the statuses and the latency percentiles in ms, as key values of the event (fields in the JSON log).
+ * <p>
+ * Paths come from the requests, so the endpoints of an interval are capped: once maxEndpoints are counted, requests
+ * to any new endpoint are counted as {@value #OTHER}. Percentiles are estimated from a sample of
+ * {@value #RESERVOIR_SIZE} latencies per endpoint.
+ */
+public class AccessLogSampler extends Filter<IAccessEvent> {
+    public static final int MAX_ENDPOINTS = 100;
+    static final String OTHER = "other";
+    static final int RESERVOIR_SIZE = 256;
+
+    private static final Logger logger = LoggerFactory.getLogger(AccessLogSampler.class);
+
+    private final double rate;
+    private final long slowMillis;
+    private final int errorStatus;
+    private final long intervalMillis;
+    private final int maxEndpoints;
+    private final AtomicReference<Map<String, Window>> windows = new AtomicReference<>(new ConcurrentHashMap<>());
+    private volatile long windowStart = System.currentTimeMillis();
+    @Nullable
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param rate           Share of the fast successful requests that are logged, 0 - 1
+     * @param slowMillis     Requests taking at least that long are logged
+     * @param errorStatus    Responses with this status or above are logged
+     * @param intervalMillis Interval of the summaries, 0 disables them
+     */
+    public AccessLogSampler(double rate, long slowMillis, int errorStatus, long intervalMillis) {
+        this(rate, slowMillis, errorStatus, intervalMillis, MAX_ENDPOINTS);
+    }
+
+    /**
+     * @param rate           Share of the fast successful requests that are logged, 0 - 1
+     * @param slowMillis     Requests taking at least that long are logged
+     * @param errorStatus    Responses with this status or above are logged
+     * @param intervalMillis Interval of the summaries, 0 disables them
+     * @param maxEndpoints   Endpoints summarized per interval, further ones are counted as {@value #OTHER}
+     */
+    public AccessLogSampler(double rate, long slowMillis, int errorStatus, long intervalMillis, int maxEndpoints) {
+        this.rate = rate;
+        this.slowMillis = slowMillis;
+        this.errorStatus = errorStatus;
+        this.intervalMillis = intervalMillis;
+        this.maxEndpoints = maxEndpoints;
+    }
+
+    @Override
+    public FilterReply decide(IAccessEvent event) {
+        if (!isStarted())
+            return FilterReply.NEUTRAL;
+
+        final int status = event.getStatusCode();
+        final long elapsed = event.getElapsedTime();
+        final boolean log = status <= 0
+                || status >= errorStatus
+                || elapsed >= slowMillis
+                || rate >= 1
+                || (rate > 0 && ThreadLocalRandom.current().nextDouble() < rate);
+
+        if (intervalMillis > 0)
+            record(endpoint(event.getMethod(), event.getRequestURI()), status, elapsed, log);
+
+        return log ? FilterReply.NEUTRAL : FilterReply.DENY;
+    }
+
+    @Override
+    public void start() {
+        if (intervalMillis > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "access-summary");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleAtFixedRate(this::report, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+        super.start();
+    }
+
+    /**
+     * Logs the last summary
+     */
+    @Override
+    public void stop() {
+        super.stop();
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+            report();
+        }
+    }
+
+    /**
+     * Logs the summaries of the current window and starts the next one
+     */
+    public void report() {
+        final long now = System.currentTimeMillis();
+        final long seconds = TimeUnit.MILLISECONDS.toSeconds(now - windowStart);
+        final Map<String, Window> window = windows.getAndSet(new ConcurrentHashMap<>());
+        windowStart = now;
+
+        for (Map.Entry<String, Window> entry : window.entrySet()) {
+            final Window w = entry.getValue();
+            final long count = w.count.sum();
+            final Map<String, Long> statuses = new TreeMap<>();
+            w.statuses.forEach((status, n) -> statuses.put(Integer.toString(status), n.sum()));
+            final Snapshot latency = w.latencies.getSnapshot();
+
+            logger.atInfo()
+                    .addKeyValue("endpoint", entry.getKey())
+                    .addKeyValue("requests", count)
+                    .addKeyValue("logged", w.logged.sum())
+                    .addKeyValue("statuses", statuses)
+                    .addKeyValue("latencyP50", (long) latency.getMedian())
+                    .addKeyValue("latencyP95", (long) latency.get95thPercentile())
+                    .addKeyValue("latencyP99", (long) latency.get99thPercentile())
+                    .addKeyValue("latencyMax", latency.getMax())
+                    .addKeyValue("intervalSec", seconds)
+                    .log("{}: {} requests in {}s, statuses: {}", entry.getKey(), count, seconds, statuses);
+        }
+    }
+
+    private void record(String endpoint, int status, long elapsed, boolean logged) {
+        final Map<String, Window> current = windows.get();
+        Window window = current.get(endpoint);
+        if (window == null) {
+            // concurrent requests may overshoot the cap by a few endpoints
+            final String key = current.size() < maxEndpoints ? endpoint : OTHER;
+            window = current.computeIfAbsent(key, k -> new Window());
+        }
+        window.count.increment();
+        if (logged)
+            window.logged.increment();
+        window.statuses.computeIfAbsent(status, k -> new LongAdder()).increment();
+        window.latencies.update(elapsed);
+    }
+
+    /**
+     * @return Method and path, path segments that are UUIDs or numbers replaced by {id}
+     */
+    public static String endpoint(@Nullable String method, @Nullable String uri) {
+        final StringBuilder ret = new StringBuilder(64).append(method).append(' ');
+        if (uri == null)
+            return ret.append('-').toString();
+
+        int start = 0;
+        while (start < uri.length()) {
+            int end = uri.indexOf('/', start);
+            if (end < 0)
+                end = uri.length();
+            if (end > start)
+                ret.append(isId(uri, start, end) ? "{id}" : uri.substring(start, end));
+            if (end < uri.length())
+                ret.append('/');
+            start = end + 1;
+        }
+        return ret.toString();
+    }
+
+    private static boolean isId(String uri, int start, int end) {
+        boolean digits = true;
+        for (int i = start; i < end && digits; i++) {
+            digits = Character.isDigit(uri.charAt(i));
+        }
+        if (digits)
+            return true;
+
+        if (end - start != 36)
+            return false;
+        for (int i = start; i < end; i++) {
+            final char c = uri.charAt(i);
+            final int pos = i - start;
+            final boolean dash = pos == 8 || pos == 13 || pos == 18 || pos == 23;
+            if (dash ? c != '-' : Character.digit(c, 16) < 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Requests of one endpoint within the interval
+     */
+    private static final class Window {
+        final LongAdder count = new LongAdder();
+        final LongAdder logged = new LongAdder();
+        final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+        final UniformReservoir latencies = new UniformReservoir(RESERVOIR_SIZE);
+    }
+}
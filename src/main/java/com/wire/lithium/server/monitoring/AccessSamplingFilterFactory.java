@@ -0,0 +1,46 @@
+package com.wire.lithium.server.monitoring;
+
+import ch.qos.logback.access.spi.IAccessEvent;
+import ch.qos.logback.core.filter.Filter;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+import io.dropwizard.logging.common.filter.FilterFactory;
+import io.dropwizard.util.Duration;
+import jakarta.validation.constraints.DecimalMax;
+import jakarta.validation.constraints.DecimalMin;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+
+/**
+ * Request log filter, see {@link AccessLogSampler}
+ */
+@JsonTypeName("access-sampling")
+public class AccessSamplingFilterFactory implements FilterFactory<IAccessEvent> {
+    @DecimalMin("0")
+    @DecimalMax("1")
+    @JsonProperty
+    public double rate = 0.01;   // Share of the fast successful requests that are logged
+
+    @NotNull
+    @JsonProperty
+    public Duration slowThreshold = Duration.milliseconds(500);   // Slower requests are always logged
+
+    @JsonProperty
+    public int errorStatus = 400;   // Responses with this status or above are always logged
+
+    @NotNull
+    @JsonProperty
+    public Duration summaryInterval = Duration.minutes(1);   // Per endpoint summaries, 0 disables them
+
+    @Min(1)
+    @JsonProperty
+    public int maxEndpoints = AccessLogSampler.MAX_ENDPOINTS;   // Further endpoints are summarized as "other"
+
+    @Override
+    public Filter<IAccessEvent> build() {
+        final AccessLogSampler ret = new AccessLogSampler(rate, slowThreshold.toMilliseconds(), errorStatus,
+                summaryInterval.toMilliseconds(), maxEndpoints);
+        ret.start();
+        return ret;
+    }
+}
@@ -0,0 +1,28 @@
+package com.wire.lithium.server.monitoring;
+
+import ch.qos.logback.access.spi.IAccessEvent;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+
+import java.io.OutputStream;
+import java.util.Collections;
+
+/**
+ * Request log as JSON, written by a background thread
+ */
+@JsonTypeName("json-access-async")
+public class JsonAccessAsyncAppenderFactory extends RingBufferAppenderFactory<IAccessEvent> {
+    @Override
+    protected RingBufferAppender<IAccessEvent> createAppender(AbstractJsonLayout<IAccessEvent> layout, OutputStream out) {
+        return RingBufferAppender.forAccess(layout, out);
+    }
+
+    @Override
+    protected AbstractJsonLayout<IAccessEvent> defaultLayout() {
+        return new AccessEventJsonLayout(Collections.emptyList());
+    }
+
+    @Override
+    protected String name() {
+        return "json-access-async";
+    }
+}
@@ -0,0 +1,28 @@
+package com.wire.lithium.server.monitoring;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+
+import java.io.OutputStream;
+import java.util.Collections;
+
+/**
+ * Application log as JSON, written by a background thread
+ */
+@JsonTypeName("json-async")
+public class JsonAsyncAppenderFactory extends RingBufferAppenderFactory<ILoggingEvent> {
+    @Override
+    protected RingBufferAppender<ILoggingEvent> createAppender(AbstractJsonLayout<ILoggingEvent> layout, OutputStream out) {
+        return RingBufferAppender.forLogs(layout, out);
+    }
+
+    @Override
+    protected AbstractJsonLayout<ILoggingEvent> defaultLayout() {
+        return new LoggingEventJsonLayout(Collections.emptyList());
+    }
+
+    @Override
+    protected String name() {
+        return "json-async";
+    }
+}
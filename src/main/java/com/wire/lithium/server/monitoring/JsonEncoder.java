@@ -0,0 +1,46 @@
+package com.wire.lithium.server.monitoring;
+
+import ch.qos.logback.core.encoder.EncoderBase;
+import ch.qos.logback.core.spi.DeferredProcessingAware;
+
+/**
+ * Encoder that writes the JSON of the layout as UTF-8 bytes, without the String a
+ * {@link ch.qos.logback.core.encoder.LayoutWrappingEncoder} goes through
+ */
+public class JsonEncoder<T extends DeferredProcessingAware> extends EncoderBase<T> {
+    private static final byte[] EMPTY = new byte[0];
+
+    private final AbstractJsonLayout<T> layout;
+
+    public JsonEncoder(AbstractJsonLayout<T> layout) {
+        this.layout = layout;
+    }
+
+    @Override
+    public byte[] headerBytes() {
+        return null;
+    }
+
+    @Override
+    public byte[] encode(T event) {
+        final byte[] ret = layout.encode(event);
+        return ret != null ? ret : EMPTY;
+    }
+
+    @Override
+    public byte[] footerBytes() {
+        return null;
+    }
+
+    @Override
+    public void start() {
+        layout.start();
+        super.start();
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        layout.stop();
+    }
+}
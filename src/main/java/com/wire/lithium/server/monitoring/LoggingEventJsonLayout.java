@@ -4,10 +4,11 @@ import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.classic.spi.IThrowableProxy;
 import ch.qos.logback.classic.spi.ThrowableProxyUtil;
 import ch.qos.logback.core.filter.Filter;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.slf4j.event.KeyValuePair;
 
-import java.util.LinkedHashMap;
+import java.io.IOException;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Layout used on Wire production services in the ELK stack.
@@ -19,33 +20,33 @@ public class LoggingEventJsonLayout extends AbstractJsonLayout<ILoggingEvent> {
     }
 
     @Override
-    public String doLayout(ILoggingEvent event) {
-        if (shouldIgnoreEvent(event)) {
-            return null;
+    protected void writeFields(ILoggingEvent event, Fields fields) throws IOException {
+        fields.string("@timestamp", formatTime(event));
+        fields.string("type", "log");
+        fields.string("message", event.getFormattedMessage());
+
+        fields.string("logger", event.getLoggerName());
+        fields.string("level", event.getLevel().levelStr);
+        fields.string("threadName", event.getThreadName());
+
+        // structured arguments of the fluent API: logger.atInfo().addKeyValue(...)
+        final List<KeyValuePair> pairs = event.getKeyValuePairs();
+        if (pairs != null) {
+            for (KeyValuePair pair : pairs) {
+                fields.object(pair.key, pair.value);
+            }
         }
 
-        final Map<String, Object> jsonMap = new LinkedHashMap<>(6);
-
-        jsonMap.put("@timestamp", formatTime(event));
-        jsonMap.put("type", "log");
-        jsonMap.put("message", event.getFormattedMessage());
-
-        jsonMap.put("logger", event.getLoggerName());
-        jsonMap.put("level", event.getLevel().levelStr);
-        jsonMap.put("threadName", event.getThreadName());
-
-        if (event.getThrowableProxy() != null) {
-            jsonMap.put("exception", exception(event.getThrowableProxy()));
+        if (event.getThrowableProxy() != null && fields.field("exception")) {
+            exception(fields.generator(), event.getThrowableProxy());
         }
-
-        return finalizeLog(jsonMap, event.getFormattedMessage());
     }
 
-    private Map<String, String> exception(IThrowableProxy proxy) {
-        final Map<String, String> jsonMap = new LinkedHashMap<>(3);
-        jsonMap.put("stacktrace", ThrowableProxyUtil.asString(proxy));
-        jsonMap.put("message", proxy.getMessage());
-        jsonMap.put("class", proxy.getClassName());
-        return jsonMap;
+    private void exception(JsonGenerator generator, IThrowableProxy proxy) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("stacktrace", ThrowableProxyUtil.asString(proxy));
+        generator.writeStringField("message", proxy.getMessage());
+        generator.writeStringField("class", proxy.getClassName());
+        generator.writeEndObject();
     }
 }
@@ -0,0 +1,67 @@
+package com.wire.lithium.server.monitoring;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SlidingTimeWindowArrayReservoir;
+import com.codahale.metrics.Timer;
+import com.wire.lithium.server.resources.MessageResource;
+import jakarta.annotation.Nullable;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per stage timers of the inbound messages, named {@code MessageResource.<stage>.<type>.<status>}, e.g.
+ * {@code com.wire.lithium.server.resources.MessageResource.decrypt.conversation.otr-message-add.200}.
+ * Stage {@code total} covers the whole processing of the message. Percentiles are computed over the last minute,
+ * so that a slow tail shows up while it happens.
+ * <p>
+ * The type comes from the request, so only the event types the Backend sends get timers of their own. Any other type
+ * is reported as {@code other}, a missing one as {@code unknown}.
+ */
+public class MessageMetrics {
+    /**
+     * Event types handled by {@link com.wire.xenon.MessageResourceBase}
+     */
+    static final Set<String> TYPES = Set.of(
+            "conversation.otr-message-add",
+            "conversation.member-join",
+            "conversation.member-leave",
+            "conversation.create",
+            "conversation.delete",
+            "conversation.rename",
+            "user.connection");
+
+    private static final String TOTAL = "total";
+    private final MetricRegistry metrics;
+    private final String prefix = MetricRegistry.name(MessageResource.class);
+
+    public MessageMetrics(MetricRegistry metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param type    Payload type
+     * @param status  Response status: 200, 400, 410 or 503
+     * @param stages  Times of the stages the message went through, null if it did not get that far
+     * @param elapsed Total time in nanos
+     */
+    public void report(@Nullable String type, int status, @Nullable StageTimes stages, long elapsed) {
+        final String t = type == null ? "unknown" : TYPES.contains(type) ? type : "other";
+        final String outcome = Integer.toString(status);
+
+        timer(TOTAL, t, outcome).update(elapsed, TimeUnit.NANOSECONDS);
+        if (stages == null)
+            return;
+
+        for (StageTimes.Stage stage : StageTimes.Stage.values()) {
+            final long nanos = stages.get(stage);
+            if (nanos >= 0)
+                timer(stage.key, t, outcome).update(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private Timer timer(String stage, String type, String outcome) {
+        return metrics.timer(MetricRegistry.name(prefix, stage, type, outcome),
+                () -> new Timer(new SlidingTimeWindowArrayReservoir(1, TimeUnit.MINUTES)));
+    }
+}
@@ -0,0 +1,205 @@
+package com.wire.lithium.server.monitoring;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders the metric registry in the Prometheus text exposition format (0.0.4):
+ * <ul>
+ * <li>gauges and counters - gauge</li>
+ * <li>meters - counter {@code <name>_total}</li>
+ * <li>histograms - gauge with a {@code quantile} label, counter {@code <name>_count}</li>
+ * <li>timers - gauge in seconds with a {@code quantile} label, counter {@code <name>_count}</li>
+ * </ul>
+ * Histograms and timers are not summaries: Dropwizard keeps no exact sum of the values and a summary without
+ * {@code _sum} breaks the rate of the average.
+ * <p>
+ * Dots and other characters Prometheus does not allow in names are replaced with '_'. A name that is already taken,
+ * e.g. by {@code a_b} for {@code a.b}, gets the suffix {@code _2}, {@code _3}, ... A metric keeps the name it got
+ * from one scrape to the next. Names are converted once and the text is built in a buffer that is reused between
+ * scrapes, so a scrape allocates little more than the snapshots of the histograms and timers. Scrapes are serialized.
+ */
+public class PrometheusServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final int CHUNK = 32 * 1024;
+    private static final double[] QUANTILES = {0.5, 0.75, 0.95, 0.98, 0.99, 0.999};
+    private static final String[] QUANTILE_LABELS = {"0.5", "0.75", "0.95", "0.98", "0.99", "0.999"};
+    private static final double SECONDS = TimeUnit.SECONDS.toNanos(1);
+    // suffixes of the series names of a gauge, a meter and the quantiles
+    private static final String[] PLAIN = {""};
+    private static final String[] TOTAL = {"_total"};
+    private static final String[] COUNT = {"", "_count"};
+
+    private final transient MetricRegistry registry;
+    private final transient Map<String, String> names = new HashMap<>();   // guarded by this
+    private final transient Set<String> taken = new HashSet<>();           // guarded by this
+    private final StringBuilder buffer = new StringBuilder(2 * CHUNK);   // guarded by this
+    private final char[] chars = new char[2 * CHUNK];                   // guarded by this
+
+    public PrometheusServlet(MetricRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        resp.setStatus(HttpServletResponse.SC_OK);
+        resp.setContentType(CONTENT_TYPE);
+        resp.setHeader("Cache-Control", "must-revalidate,no-cache,no-store");
+        render(resp.getWriter());
+    }
+
+    /**
+     * Writes all metrics of the registry
+     */
+    public synchronized void render(Writer writer) throws IOException {
+        final Map<String, Metric> metrics = registry.getMetrics();
+        if (names.size() > 2 * metrics.size() + 100) {
+            // drop the names of removed metrics
+            names.clear();
+            taken.clear();
+        }
+
+        buffer.setLength(0);
+        for (Map.Entry<String, Metric> entry : metrics.entrySet()) {
+            final Metric metric = entry.getValue();
+            if (metric instanceof Gauge) {
+                final Object value = ((Gauge<?>) metric).getValue();
+                if (value instanceof Number || value instanceof Boolean)
+                    gauge(name(entry.getKey(), PLAIN), value);
+            } else if (metric instanceof Counter)
+                gauge(name(entry.getKey(), PLAIN), ((Counter) metric).getCount());
+            else if (metric instanceof Timer)
+                quantiles(name(entry.getKey(), COUNT), ((Timer) metric).getSnapshot(),
+                        ((Timer) metric).getCount(), SECONDS);
+            else if (metric instanceof Histogram)
+                quantiles(name(entry.getKey(), COUNT), ((Histogram) metric).getSnapshot(),
+                        ((Histogram) metric).getCount(), 1);
+            else if (metric instanceof Meter)
+                meter(name(entry.getKey(), TOTAL), (Meter) metric);
+
+            if (buffer.length() > CHUNK)
+                drain(writer);
+        }
+        drain(writer);
+        writer.flush();
+    }
+
+    /**
+     * The name the metric got at its first scrape: the first of {@code name}, {@code name_2}, ... whose series names
+     * are all free
+     *
+     * @param key      Name in the registry
+     * @param suffixes Suffixes of the series names the metric renders
+     * @return Name to render the metric with
+     */
+    private String name(String key, String[] suffixes) {
+        final String known = names.get(key);
+        if (known != null)
+            return known;
+
+        final String name = sanitize(key);
+        String ret = name;
+        for (int i = 2; !free(ret, suffixes); i++) {
+            ret = name + '_' + i;
+        }
+        names.put(key, ret);
+        for (String suffix : suffixes) {
+            taken.add(ret + suffix);
+        }
+        return ret;
+    }
+
+    private boolean free(String name, String[] suffixes) {
+        for (String suffix : suffixes) {
+            if (taken.contains(name + suffix))
+                return false;
+        }
+        return true;
+    }
+
+    private void gauge(String name, Object value) {
+        final double v = value instanceof Boolean
+                ? ((Boolean) value ? 1 : 0)
+                : ((Number) value).doubleValue();
+
+        type(name, "", "gauge");
+        buffer.append(name).append(' ');
+        value(v);
+        buffer.append('\n');
+    }
+
+    private void meter(String name, Meter meter) {
+        type(name, "_total", "counter");
+        buffer.append(name).append("_total ").append(meter.getCount()).append('\n');
+    }
+
+    private void quantiles(String name, Snapshot snapshot, long count, double unit) {
+        type(name, "", "gauge");
+        for (int i = 0; i < QUANTILES.length; i++) {
+            buffer.append(name).append("{quantile=\"").append(QUANTILE_LABELS[i]).append("\"} ");
+            value(snapshot.getValue(QUANTILES[i]) / unit);
+            buffer.append('\n');
+        }
+        type(name, "_count", "counter");
+        buffer.append(name).append("_count ").append(count).append('\n');
+    }
+
+    private void type(String name, String suffix, String type) {
+        buffer.append("# TYPE ").append(name).append(suffix).append(' ').append(type).append('\n');
+    }
+
+    private void value(double v) {
+        if (Double.isNaN(v))
+            buffer.append("NaN");
+        else if (Double.isInfinite(v))
+            buffer.append(v > 0 ? "+Inf" : "-Inf");
+        else if (v == Math.rint(v) && Math.abs(v) < 1e15)
+            buffer.append((long) v);
+        else
+            buffer.append(v);
+    }
+
+    private void drain(Writer writer) throws IOException {
+        int offset = 0;
+        while (offset < buffer.length()) {
+            final int end = Math.min(buffer.length(), offset + chars.length);
+            buffer.getChars(offset, end, chars, 0);
+            writer.write(chars, 0, end - offset);
+            offset = end;
+        }
+        buffer.setLength(0);
+    }
+
+    static String sanitize(String name) {
+        final StringBuilder ret = new StringBuilder(name.length() + 1);
+        if (!name.isEmpty() && Character.isDigit(name.charAt(0)))
+            ret.append('_');
+        for (int i = 0; i < name.length(); i++) {
+            final char c = name.charAt(i);
+            final boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '_' || c == ':';
+            ret.append(valid ? c : '_');
+        }
+        return ret.toString();
+    }
+}
@@ -0,0 +1,43 @@
+package com.wire.lithium.server.monitoring;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Time ordered UUIDs (version 7) for request and event ids, without the shared {@link java.security.SecureRandom} of
+ * {@link UUID#randomUUID()}.
+ * <p>
+ * The first 48 bits are the Unix time in ms, followed by a 12 bit counter and 62 random bits of the thread's
+ * {@link ThreadLocalRandom}. Ids of one thread are strictly increasing: the counter orders the ids of the same ms and
+ * when it overflows the time moves on by one ms. The ids are unique, but not unpredictable - don't use them as secrets.
+ */
+public final class RequestIds {
+    private static final int COUNTER_BITS = 12;
+    private static final int MAX_COUNTER = (1 << COUNTER_BITS) - 1;
+    private static final ThreadLocal<long[]> state = ThreadLocal.withInitial(() -> new long[2]);   // last ms, counter
+
+    private RequestIds() {
+    }
+
+    public static UUID next() {
+        final long[] last = state.get();
+        long millis = System.currentTimeMillis();
+        long counter;
+        if (millis > last[0]) {
+            counter = ThreadLocalRandom.current().nextInt(MAX_COUNTER / 2);   // leaves room for the ids of this ms
+        } else {
+            millis = last[0];
+            counter = last[1] + 1;
+            if (counter > MAX_COUNTER) {
+                millis++;
+                counter = 0;
+            }
+        }
+        last[0] = millis;
+        last[1] = counter;
+
+        final long msb = (millis << 16) | 0x7000L | counter;
+        final long lsb = (ThreadLocalRandom.current().nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(msb, lsb);
+    }
+}
@@ -4,21 +4,24 @@ import jakarta.annotation.Nullable;
 import jakarta.ws.rs.container.ContainerRequestContext;
 import jakarta.ws.rs.container.ContainerRequestFilter;
 import jakarta.ws.rs.ext.Provider;
+import org.eclipse.jetty.server.HttpChannel;
+import org.eclipse.jetty.server.Request;
 import org.slf4j.MDC;
 
-import java.util.UUID;
-
 /**
- * Filter that sets MDC.
+ * Filter that sets MDC for the request. The values must still be there when Jetty writes the request log, which
+ * happens after the response, so they are cleared by {@link ClearOnComplete} once the request is logged, and at the
+ * start of the next request in case the thread missed that.
  */
 @Provider
 public class RequestMdcFactoryFilter implements ContainerRequestFilter {
     @Override
     public void filter(ContainerRequestContext requestContext) {
+        MDC.clear();
         // save id generated by the Nginx
         addIfNotNull("forwardedFor", requestContext.getHeaderString("X-Request-Id"));
         // generate unique id for each request in the application
-        addIfNotNull("appRequest", UUID.randomUUID().toString());
+        addIfNotNull("appRequest", RequestIds.next().toString());
         // header from proxy
         addIfNotNull("forwardedFor", requestContext.getHeaderString("X-Forwarded-For"));
         addIfNotNull("realIp", requestContext.getHeaderString("X-Real-IP"));
@@ -29,4 +32,15 @@ public class RequestMdcFactoryFilter implements ContainerRequestFilter {
             MDC.put(key, value);
         }
     }
+
+    /**
+     * Clears the MDC once the request is complete and logged, so that the values do not leak into the next request of
+     * the pooled thread. Added as a bean to the connectors
+     */
+    public static class ClearOnComplete implements HttpChannel.Listener {
+        @Override
+        public void onComplete(Request request) {
+            MDC.clear();
+        }
+    }
 }
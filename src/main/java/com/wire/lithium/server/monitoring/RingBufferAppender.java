@@ -0,0 +1,355 @@
+package com.wire.lithium.server.monitoring;
+
+import ch.qos.logback.access.spi.IAccessEvent;
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.spi.DeferredProcessingAware;
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import jakarta.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Appender that hands the events to a preallocated ring buffer. One writer thread drains the buffer, encodes the
+ * events with the JSON layout and writes them in batches, so the threads that log never format or wait for the stream.
+ * <p>
+ * The MDC and the deferred parts of the event are captured on the logging thread. When the buffer runs full:
+ * <ul>
+ * <li>events at or below {@code discardLevel} (DEBUG) are dropped already once the buffer is 80% full</li>
+ * <li>events at or above {@code blockLevel} (ERROR) wait up to {@code maxBlockTime} for space</li>
+ * <li>all other events are dropped</li>
+ * </ul>
+ * Metrics are registered once {@link #registerMetrics} was called: {@code queued}, {@code dropped}, {@code blocked}
+ * and the {@code batch} size, prefixed with the class and the name of the appender.
+ */
+public class RingBufferAppender<E extends DeferredProcessingAware> extends UnsynchronizedAppenderBase<E> {
+    static final double DISCARD_AT = 0.8;
+
+    private static final Set<RingBufferAppender<?>> appenders = ConcurrentHashMap.newKeySet();
+    @Nullable
+    private static volatile MetricRegistry registry;
+
+    private final AbstractJsonLayout<E> layout;
+    private final Function<E, Level> level;
+    private final OutputStream out;
+
+    private final Meter dropped = new Meter();
+    private final Meter blocked = new Meter();
+    private final Histogram batches = new Histogram(new ExponentiallyDecayingReservoir());
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private Object[] events;        // guarded by lock
+    private Object[] mdcs;          // guarded by lock
+    private long head;              // guarded by lock
+    private long tail;              // guarded by lock
+    private volatile boolean running;
+
+    private int capacity = 8192;
+    private int batchSize = 256;
+    private Level discardLevel = Level.DEBUG;
+    private Level blockLevel = Level.ERROR;
+    private long maxBlockTime = 1000;
+    private long maxFlushTime = 1000;
+
+    private int mask;
+    private int discardSize;
+    @Nullable
+    private Thread writer;
+
+    /**
+     * @param level Level of the event, decides whether it is dropped or waits when the buffer is full
+     */
+    public RingBufferAppender(AbstractJsonLayout<E> layout, Function<E, Level> level, OutputStream out) {
+        this.layout = layout;
+        this.level = level;
+        this.out = out;
+    }
+
+    public static RingBufferAppender<ILoggingEvent> forLogs(AbstractJsonLayout<ILoggingEvent> layout, OutputStream out) {
+        return new RingBufferAppender<>(layout, ILoggingEvent::getLevel, out);
+    }
+
+    /**
+     * Access events are logged at INFO
+     */
+    public static RingBufferAppender<IAccessEvent> forAccess(AbstractJsonLayout<IAccessEvent> layout, OutputStream out) {
+        return new RingBufferAppender<>(layout, event -> Level.INFO, out) {
+            @Override
+            protected void prepare(IAccessEvent event) {
+                super.prepare(event);
+                event.getQueryString();   // not part of the deferred processing, the request is recycled
+            }
+        };
+    }
+
+    /**
+     * Registers the metrics of all running appenders and of those started later
+     */
+    public static void registerMetrics(MetricRegistry metrics) {
+        registry = metrics;
+        for (RingBufferAppender<?> appender : appenders) {
+            appender.register(metrics);
+        }
+    }
+
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @param batchSize Max number of events written to the stream at once
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setDiscardLevel(Level discardLevel) {
+        this.discardLevel = discardLevel;
+    }
+
+    public void setBlockLevel(Level blockLevel) {
+        this.blockLevel = blockLevel;
+    }
+
+    public void setMaxBlockTime(long millis) {
+        this.maxBlockTime = millis;
+    }
+
+    /**
+     * @param millis Max time {@link #stop()} waits for the buffered events to be written
+     */
+    public void setMaxFlushTime(long millis) {
+        this.maxFlushTime = millis;
+    }
+
+    public Meter getDropped() {
+        return dropped;
+    }
+
+    public Meter getBlocked() {
+        return blocked;
+    }
+
+    public Histogram getBatches() {
+        return batches;
+    }
+
+    /**
+     * @return Number of events in the buffer
+     */
+    public int getQueued() {
+        lock.lock();
+        try {
+            return (int) (tail - head);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void start() {
+        if (isStarted())
+            return;
+        if (capacity < 1 || batchSize < 1) {
+            addError(String.format("Invalid capacity %d or batch size %d of appender %s", capacity, batchSize, name));
+            return;
+        }
+        if (name == null)
+            name = "ring-buffer";
+
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        lock.lock();
+        try {
+            events = new Object[size];
+            mdcs = new Object[size];
+            head = tail = 0;
+        } finally {
+            lock.unlock();
+        }
+        mask = size - 1;
+        discardSize = (int) (size * DISCARD_AT);
+
+        if (layout.getContext() == null)
+            layout.setContext(getContext());
+        layout.start();
+
+        running = true;
+        writer = new Thread(this::drain, "log-writer-" + name);
+        writer.setDaemon(true);
+        writer.start();
+        super.start();
+
+        appenders.add(this);
+        final MetricRegistry metrics = registry;
+        if (metrics != null)
+            register(metrics);
+    }
+
+    /**
+     * Writes the buffered events, waits at most {@code maxFlushTime}
+     */
+    @Override
+    public void stop() {
+        if (!isStarted())
+            return;
+        super.stop();
+        appenders.remove(this);
+
+        lock.lock();
+        try {
+            running = false;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            writer.join(maxFlushTime);
+            if (writer.isAlive())
+                addWarn(String.format("Appender %s stopped with %d events not written", name, getQueued()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        layout.stop();
+    }
+
+    @Override
+    protected void append(E event) {
+        prepare(event);
+        if (!offer(event, AbstractJsonLayout.mdc(), level.apply(event)))
+            dropped.mark();
+    }
+
+    /**
+     * Captures what must be read on the logging thread
+     */
+    protected void prepare(E event) {
+        event.prepareForDeferredProcessing();
+    }
+
+    private boolean offer(E event, Map<String, ?> mdc, Level level) {
+        lock.lock();
+        try {
+            final int size = (int) (tail - head);
+            if (size >= discardSize && level.levelInt <= discardLevel.levelInt)
+                return false;
+
+            if (size == events.length) {
+                if (!level.isGreaterOrEqual(blockLevel))
+                    return false;
+
+                blocked.mark();
+                long nanos = TimeUnit.MILLISECONDS.toNanos(maxBlockTime);
+                while (tail - head == events.length) {
+                    if (nanos <= 0 || !running)
+                        return false;
+                    nanos = notFull.awaitNanos(nanos);
+                }
+            }
+
+            final int i = (int) tail & mask;
+            events[i] = event;
+            mdcs[i] = mdc;
+            tail++;
+            if (tail - head == 1)
+                notEmpty.signal();   // the writer waits only when the buffer is empty
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void drain() {
+        final Object[] batch = new Object[batchSize];
+        final Object[] batchMdcs = new Object[batchSize];
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 * 1024);
+
+        while (true) {
+            final int count;
+            lock.lock();
+            try {
+                while (tail == head && running) {
+                    notEmpty.await();
+                }
+                if (tail == head)
+                    return;
+
+                count = (int) Math.min(batchSize, tail - head);
+                for (int k = 0; k < count; k++) {
+                    final int i = (int) (head + k) & mask;
+                    batch[k] = events[i];
+                    batchMdcs[k] = mdcs[i];
+                    events[i] = null;
+                    mdcs[i] = null;
+                }
+                head += count;
+                notFull.signalAll();
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            write(batch, batchMdcs, count, buffer);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void write(Object[] batch, Object[] batchMdcs, int count, ByteArrayOutputStream buffer) {
+        buffer.reset();
+        for (int k = 0; k < count; k++) {
+            try {
+                layout.encode((E) batch[k], (Map<String, ?>) batchMdcs[k], buffer);
+            } catch (IOException | RuntimeException e) {
+                addError("Failed to encode the event", e);
+            }
+            batch[k] = null;
+            batchMdcs[k] = null;
+        }
+        batches.update(count);
+
+        try {
+            buffer.writeTo(out);
+            out.flush();
+        } catch (IOException e) {
+            addError(String.format("Failed to write %d events", count), e);
+        }
+    }
+
+    private void register(MetricRegistry metrics) {
+        register(metrics, "queued", (Gauge<Integer>) this::getQueued);
+        register(metrics, "dropped", dropped);
+        register(metrics, "blocked", blocked);
+        register(metrics, "batch", batches);
+    }
+
+    private void register(MetricRegistry metrics, String metric, Metric value) {
+        final String name = MetricRegistry.name(RingBufferAppender.class, this.name, metric);
+        metrics.remove(name);
+        metrics.register(name, value);
+    }
+}
@@ -0,0 +1,129 @@
+package com.wire.lithium.server.monitoring;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.LayoutBase;
+import ch.qos.logback.core.spi.DeferredProcessingAware;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.logging.common.AppenderFactory;
+import io.dropwizard.logging.common.ConsoleAppenderFactory.ConsoleStream;
+import io.dropwizard.logging.common.async.AsyncAppenderFactory;
+import io.dropwizard.logging.common.filter.FilterFactory;
+import io.dropwizard.logging.common.filter.LevelFilterFactory;
+import io.dropwizard.logging.common.layout.DiscoverableLayoutFactory;
+import io.dropwizard.logging.common.layout.LayoutFactory;
+import jakarta.annotation.Nullable;
+import io.dropwizard.util.Duration;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Console appender writing JSON through a {@link RingBufferAppender}. The events are already handed to the writer
+ * thread, so the appender is not wrapped in Dropwizard's async appender.
+ * <p>
+ * The {@code layout} is built like the one of Dropwizard's appenders, with the {@code timeZone}. It has to be an
+ * {@link AbstractJsonLayout}: the writer thread streams the events through it. Without one the stock JSON layout is
+ * used, the default pattern layout of the logging configuration is not.
+ */
+public abstract class RingBufferAppenderFactory<E extends DeferredProcessingAware> implements AppenderFactory<E> {
+    @NotNull
+    @JsonProperty
+    public ConsoleStream target = ConsoleStream.STDOUT;
+
+    @NotNull
+    @JsonProperty
+    public String threshold = "ALL";
+
+    @Min(1)
+    @Max(1 << 20)
+    @JsonProperty
+    public int capacity = 8192;   // Rounded up to a power of two
+
+    @Min(1)
+    @JsonProperty
+    public int batchSize = 256;
+
+    @NotNull
+    @JsonProperty
+    public String discardLevel = "DEBUG";   // Dropped first, once the buffer is 80% full
+
+    @NotNull
+    @JsonProperty
+    public String blockLevel = "ERROR";   // Waits for space instead of being dropped
+
+    @NotNull
+    @JsonProperty
+    public Duration maxBlockTime = Duration.seconds(1);
+
+    @NotNull
+    @JsonProperty
+    public Duration maxFlushTime = Duration.seconds(1);   // On shutdown
+
+    @NotNull
+    @JsonProperty
+    public List<FilterFactory<E>> filterFactories = new ArrayList<>();
+
+    @Nullable
+    @JsonProperty
+    public DiscoverableLayoutFactory<E> layout;   // Must build an AbstractJsonLayout, the stock JSON layout if not set
+
+    @NotNull
+    @JsonProperty
+    public TimeZone timeZone = TimeZone.getTimeZone("UTC");
+
+    protected abstract RingBufferAppender<E> createAppender(AbstractJsonLayout<E> layout, OutputStream out);
+
+    /**
+     * @return Layout used when none is configured
+     */
+    protected abstract AbstractJsonLayout<E> defaultLayout();
+
+    @Override
+    public Appender<E> build(LoggerContext context, String applicationName, LayoutFactory<E> layoutFactory,
+                             LevelFilterFactory<E> levelFilterFactory, AsyncAppenderFactory<E> asyncAppenderFactory) {
+        final RingBufferAppender<E> appender = createAppender(buildLayout(context),
+                target == ConsoleStream.STDERR ? System.err : System.out);
+        appender.setName(name());
+        appender.setContext(context);
+        appender.setCapacity(capacity);
+        appender.setBatchSize(batchSize);
+        appender.setDiscardLevel(Level.toLevel(discardLevel, Level.DEBUG));
+        appender.setBlockLevel(Level.toLevel(blockLevel, Level.ERROR));
+        appender.setMaxBlockTime(maxBlockTime.toMilliseconds());
+        appender.setMaxFlushTime(maxFlushTime.toMilliseconds());
+
+        appender.addFilter(levelFilterFactory.build(Level.toLevel(threshold, Level.ALL)));
+        for (FilterFactory<E> filter : filterFactories) {
+            appender.addFilter(filter.build());
+        }
+        appender.start();
+        return appender;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the configured layout is not an {@link AbstractJsonLayout}
+     */
+    AbstractJsonLayout<E> buildLayout(LoggerContext context) {
+        if (layout == null)
+            return defaultLayout();
+
+        final LayoutBase<E> ret = layout.build(context, timeZone);
+        if (!(ret instanceof AbstractJsonLayout)) {
+            throw new IllegalArgumentException(String.format("Appender %s: layout %s is not supported, it has to "
+                    + "extend %s", name(), ret.getClass().getName(), AbstractJsonLayout.class.getName()));
+        }
+        return (AbstractJsonLayout<E>) ret;
+    }
+
+    /**
+     * @return Name of the appender, part of the metric names
+     */
+    protected abstract String name();
+}
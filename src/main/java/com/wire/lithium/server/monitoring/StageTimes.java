@@ -0,0 +1,44 @@
+package com.wire.lithium.server.monitoring;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Time spent in each stage of one inbound message. Filled in by {@link com.wire.lithium.ClientRepo},
+ * {@link com.wire.lithium.BotClient} and the message resource, reported by {@link MessageMetrics} once the
+ * outcome is known.
+ */
+public final class StageTimes {
+    public enum Stage {
+        STATE,      // bot's state loaded in ClientRepo.getClient
+        CRYPTO,     // crypto box created or leased
+        DECRYPT,    // decryption of the payload
+        HANDLER,    // handler, without decryption (outbound sends included)
+        SEND,       // outbound messages sent by the handler
+        CLOSE;      // client closed, crypto box released
+
+        final String key = name().toLowerCase();
+    }
+
+    private final AtomicLongArray nanos = new AtomicLongArray(Stage.values().length);
+
+    public StageTimes() {
+        for (int i = 0; i < nanos.length(); i++) {
+            nanos.set(i, -1);
+        }
+    }
+
+    /**
+     * Adds the time to the stage. A stage can be entered several times (e.g. several sends)
+     */
+    public StageTimes add(Stage stage, long elapsed) {
+        nanos.accumulateAndGet(stage.ordinal(), elapsed, (total, x) -> total < 0 ? x : total + x);
+        return this;
+    }
+
+    /**
+     * @return Nanos spent in the stage or -1 if it was not entered
+     */
+    public long get(Stage stage) {
+        return nanos.get(stage.ordinal());
+    }
+}
@@ -19,6 +19,7 @@
 package com.wire.lithium.server.resources;
 
 import com.codahale.metrics.annotation.Metered;
+import com.wire.lithium.crypto.PrekeyPool;
 import com.wire.lithium.models.NewBotResponseModel;
 import com.wire.lithium.server.monitoring.MDCUtils;
 import com.wire.xenon.MessageHandlerBase;
@@ -29,6 +30,7 @@ import com.wire.xenon.factories.CryptoFactory;
 import com.wire.xenon.factories.StorageFactory;
 import com.wire.xenon.tools.Logger;
 import io.swagger.annotations.*;
+import jakarta.annotation.Nullable;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
@@ -52,10 +54,28 @@ public class BotsResource {
     protected final StorageFactory storageF;
     protected final CryptoFactory cryptoF;
 
+    @Nullable
+    protected final PrekeyPool prekeyPool;
+    protected final int prekeys;
+
     public BotsResource(MessageHandlerBase handler, StorageFactory storageF, CryptoFactory cryptoF) {
+        this(handler, storageF, cryptoF, null, 50);
+    }
+
+    /**
+     * @param handler    Message handler
+     * @param storageF   Storage factory
+     * @param cryptoF    Crypto factory
+     * @param prekeyPool When set, new bots get pre-generated keys. Keys are generated within the request when the pool is empty
+     * @param prekeys    Number of prekeys generated within the request
+     */
+    public BotsResource(MessageHandlerBase handler, StorageFactory storageF, CryptoFactory cryptoF,
+                        @Nullable PrekeyPool prekeyPool, int prekeys) {
         this.handler = handler;
         this.storageF = storageF;
         this.cryptoF = cryptoF;
+        this.prekeyPool = prekeyPool;
+        this.prekeys = prekeys;
     }
 
     @POST
@@ -103,9 +123,15 @@ public class BotsResource {
                 ret.addAsset(profileBig, "complete");
             }
 
-            try (Crypto crypto = cryptoF.create(botId)) {
-                ret.lastPreKey = crypto.newLastPreKey();
-                ret.preKeys = crypto.newPreKeys(0, 50);
+            PrekeyPool.Keys keys = prekeyPool != null ? prekeyPool.take(botId) : null;
+            if (keys != null) {
+                ret.lastPreKey = keys.lastPreKey;
+                ret.preKeys = keys.preKeys;
+            } else {
+                try (Crypto crypto = cryptoF.create(botId)) {
+                    ret.lastPreKey = crypto.newLastPreKey();
+                    ret.preKeys = crypto.newPreKeys(0, prekeys);
+                }
             }
 
         } catch (Exception e) {
@@ -21,8 +21,15 @@ package com.wire.lithium.server.resources;
 import com.codahale.metrics.annotation.Metered;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.wire.bots.cryptobox.CryptoException;
+import com.wire.lithium.BotClient;
 import com.wire.lithium.ClientRepo;
+import com.wire.lithium.ConversationCache;
+import com.wire.lithium.DeviceCache;
+import com.wire.lithium.server.dispatch.MessageDispatcher;
 import com.wire.lithium.server.monitoring.MDCUtils;
+import com.wire.lithium.server.monitoring.RequestIds;
+import com.wire.lithium.server.monitoring.MessageMetrics;
+import com.wire.lithium.server.monitoring.StageTimes;
 import com.wire.xenon.MessageHandlerBase;
 import com.wire.xenon.MessageResourceBase;
 import com.wire.xenon.WireClient;
@@ -32,12 +39,17 @@ import com.wire.xenon.backend.models.Payload;
 import com.wire.xenon.exceptions.MissingStateException;
 import com.wire.xenon.tools.Logger;
 import io.swagger.annotations.*;
+import jakarta.annotation.Nullable;
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotNull;
+import org.slf4j.MDC;
+
 import java.io.IOException;
+import java.util.Map;
 import java.util.UUID;
 import java.util.logging.Level;
 
@@ -48,10 +60,31 @@ import java.util.logging.Level;
 public class MessageResource extends MessageResourceBase {
     private final ObjectMapper objectMapper = new ObjectMapper();
     private final ClientRepo repo;
+    @Nullable
+    private final MessageDispatcher dispatcher;
+    @Nullable
+    private final MessageMetrics metrics;
 
     public MessageResource(MessageHandlerBase handler, ClientRepo repo) {
+        this(handler, repo, null);
+    }
+
+    public MessageResource(MessageHandlerBase handler, ClientRepo repo, @Nullable MessageDispatcher dispatcher) {
+        this(handler, repo, dispatcher, null);
+    }
+
+    /**
+     * @param handler    Message handler
+     * @param repo       Client repo
+     * @param dispatcher When set, messages are queued and processed in the background, otherwise within the request
+     * @param metrics    When set, the time spent in each stage of a message is reported per type and outcome
+     */
+    public MessageResource(MessageHandlerBase handler, ClientRepo repo, @Nullable MessageDispatcher dispatcher,
+                           @Nullable MessageMetrics metrics) {
         super(handler);
         this.repo = repo;
+        this.dispatcher = dispatcher;
+        this.metrics = metrics;
     }
 
     @POST
@@ -67,7 +100,7 @@ public class MessageResource extends MessageResourceBase {
                                @ApiParam @Valid @NotNull Payload payload) throws IOException {
 
         if (eventId == null) {
-            eventId = UUID.randomUUID(); //todo fix this once Wire BE adds eventId into payload
+            eventId = RequestIds.next(); //todo fix this once Wire BE adds eventId into payload
         }
 
         if (Logger.getLevel() == Level.FINE) {
@@ -82,38 +115,146 @@ public class MessageResource extends MessageResourceBase {
         MDCUtils.put("eventId", eventId);
         MDCUtils.put("conversationId", payload.conversation.id);
 
+        if (dispatcher != null) {
+            return enqueue(botId, eventId, payload);
+        }
+
+        return process(botId, eventId, payload);
+    }
+
+    /**
+     * Checks that the bot exists and queues the message. The response is sent before the message is processed.
+     */
+    private Response enqueue(UUID botId, UUID eventId, Payload payload) throws IOException {
+        final long start = System.nanoTime();
+        try {
+            repo.getState(botId);
+        } catch (MissingStateException e) {
+            Logger.exception(e, "newMessage: %s", botId, e.getMessage());
+            return report(payload, null, start, Response.
+                    status(410).
+                    entity(new ErrorMessage(e.getMessage())).
+                    build());
+        }
+
+        final Map<String, String> mdc = MDC.getCopyOfContextMap();
+        final boolean accepted = dispatcher.offer(botId, () -> {
+            if (mdc != null)
+                MDC.setContextMap(mdc);
+            try {
+                process(botId, eventId, payload);
+            } finally {
+                MDC.clear();
+            }
+        });
+
+        if (!accepted) {
+            Logger.warning("newMessage: queue is full. Bot: %s, eventId: %s", botId, eventId);
+            return report(payload, null, start, Response.
+                    status(503).
+                    header(HttpHeaders.RETRY_AFTER, dispatcher.getRetryAfter()).
+                    entity(new ErrorMessage("Too many messages in the queue")).
+                    build());
+        }
+
+        return Response.
+                ok().
+                status(200).
+                build();
+    }
+
+    private Response process(UUID botId, UUID eventId, Payload payload) {
+        final long start = System.nanoTime();
+        StageTimes stages = null;
         try (WireClient client = getWireClient(botId, payload)) {
-            handleMessage(eventId, payload, client);
+            if (client instanceof BotClient)
+                stages = ((BotClient) client).getStageTimes();
+            updateCaches(botId, payload);
+            handle(eventId, payload, client, stages);
         } catch (CryptoException e) {
             Logger.exception(e,"newMessage: %s", botId, e.getMessage());
             respondWithError(botId, payload);
-            return Response.
+            return report(payload, stages, start, Response.
                     status(503).
                     entity(new ErrorMessage(e.getMessage())).
-                    build();
+                    build());
         } catch (MissingStateException e) {
             Logger.exception(e,"newMessage: %s", botId, e.getMessage());
-            return Response.
+            return report(payload, stages, start, Response.
                     status(410).
                     entity(new ErrorMessage(e.getMessage())).
-                    build();
+                    build());
         } catch (Exception e) {
             Logger.exception(e,"newMessage: %s", botId, e.getMessage());
-            return Response.
+            return report(payload, stages, start, Response.
                     status(400).
                     entity(new ErrorMessage(e.getMessage())).
-                    build();
+                    build());
         }
 
-        return Response.
+        return report(payload, stages, start, Response.
                 ok().
                 status(200).
-                build();
+                build());
+    }
+
+    /**
+     * Runs the handler. Its time is reported without the decryption, which is a stage of its own
+     */
+    private void handle(UUID eventId, Payload payload, WireClient client, @Nullable StageTimes stages) throws Exception {
+        if (stages == null) {
+            handleMessage(eventId, payload, client);
+            return;
+        }
+
+        final long start = System.nanoTime();
+        final long decrypted = Math.max(stages.get(StageTimes.Stage.DECRYPT), 0);
+        try {
+            handleMessage(eventId, payload, client);
+        } finally {
+            final long decrypt = Math.max(stages.get(StageTimes.Stage.DECRYPT), 0) - decrypted;
+            stages.add(StageTimes.Stage.HANDLER, System.nanoTime() - start - decrypt);
+        }
+    }
+
+    private Response report(Payload payload, @Nullable StageTimes stages, long start, Response response) {
+        if (metrics != null)
+            metrics.report(payload.type, response.getStatus(), stages, System.nanoTime() - start);
+        return response;
+    }
+
+    /**
+     * Users who left are dropped from the cached devices right away. Clients of new members are picked up
+     * from the 412 on the next send. Bot's conversation is reloaded on next use after membership or name changes.
+     */
+    private void updateCaches(UUID botId, Payload payload) {
+        if (payload.type == null)
+            return;
+
+        final ConversationCache conversations = repo.getConversationCache();
+        switch (payload.type) {
+            case "conversation.member-join":
+            case "conversation.member-leave":
+            case "conversation.rename":
+            case "conversation.delete":
+                if (conversations != null)
+                    conversations.invalidate(botId);
+                break;
+            default:
+                return;
+        }
+
+        final DeviceCache devices = repo.getDeviceCache();
+        if (devices == null || payload.conversation == null || payload.data == null)
+            return;
+
+        if ("conversation.member-leave".equals(payload.type) && payload.data.userIds != null)
+            devices.removeUsers(botId, payload.conversation.id, payload.data.userIds);
     }
 
     private void respondWithError(UUID botId, Payload payload) {
         try (WireClient client = getWireClient(botId, payload)) {
-            client.send(new Reaction(UUID.randomUUID(), ""));
+            client.send(new Reaction(RequestIds.next(), ""));
         } catch (Exception e) {
             Logger.exception(e,"respondWithError: bot: %s", botId, e.getMessage());
         }
@@ -13,6 +13,8 @@ import java.util.Map;
 import java.util.UUID;
 
 public class AvailablePrekeysTask extends TaskBase {
+    private static final ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
     private final ClientRepo repo;
 
     public AvailablePrekeysTask(ClientRepo repo) {
@@ -24,12 +26,8 @@ public class AvailablePrekeysTask extends TaskBase {
     public void execute(Map<String, List<String>> parameters, PrintWriter output) {
         UUID botId = UUID.fromString(extractString(parameters, "bot"));
 
-        try {
-            WireClient client = repo.getClient(botId);
+        try (WireClient client = repo.getClient(botId)) {
             ArrayList<Integer> availablePrekeys = client.getAvailablePrekeys();
-            ObjectMapper mapper = new ObjectMapper();
-            mapper.enable(SerializationFeature.INDENT_OUTPUT);
-
             output.println(mapper.writeValueAsString(availablePrekeys));
         } catch (Exception e) {
             Logger.exception("Exception during AvailablePrekeysTask", e);
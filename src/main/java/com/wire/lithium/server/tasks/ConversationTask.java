@@ -13,6 +13,8 @@ import java.util.Map;
 import java.util.UUID;
 
 public class ConversationTask extends TaskBase {
+    private static final ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
     private final ClientRepo repo;
 
     public ConversationTask(ClientRepo repo) {
@@ -24,12 +26,8 @@ public class ConversationTask extends TaskBase {
     public void execute(Map<String, List<String>> parameters, PrintWriter output) {
         UUID botId = UUID.fromString(extractString(parameters, "bot"));
 
-        try {
-            WireClient client = repo.getClient(botId);
+        try (WireClient client = repo.getClient(botId)) {
             Conversation conversation = client.getConversation();
-            ObjectMapper mapper = new ObjectMapper();
-            mapper.enable(SerializationFeature.INDENT_OUTPUT);
-
             output.println(mapper.writeValueAsString(conversation));
         } catch (Exception e) {
             Logger.exception("Exception during ConversationTask.", e);
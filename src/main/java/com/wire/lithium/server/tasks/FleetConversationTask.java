@@ -0,0 +1,19 @@
+package com.wire.lithium.server.tasks;
+
+import com.wire.lithium.ClientRepo;
+import com.wire.lithium.storage.BotIndex;
+import com.wire.xenon.WireClient;
+
+/**
+ * {@link ConversationTask} for many bots, see {@link FleetTask}
+ */
+public class FleetConversationTask extends FleetTask {
+    public FleetConversationTask(ClientRepo repo, BotIndex index) {
+        super("fleet-conversation", repo, index);
+    }
+
+    @Override
+    protected Object run(WireClient client) throws Exception {
+        return client.getConversation();
+    }
+}
@@ -0,0 +1,19 @@
+package com.wire.lithium.server.tasks;
+
+import com.wire.lithium.ClientRepo;
+import com.wire.lithium.storage.BotIndex;
+import com.wire.xenon.WireClient;
+
+/**
+ * {@link AvailablePrekeysTask} for many bots, see {@link FleetTask}
+ */
+public class FleetPrekeysTask extends FleetTask {
+    public FleetPrekeysTask(ClientRepo repo, BotIndex index) {
+        super("fleet-prekeys", repo, index);
+    }
+
+    @Override
+    protected Object run(WireClient client) throws Exception {
+        return client.getAvailablePrekeys();
+    }
+}
@@ -0,0 +1,166 @@
+package com.wire.lithium.server.tasks;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wire.lithium.ClientRepo;
+import com.wire.lithium.storage.BotIndex;
+import com.wire.xenon.WireClient;
+import com.wire.xenon.tools.Logger;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs one call per bot for many bots: the {@code bot} parameters (repeated or comma separated) or all bots of the
+ * storage with {@code all=true}. At most {@code parallelism} (default 8) bots are handled at once.
+ * <p>
+ * One JSON line is written per bot as soon as it is done, with the result or the error and the progress:
+ * <pre>{"bot":"...","done":1,"total":2,"result":...}</pre>
+ * A failing bot does not stop the others. The last line sums up: {@code total}, {@code failed} and {@code elapsedMs}.
+ */
+public abstract class FleetTask extends TaskBase {
+    static final int DEFAULT_PARALLELISM = 8;
+    static final int MAX_PARALLELISM = 64;
+
+    private static final ObjectMapper mapper = new ObjectMapper()
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL);
+    private static final AtomicInteger threads = new AtomicInteger();
+
+    private final ClientRepo repo;
+    private final BotIndex index;
+
+    protected FleetTask(String name, ClientRepo repo, BotIndex index) {
+        super(name);
+        this.repo = repo;
+        this.index = index;
+    }
+
+    /**
+     * @return Result of the bot, written as JSON
+     */
+    protected abstract Object run(WireClient client) throws Exception;
+
+    @Override
+    public void execute(Map<String, List<String>> parameters, PrintWriter output) throws Exception {
+        final List<UUID> bots;
+        final int parallelism;
+        try {
+            bots = bots(parameters);
+            parallelism = parallelism(parameters);
+        } catch (IllegalArgumentException e) {
+            output.println(line(new Summary(e.getMessage())));
+            return;
+        }
+
+        final long start = System.currentTimeMillis();
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, Math.max(1, bots.size())),
+                r -> {
+                    final Thread thread = new Thread(r, getName() + "-" + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        try {
+            final CompletionService<Result> completion = new ExecutorCompletionService<>(executor);
+            for (UUID botId : bots) {
+                completion.submit(() -> call(botId));
+            }
+
+            int failed = 0;
+            for (int done = 1; done <= bots.size(); done++) {
+                final Result result = completion.take().get();
+                result.done = done;
+                result.total = bots.size();
+                if (result.error != null)
+                    failed++;
+
+                output.println(line(result));
+                output.flush();
+                if (output.checkError()) {
+                    Logger.warning("%s: client went away after %d of %d bots", getName(), done, bots.size());
+                    return;
+                }
+            }
+
+            final Summary summary = new Summary(null);
+            summary.total = bots.size();
+            summary.failed = failed;
+            summary.elapsedMs = System.currentTimeMillis() - start;
+            output.println(line(summary));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Result call(UUID botId) {
+        final Result ret = new Result(botId);
+        try (WireClient client = repo.getClient(botId)) {
+            ret.result = run(client);
+        } catch (Exception e) {
+            Logger.exception(e, "%s: bot: %s, error: %s", getName(), botId, e.getMessage());
+            ret.error = String.valueOf(e.getMessage());
+        }
+        return ret;
+    }
+
+    private List<UUID> bots(Map<String, List<String>> parameters) throws Exception {
+        if (Boolean.parseBoolean(extractString(parameters, "all", "false")))
+            return index.getBotIds();
+
+        final List<UUID> ret = new ArrayList<>();
+        for (String value : parameters.getOrDefault("bot", List.of())) {
+            for (String id : value.split(",")) {
+                if (!id.isBlank())
+                    ret.add(UUID.fromString(id.trim()));
+            }
+        }
+        if (ret.isEmpty())
+            throw new IllegalArgumentException("Missing bot or all=true");
+        return ret;
+    }
+
+    private static int parallelism(Map<String, List<String>> parameters) {
+        try {
+            return Math.max(1, Math.min(MAX_PARALLELISM, extract(parameters, "parallelism", DEFAULT_PARALLELISM)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Invalid parallelism: %s, expected 1 to %d",
+                    extractString(parameters, "parallelism"), MAX_PARALLELISM));
+        }
+    }
+
+    private static String line(Object value) throws JsonProcessingException {
+        return mapper.writeValueAsString(value);
+    }
+
+    static final class Result {
+        public final UUID bot;
+        public int done;
+        public int total;
+        public Object result;
+        public String error;
+
+        Result(UUID bot) {
+            this.bot = bot;
+        }
+    }
+
+    static final class Summary {
+        public Integer total;
+        public Integer failed;
+        public Long elapsedMs;
+        public final String error;
+
+        Summary(String error) {
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.wire.lithium.server.tasks;
+
+import com.wire.lithium.server.filters.ServiceTokens;
+import com.wire.xenon.tools.Logger;
+
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replaces the accepted service tokens: POST /tasks/service-token with one or more {@code token} parameters.
+ * Pass the old and the new token while rotating and only the new one when done.
+ */
+public class ServiceTokenTask extends TaskBase {
+    private final ServiceTokens tokens;
+
+    public ServiceTokenTask(ServiceTokens tokens) {
+        super("service-token");
+        this.tokens = tokens;
+    }
+
+    @Override
+    public void execute(Map<String, List<String>> parameters, PrintWriter output) {
+        final List<String> values = parameters.getOrDefault("token", Collections.emptyList());
+        if (values.isEmpty()) {
+            output.println("Missing token");
+            return;
+        }
+
+        try {
+            tokens.set(values);
+            Logger.info("ServiceTokenTask: %d service tokens accepted", tokens.size());
+            output.println(String.format("%d service tokens accepted", tokens.size()));
+        } catch (IllegalArgumentException e) {
+            output.println(e.getMessage());
+        }
+    }
+}
@@ -18,7 +18,7 @@ public abstract class TaskBase extends Task {
     protected static int extract(Map<String, List<String>> parameters, String name, int def) {
         int val = def;
         final List<String> usr = parameters.get(name);
-        if (!usr.isEmpty()) {
+        if (usr != null && !usr.isEmpty()) {
             String id = usr.get(0);
             val = Integer.parseInt(id);
         }
@@ -28,7 +28,7 @@ public abstract class TaskBase extends Task {
 
     protected static String extractString(Map<String, List<String>> parameters, String name, String def) {
         final List<String> usr = parameters.get(name);
-        if (!usr.isEmpty()) {
+        if (usr != null && !usr.isEmpty()) {
             return usr.get(0);
         }
 
@@ -0,0 +1,14 @@
+package com.wire.lithium.storage;
+
+import org.jdbi.v3.sqlobject.statement.SqlQuery;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Lists the bots of xenon's States table
+ */
+public interface BotIdsDAO {
+    @SqlQuery("SELECT botId FROM States ORDER BY botId")
+    List<UUID> getBotIds();
+}
@@ -0,0 +1,13 @@
+package com.wire.lithium.storage;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Ids of all bots that have a state, for the tasks that run over the whole fleet
+ */
+@FunctionalInterface
+public interface BotIndex {
+    List<UUID> getBotIds() throws IOException;
+}
@@ -0,0 +1,61 @@
+package com.wire.lithium.storage;
+
+import com.wire.xenon.tools.Logger;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * {@link LeaderLock} on a file next to the segments of the MAPPED storage. The OS drops the lock when the process dies
+ */
+public class FileLeaderLock implements LeaderLock {
+    private final Path path;
+    private FileChannel channel;
+    private FileLock lock;
+
+    /**
+     * @param path Lock file, created if missing
+     */
+    public FileLeaderLock(Path path) {
+        this.path = path;
+    }
+
+    @Override
+    public synchronized boolean tryAcquire() {
+        if (lock != null && lock.isValid())
+            return true;
+        release();
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // held by another lock of this process
+            lock = null;
+        } catch (IOException e) {
+            Logger.exception(e, "FileLeaderLock: %s, error: %s", path, e.getMessage());
+            lock = null;
+        }
+        if (lock == null)
+            release();
+        return lock != null;
+    }
+
+    @Override
+    public synchronized void release() {
+        try {
+            if (lock != null)
+                lock.release();
+            if (channel != null)
+                channel.close();
+        } catch (IOException e) {
+            Logger.warning("FileLeaderLock: %s, release: %s", path, e.getMessage());
+        } finally {
+            lock = null;
+            channel = null;
+        }
+    }
+}
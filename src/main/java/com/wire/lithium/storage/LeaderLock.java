@@ -0,0 +1,20 @@
+package com.wire.lithium.storage;
+
+/**
+ * Lock held in the storage shared by all instances, so that background work over the whole fleet runs on one
+ * instance at a time. The instance that holds it keeps it until {@link #release()} or until it dies.
+ */
+public interface LeaderLock {
+    /**
+     * Takes the lock unless another instance holds it. Called again by the holder it checks the lock is still held,
+     * e.g. after the connection that holds it was lost
+     *
+     * @return true if this instance holds the lock
+     */
+    boolean tryAcquire();
+
+    /**
+     * Gives the lock up, nothing if it is not held
+     */
+    void release();
+}
@@ -0,0 +1,60 @@
+package com.wire.lithium.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wire.xenon.backend.models.NewBot;
+import com.wire.xenon.exceptions.MissingStateException;
+import com.wire.xenon.state.State;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Bot state kept in the {@link SegmentStore}, stored as json like {@link com.wire.xenon.state.JdbiState}
+ */
+public class MappedState implements State {
+    static final String PREFIX = "states/";
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private final UUID botId;
+    private final SegmentStore store;
+
+    public MappedState(UUID botId, SegmentStore store) {
+        this.botId = botId;
+        this.store = store;
+    }
+
+    /**
+     * @return Ids of all bots with a state in the store
+     */
+    public static List<UUID> botIds(SegmentStore store) {
+        final List<String> keys = store.keys(PREFIX);
+        final List<UUID> ret = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            ret.add(UUID.fromString(key.substring(PREFIX.length())));
+        }
+        return ret;
+    }
+
+    @Override
+    public boolean saveState(NewBot newBot) throws IOException {
+        store.put(PREFIX + botId, mapper.writeValueAsBytes(newBot));
+        return true;
+    }
+
+    @Override
+    public NewBot getState() throws IOException {
+        final byte[] data = store.get(PREFIX + botId);
+        if (data == null)
+            throw new MissingStateException(botId);
+        return mapper.readValue(data, NewBot.class);
+    }
+
+    @Override
+    public boolean removeState() throws IOException {
+        final boolean ret = store.get(PREFIX + botId) != null;
+        store.delete(PREFIX + botId);
+        return ret;
+    }
+}
@@ -0,0 +1,105 @@
+package com.wire.lithium.storage;
+
+import com.wire.bots.cryptobox.IRecord;
+import com.wire.bots.cryptobox.IStorage;
+import com.wire.bots.cryptobox.PreKey;
+import com.wire.bots.cryptobox.StorageException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+/**
+ * Crypto storage (sessions, identities and prekeys) kept in the {@link SegmentStore}. Like
+ * {@link com.wire.xenon.crypto.storage.JdbiStorage} it does not lock sessions, see
+ * {@link com.wire.lithium.crypto.LockingStorage}
+ */
+public class MappedStorage implements IStorage {
+    private final SegmentStore store;
+
+    public MappedStorage(SegmentStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public IRecord fetchSession(String id, String sid) {
+        final String key = String.format("sessions/%s/%s", id, sid);
+        return new Record(key, store.get(key));
+    }
+
+    @Override
+    public byte[] fetchIdentity(String id) {
+        return store.get("identities/" + id);
+    }
+
+    @Override
+    public void insertIdentity(String id, byte[] data) throws StorageException {
+        put("identities/" + id, data);
+    }
+
+    @Override
+    public PreKey[] fetchPrekeys(String id) {
+        final String prefix = String.format("prekeys/%s/", id);
+        final List<String> keys = store.keys(prefix);
+        if (keys.isEmpty())
+            return null;
+
+        final PreKey[] ret = new PreKey[keys.size()];
+        for (int i = 0; i < ret.length; i++) {
+            final String key = keys.get(i);
+            ret[i] = new PreKey(Integer.parseInt(key.substring(prefix.length())), store.get(key));
+        }
+        return ret;
+    }
+
+    @Override
+    public void insertPrekey(String id, int kid, byte[] data) throws StorageException {
+        put(String.format("prekeys/%s/%05d", id, kid), data);
+    }
+
+    @Override
+    public void purge(String id) throws StorageException {
+        try {
+            store.deleteAll(String.format("sessions/%s/", id));
+            store.deleteAll(String.format("prekeys/%s/", id));
+            store.delete("identities/" + id);
+        } catch (IOException e) {
+            throw new StorageException(e.getMessage());
+        }
+    }
+
+    private void put(String key, byte[] data) throws StorageException {
+        try {
+            store.put(key, data);
+        } catch (IOException e) {
+            throw new StorageException(e.getMessage());
+        }
+    }
+
+    private final class Record implements IRecord {
+        private final String key;
+        private final byte[] data;
+
+        Record(String key, byte[] data) {
+            this.key = key;
+            this.data = data;
+        }
+
+        @Override
+        public byte[] getData() {
+            return data;
+        }
+
+        @Override
+        public void persist(byte[] update) {
+            if (update == null)
+                return;
+
+            try {
+                store.put(key, update);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.wire.lithium.storage;
+
+import com.wire.xenon.tools.Logger;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.Jdbi;
+
+/**
+ * {@link LeaderLock} on a session level advisory lock of Postgres. The lock belongs to a connection that is kept open
+ * while it is held: Postgres drops the lock when the connection closes or the instance dies
+ */
+public class PostgresLeaderLock implements LeaderLock {
+    private final Jdbi jdbi;
+    private final long key;
+    private Handle handle;
+
+    /**
+     * @param jdbi Database shared by the instances
+     * @param key  Id of the advisory lock
+     */
+    public PostgresLeaderLock(Jdbi jdbi, long key) {
+        this.jdbi = jdbi;
+        this.key = key;
+    }
+
+    @Override
+    public synchronized boolean tryAcquire() {
+        try {
+            if (handle != null) {
+                // the lock lives as long as the connection
+                handle.createQuery("SELECT 1").mapTo(Integer.class).one();
+                return true;
+            }
+        } catch (Exception e) {
+            Logger.warning("PostgresLeaderLock: %d, lost: %s", key, e.getMessage());
+            close();
+        }
+
+        try {
+            handle = jdbi.open();
+            final boolean ret = handle.createQuery("SELECT pg_try_advisory_lock(:key)")
+                    .bind("key", key)
+                    .mapTo(Boolean.class)
+                    .one();
+            if (!ret)
+                close();
+            return ret;
+        } catch (Exception e) {
+            Logger.exception(e, "PostgresLeaderLock: %d, error: %s", key, e.getMessage());
+            close();
+            return false;
+        }
+    }
+
+    @Override
+    public synchronized void release() {
+        if (handle == null)
+            return;
+        try {
+            // closing the connection returns it to the pool, the lock has to be dropped first
+            handle.createQuery("SELECT pg_advisory_unlock(:key)")
+                    .bind("key", key)
+                    .mapTo(Boolean.class)
+                    .one();
+        } catch (Exception e) {
+            Logger.warning("PostgresLeaderLock: %d, release: %s", key, e.getMessage());
+        } finally {
+            close();
+        }
+    }
+
+    private void close() {
+        if (handle != null)
+            handle.close();
+        handle = null;
+    }
+}
@@ -0,0 +1,426 @@
+package com.wire.lithium.storage;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.wire.xenon.tools.Logger;
+import io.dropwizard.lifecycle.Managed;
+import jakarta.annotation.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Key-value store on append-only, memory-mapped segment files with the index of the live records in memory.
+ * <p>
+ * Every put and delete appends a record {@code [crc][key length][value length][key][value]} to the head segment
+ * (a delete appends a tombstone, value length -1). When the head is full a new segment is started. Reads look the key
+ * up in the index and copy the value straight from the mapped segment.
+ * <p>
+ * Recovery: on open the segments are replayed in order. Replay of a segment stops at the first record whose crc does
+ * not match (a write torn by a crash); the rest of the head is zeroed so that it is never replayed. Written records
+ * survive a crash of the process as soon as they are appended (the pages belong to the OS). With fsync they survive a
+ * crash of the OS as well, at the cost of a flush per write.
+ * <p>
+ * Compaction: a full segment whose live records take less than the threshold of its size is rewritten: live records
+ * are appended to the head again and the segment is deleted. Tombstones are carried over while older segments exist
+ * that may still hold the deleted value.
+ * <p>
+ * Writes and compaction are serialized, reads are lock free.
+ */
+public class SegmentStore implements Managed {
+    private static final String SUFFIX = ".seg";
+    private static final int HEADER = 12;
+    private static final int TOMBSTONE = -1;
+
+    private final Path dir;
+    private final long segmentSize;
+    private final boolean fsync;
+    private final double threshold;
+    private final long interval;
+    private final ScheduledExecutorService scheduler;
+    private final ConcurrentSkipListMap<String, Location> index = new ConcurrentSkipListMap<>();
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();   // guarded by this
+    private Segment head;   // guarded by this
+
+    private final Meter compactions;
+
+    /**
+     * Opens the store and replays the segments found in dir
+     *
+     * @param dir           Directory of the segment files, created if missing
+     * @param segmentSize   Size of a segment file in bytes, also the max size of a record
+     * @param fsync         Flush the head to disk after every write
+     * @param threshold     Segments with less live bytes than this ratio of their size are compacted
+     * @param interval      Time in ms between two compaction runs
+     * @param threadFactory Factory for the compacting thread
+     * @param metrics       Registry where the number of segments, bytes, live bytes and compactions are reported
+     * @throws IOException if the segments cannot be read
+     */
+    public SegmentStore(Path dir, long segmentSize, boolean fsync, double threshold, long interval,
+                        ThreadFactory threadFactory, MetricRegistry metrics) throws IOException {
+        if (segmentSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Segments are limited to 2GB");
+
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.fsync = fsync;
+        this.threshold = threshold;
+        this.interval = interval;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+
+        Files.createDirectories(dir);
+        recover();
+
+        final String prefix = MetricRegistry.name(SegmentStore.class);
+        this.compactions = metrics.meter(MetricRegistry.name(prefix, "compactions"));
+        metrics.gauge(MetricRegistry.name(prefix, "keys"), () -> (Gauge<Integer>) index::size);
+        metrics.gauge(MetricRegistry.name(prefix, "segments"), () -> (Gauge<Integer>) this::segmentCount);
+        metrics.gauge(MetricRegistry.name(prefix, "bytes"), () -> (Gauge<Long>) this::bytes);
+        metrics.gauge(MetricRegistry.name(prefix, "live-bytes"), () -> (Gauge<Long>) this::liveBytes);
+    }
+
+    @Override
+    public void start() {
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                compact();
+            } catch (Exception e) {
+                Logger.exception(e, "SegmentStore: compaction failed");
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() throws Exception {
+        scheduler.shutdown();
+        scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        close();
+    }
+
+    /**
+     * Flushes the head and closes the segment files
+     */
+    public synchronized void close() throws IOException {
+        head.buffer.force();
+        for (Segment segment : segments.values()) {
+            segment.channel.close();
+        }
+    }
+
+    /**
+     * @param key Key
+     * @return Copy of the value or null if the key is not stored
+     */
+    @Nullable
+    public byte[] get(String key) {
+        final Location location = index.get(key);
+        if (location == null)
+            return null;
+
+        final byte[] ret = new byte[location.length];
+        final ByteBuffer buffer = location.segment.buffer.duplicate();
+        buffer.position(location.offset + location.size - location.length);
+        buffer.get(ret);
+        return ret;
+    }
+
+    public void put(String key, byte[] value) throws IOException {
+        append(key, value);
+    }
+
+    public void delete(String key) throws IOException {
+        if (index.containsKey(key))
+            append(key, null);
+    }
+
+    /**
+     * @param prefix Key prefix
+     * @return Keys that start with the prefix, in order
+     */
+    public List<String> keys(String prefix) {
+        return new ArrayList<>(index.subMap(prefix, prefix + Character.MAX_VALUE).keySet());
+    }
+
+    /**
+     * Deletes all keys that start with the prefix
+     */
+    public void deleteAll(String prefix) throws IOException {
+        for (String key : keys(prefix)) {
+            delete(key);
+        }
+    }
+
+    /**
+     * Rewrites the full segments that are mostly garbage
+     *
+     * @return Number of compacted segments
+     */
+    public int compact() throws IOException {
+        final List<Segment> candidates = new ArrayList<>();
+        synchronized (this) {
+            for (Segment segment : segments.values()) {
+                if (segment != head && segment.live.get() < threshold * segment.position)
+                    candidates.add(segment);
+            }
+        }
+
+        for (Segment segment : candidates) {
+            compact(segment);
+        }
+        return candidates.size();
+    }
+
+    private synchronized void compact(Segment segment) throws IOException {
+        final long started = System.currentTimeMillis();
+        final long live = segment.live.get();
+        final boolean older = segments.firstKey() < segment.id;
+
+        int position = 0;
+        while (position < segment.position) {
+            final Entry entry = read(segment, position);
+            if (entry == null)
+                break;
+
+            if (entry.value != null) {
+                final Location location = index.get(entry.key);
+                if (location != null && location.segment == segment && location.offset == position)
+                    append(entry.key, entry.value);
+            } else if (older && !index.containsKey(entry.key)) {
+                append(entry.key, null);
+            }
+            position += entry.size;
+        }
+
+        head.buffer.force();
+        segments.remove(segment.id);
+        segment.channel.close();
+        Files.delete(segment.path);
+        compactions.mark();
+
+        Logger.info("SegmentStore: compacted %s, %d live bytes of %d in %d ms", segment.path.getFileName(), live,
+                segment.position, System.currentTimeMillis() - started);
+    }
+
+    private synchronized void append(String key, @Nullable byte[] value) throws IOException {
+        final byte[] k = key.getBytes(StandardCharsets.UTF_8);
+        final int length = value != null ? value.length : 0;
+        final int size = HEADER + k.length + length;
+        if (k.length == 0 || size > segmentSize)
+            throw new IOException(String.format("Cannot store %s: %d bytes do not fit in a segment", key, size));
+
+        if (head.position + size > head.buffer.capacity())
+            roll();
+
+        final ByteBuffer record = ByteBuffer.allocate(size);
+        record.position(4);
+        record.putInt(k.length);
+        record.putInt(value != null ? value.length : TOMBSTONE);
+        record.put(k);
+        if (value != null)
+            record.put(value);
+        record.putInt(0, crc(record.array(), size));
+
+        final int offset = head.position;
+        final ByteBuffer buffer = head.buffer.duplicate();
+        buffer.position(offset);
+        buffer.put(record.array());
+        head.position += size;
+        if (fsync)
+            head.buffer.force();
+
+        final Location previous;
+        if (value != null) {
+            previous = index.put(key, new Location(head, offset, size, length));
+            head.live.addAndGet(size);
+        } else {
+            previous = index.remove(key);
+        }
+        if (previous != null)
+            previous.segment.live.addAndGet(-previous.size);
+    }
+
+    private void roll() throws IOException {
+        head.buffer.force();
+        head = open(head.id + 1);
+        segments.put(head.id, head);
+    }
+
+    private synchronized void recover() throws IOException {
+        final List<Long> ids = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(SUFFIX))
+                    .forEach(name -> ids.add(Long.parseLong(name.substring(0, name.length() - SUFFIX.length()))));
+        }
+        ids.sort(null);
+
+        for (long id : ids) {
+            head = open(id);
+            segments.put(id, head);
+
+            int position = 0;
+            Entry entry;
+            while ((entry = read(head, position)) != null) {
+                if (entry.value != null) {
+                    final Location previous = index.put(entry.key, new Location(head, position, entry.size, entry.value.length));
+                    head.live.addAndGet(entry.size);
+                    if (previous != null)
+                        previous.segment.live.addAndGet(-previous.size);
+                } else {
+                    final Location previous = index.remove(entry.key);
+                    if (previous != null)
+                        previous.segment.live.addAndGet(-previous.size);
+                }
+                position += entry.size;
+            }
+            head.position = position;
+
+            if (position + HEADER <= head.buffer.capacity() && head.buffer.getInt(position + 4) != 0)
+                Logger.warning("SegmentStore: %s is torn at %d, records after it are dropped", head.path.getFileName(), position);
+        }
+
+        if (head == null) {
+            head = open(1);
+            segments.put(head.id, head);
+        }
+
+        // nothing may be replayed past the end of the head, even after the next records are appended
+        final ByteBuffer tail = head.buffer.duplicate();
+        tail.position(head.position);
+        final byte[] zeros = new byte[64 * 1024];
+        while (tail.hasRemaining()) {
+            tail.put(zeros, 0, Math.min(zeros.length, tail.remaining()));
+        }
+        head.buffer.force();
+
+        Logger.info("SegmentStore: recovered %d keys from %d segments in %s", index.size(), segments.size(), dir);
+    }
+
+    private Segment open(long id) throws IOException {
+        final Path path = dir.resolve(String.format("%016d%s", id, SUFFIX));
+        final FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final long size = Math.max(channel.size(), segmentSize);
+        return new Segment(id, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+    }
+
+    /**
+     * @return Record at the position or null at the end of the segment or when the record is corrupted
+     */
+    @Nullable
+    private static Entry read(Segment segment, int position) {
+        final ByteBuffer buffer = segment.buffer.duplicate();
+        if (position + HEADER > buffer.capacity())
+            return null;
+
+        final int crc = buffer.getInt(position);
+        final int keyLength = buffer.getInt(position + 4);
+        final int valueLength = buffer.getInt(position + 8);
+        if (keyLength <= 0 || valueLength < TOMBSTONE)
+            return null;
+
+        final long size = (long) HEADER + keyLength + Math.max(valueLength, 0);
+        if (position + size > buffer.capacity())
+            return null;
+
+        final byte[] record = new byte[(int) size];
+        buffer.position(position);
+        buffer.get(record);
+        if (crc(record, record.length) != crc)
+            return null;
+
+        final String key = new String(record, HEADER, keyLength, StandardCharsets.UTF_8);
+        byte[] value = null;
+        if (valueLength != TOMBSTONE) {
+            value = new byte[valueLength];
+            System.arraycopy(record, HEADER + keyLength, value, 0, valueLength);
+        }
+        return new Entry(key, value, (int) size);
+    }
+
+    private static int crc(byte[] record, int size) {
+        final CRC32 crc = new CRC32();
+        crc.update(record, 4, size - 4);
+        return (int) crc.getValue();
+    }
+
+    private synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    private synchronized long bytes() {
+        long ret = 0;
+        for (Segment segment : segments.values()) {
+            ret += segment.position;
+        }
+        return ret;
+    }
+
+    private synchronized long liveBytes() {
+        long ret = 0;
+        for (Segment segment : segments.values()) {
+            ret += segment.live.get();
+        }
+        return ret;
+    }
+
+    private static final class Segment {
+        final long id;
+        final Path path;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        final AtomicLong live = new AtomicLong();   // bytes of the records the index points to
+        int position;   // end of the records, guarded by the store
+
+        Segment(long id, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+
+    private static final class Location {
+        final Segment segment;
+        final int offset;
+        final int size;
+        final int length;
+
+        Location(Segment segment, int offset, int size, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.size = size;
+            this.length = length;
+        }
+    }
+
+    private static final class Entry {
+        final String key;
+        final byte[] value;
+        final int size;
+
+        Entry(String key, @Nullable byte[] value, int size) {
+            this.key = key;
+            this.value = value;
+            this.size = size;
+        }
+    }
+}
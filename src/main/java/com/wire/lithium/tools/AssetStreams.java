@@ -0,0 +1,202 @@
+package com.wire.lithium.tools;
+
+import com.google.common.io.CountingOutputStream;
+import jakarta.annotation.Nullable;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.crypto.CipherOutputStream;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Asset encryption, decryption and digests over streams, so that large assets never have to be held in memory
+ */
+public class AssetStreams {
+    private static final SecureRandom random = new SecureRandom();
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Encrypts the asset the same way as {@link com.wire.xenon.assets.AssetBase} does: random IV followed by AES/CBC.
+     * SHA-256 (for the asset message) and MD5 (for the upload) are computed while the encrypted data is written.
+     *
+     * @param plain  Plain asset data. Not closed
+     * @param target Where the encrypted data is written to. Closed when done
+     * @return Keys and digests needed to upload and send the asset
+     * @throws Exception if the data could not be encrypted or written
+     */
+    public static Encrypted encrypt(InputStream plain, OutputStream target) throws Exception {
+        final byte[] otrKey = new byte[32];
+        final byte[] iv = new byte[16];
+        random.nextBytes(otrKey);
+        random.nextBytes(iv);
+
+        final Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(otrKey, "AES"), new IvParameterSpec(iv));
+
+        final MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+        final MessageDigest md5 = MessageDigest.getInstance("MD5");
+        final CountingOutputStream counter = new CountingOutputStream(target);
+
+        try (OutputStream digests = new DigestOutputStream(new DigestOutputStream(counter, md5), sha256)) {
+            digests.write(iv);
+            try (OutputStream encrypted = new CipherOutputStream(digests, cipher)) {
+                plain.transferTo(encrypted);
+            }
+        }
+
+        return new Encrypted(otrKey, sha256.digest(), encode(md5.digest()), counter.getCount());
+    }
+
+    /**
+     * Decrypts the asset while it is read. SHA-256 of the encrypted data is verified when the end of the stream is reached:
+     * the last read throws {@link IOException} on mismatch, so the data must not be trusted before the stream is fully read.
+     *
+     * @param encrypted Encrypted asset, e.g. {@link com.wire.lithium.API#downloadAssetStream(String, String)}. Closed with the returned stream
+     * @param otrKey    Asset's key
+     * @param sha256    Expected SHA-256 of the encrypted data. Not verified when null
+     * @return Plain asset data
+     * @throws Exception if the decryption could not be initialized
+     */
+    public static InputStream decrypt(InputStream encrypted, byte[] otrKey, @Nullable byte[] sha256) throws Exception {
+        final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        final DigestInputStream in = new DigestInputStream(encrypted, digest);
+
+        final byte[] iv = in.readNBytes(16);
+        if (iv.length != 16)
+            throw new IOException("Asset is too short");
+
+        final Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(otrKey, "AES"), new IvParameterSpec(iv));
+
+        return new FilterInputStream(new CipherInputStream(in, cipher)) {
+            private boolean verified;
+
+            @Override
+            public int read() throws IOException {
+                final int ret = super.read();
+                if (ret == -1)
+                    verify();
+                return ret;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                final int ret = super.read(b, off, len);
+                if (ret == -1)
+                    verify();
+                return ret;
+            }
+
+            private void verify() throws IOException {
+                if (verified || sha256 == null)
+                    return;
+                verified = true;
+                if (!MessageDigest.isEqual(digest.digest(), sha256))
+                    throw new IOException("Failed sha256 check");
+            }
+        };
+    }
+
+    /**
+     * Copies the stream into the channel through a fixed size buffer
+     *
+     * @param in     Source. Not closed
+     * @param target Target. Not closed
+     * @return Number of bytes copied
+     * @throws IOException if reading or writing failed
+     */
+    public static long transfer(InputStream in, WritableByteChannel target) throws IOException {
+        if (target instanceof FileChannel) {
+            // lets the file system pull the data without an extra buffer on our side
+            final FileChannel file = (FileChannel) target;
+            final ReadableByteChannel source = Channels.newChannel(in);
+            final long start = file.position();
+            long position = start;
+            long read;
+            while ((read = file.transferFrom(source, position, BUFFER_SIZE)) > 0) {
+                position += read;
+            }
+            file.position(position);
+            return position - start;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        final ReadableByteChannel source = Channels.newChannel(in);
+        long ret = 0;
+        while (source.read(buffer) != -1) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                ret += target.write(buffer);
+            }
+            buffer.clear();
+        }
+        return ret;
+    }
+
+    /**
+     * Base64 MD5 of the file, as expected in Content-MD5. The file is read through a fixed size buffer.
+     *
+     * @param file File
+     * @return Base64 encoded MD5
+     * @throws IOException if the file could not be read
+     */
+    public static String md5(Path file) throws IOException {
+        final MessageDigest md5 = digest("MD5");
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                md5.update(buffer);
+                buffer.clear();
+            }
+        }
+        return encode(md5.digest());
+    }
+
+    private static MessageDigest digest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String encode(byte[] hash) {
+        return Base64.getEncoder().encodeToString(hash);
+    }
+
+    /**
+     * Result of {@link #encrypt(InputStream, OutputStream)}
+     */
+    public static final class Encrypted {
+        public final byte[] otrKey;
+        public final byte[] sha256;
+        public final String md5;   // Base64, as expected in Content-MD5
+        public final long length;
+
+        Encrypted(byte[] otrKey, byte[] sha256, String md5, long length) {
+            this.otrKey = otrKey;
+            this.sha256 = sha256;
+            this.md5 = md5;
+            this.length = length;
+        }
+    }
+}
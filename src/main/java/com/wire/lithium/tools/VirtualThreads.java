@@ -0,0 +1,89 @@
+package com.wire.lithium.tools;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to virtual threads on Java 21+ while the library is still built for Java 11.
+ */
+public class VirtualThreads {
+    private static final MethodHandle newExecutor;
+    private static final MethodHandle ofVirtual;
+    private static final MethodHandle name;
+    private static final MethodHandle factory;
+
+    static {
+        MethodHandle executor = null;
+        MethodHandle builder = null;
+        MethodHandle named = null;
+        MethodHandle threadFactory = null;
+        try {
+            final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            final Class<?> virtualClass = Class.forName("java.lang.Thread$Builder$OfVirtual");
+
+            executor = lookup.findStatic(java.util.concurrent.Executors.class, "newVirtualThreadPerTaskExecutor",
+                    MethodType.methodType(ExecutorService.class));
+            builder = lookup.findStatic(Thread.class, "ofVirtual", MethodType.methodType(virtualClass));
+            named = lookup.findVirtual(virtualClass, "name", MethodType.methodType(virtualClass, String.class, long.class));
+            threadFactory = lookup.findVirtual(builderClass, "factory", MethodType.methodType(ThreadFactory.class));
+        } catch (ReflectiveOperationException ignored) {
+            // older runtime, virtual threads are not available
+        }
+
+        // Java 19 and 20 have the methods, but they fail without --enable-preview
+        boolean available = Runtime.version().feature() >= 21
+                && executor != null && builder != null && named != null && threadFactory != null;
+        newExecutor = available ? executor : null;
+        ofVirtual = available ? builder : null;
+        name = available ? named : null;
+        factory = available ? threadFactory : null;
+    }
+
+    /**
+     * @return true if the runtime supports virtual threads
+     */
+    public static boolean isAvailable() {
+        return newExecutor != null;
+    }
+
+    /**
+     * Executor that starts a new virtual thread for each task
+     *
+     * @return new executor
+     * @throws UnsupportedOperationException if virtual threads are not available
+     */
+    public static ExecutorService newExecutor() {
+        check();
+        try {
+            return (ExecutorService) newExecutor.invoke();
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Factory of virtual threads named prefix0, prefix1...
+     *
+     * @param prefix thread name prefix
+     * @return new factory
+     * @throws UnsupportedOperationException if virtual threads are not available
+     */
+    public static ThreadFactory threadFactory(String prefix) {
+        check();
+        try {
+            final Object builder = name.invoke(ofVirtual.invoke(), prefix, 0L);
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void check() {
+        if (!isAvailable())
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or newer. Running: " + Runtime.version());
+    }
+}
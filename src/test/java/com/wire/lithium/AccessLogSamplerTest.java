@@ -0,0 +1,128 @@
+package com.wire.lithium;
+
+import ch.qos.logback.access.spi.IAccessEvent;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import ch.qos.logback.core.spi.FilterReply;
+import com.wire.lithium.helpers.LogEvents;
+import com.wire.lithium.server.monitoring.AccessLogSampler;
+import com.wire.lithium.server.monitoring.LoggingEventJsonLayout;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AccessLogSamplerTest {
+    private final Logger logger = (Logger) LoggerFactory.getLogger(AccessLogSampler.class);
+    private final ListAppender<ILoggingEvent> summaries = new ListAppender<>();
+
+    @BeforeEach
+    public void setUp() {
+        summaries.start();
+        logger.addAppender(summaries);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        logger.detachAppender(summaries);
+    }
+
+    @Test
+    public void errorsAndSlowRequestsAreAlwaysLogged() {
+        final AccessLogSampler sampler = newSampler(0.0);
+
+        assertThat(sampler.decide(messages(200, 10))).isEqualTo(FilterReply.DENY);
+        assertThat(sampler.decide(messages(404, 10))).isEqualTo(FilterReply.NEUTRAL);
+        assertThat(sampler.decide(messages(503, 10))).isEqualTo(FilterReply.NEUTRAL);
+        assertThat(sampler.decide(messages(200, 500))).isEqualTo(FilterReply.NEUTRAL);
+    }
+
+    @Test
+    public void successfulRequestsAreSampled() {
+        assertThat(newSampler(1.0).decide(messages(200, 10))).isEqualTo(FilterReply.NEUTRAL);
+
+        final AccessLogSampler sampler = newSampler(0.1);
+        int logged = 0;
+        for (int i = 0; i < 10_000; i++) {
+            if (sampler.decide(messages(200, 10)) == FilterReply.NEUTRAL)
+                logged++;
+        }
+        assertThat(logged).isBetween(700, 1300);
+    }
+
+    @Test
+    public void summaryPerEndpoint() {
+        final AccessLogSampler sampler = newSampler(0.0);
+        for (int i = 1; i <= 100; i++) {
+            sampler.decide(messages(200, i));
+        }
+        sampler.decide(messages(503, 1000));
+        sampler.decide(LogEvents.access("/status", null, 200, 1));
+
+        sampler.report();
+
+        assertThat(summaries.list).hasSize(2);
+        final ILoggingEvent messages = summaries.list.stream()
+                .filter(e -> e.getFormattedMessage().startsWith("POST /bots/{id}/messages"))
+                .findFirst()
+                .orElseThrow();
+        final String json = new LoggingEventJsonLayout(Collections.emptyList()).doLayout(messages);
+        assertThat(json).contains(
+                "\"endpoint\":\"POST /bots/{id}/messages\"",
+                "\"requests\":101",
+                "\"logged\":1",
+                "\"statuses\":{\"200\":100,\"503\":1}",
+                "\"latencyP50\":51",
+                "\"latencyMax\":1000");
+
+        // next window starts empty
+        summaries.list.clear();
+        sampler.report();
+        assertThat(summaries.list).isEmpty();
+    }
+
+    @Test
+    public void endpointsAreCapped() {
+        final AccessLogSampler sampler = new AccessLogSampler(0.0, 500, 400, 60_000, 3);
+        sampler.start();
+        for (int i = 0; i < 10; i++) {
+            sampler.decide(LogEvents.access("/random-" + i, null, 404, 1));
+        }
+        sampler.decide(LogEvents.access("/random-0", null, 404, 1));
+
+        sampler.report();
+
+        assertThat(summaries.list)
+                .extracting(e -> e.getFormattedMessage().replaceAll(" in \\d+s", ""))
+                .containsExactlyInAnyOrder(
+                        "POST /random-0: 2 requests, statuses: {404=2}",
+                        "POST /random-1: 1 requests, statuses: {404=1}",
+                        "POST /random-2: 1 requests, statuses: {404=1}",
+                        "other: 7 requests, statuses: {404=7}");
+    }
+
+    @Test
+    public void idsAreReplaced() {
+        final UUID id = UUID.randomUUID();
+        assertThat(AccessLogSampler.endpoint("GET", "/bots/" + id + "/assets/42"))
+                .isEqualTo("GET /bots/{id}/assets/{id}");
+        assertThat(AccessLogSampler.endpoint("GET", "/")).isEqualTo("GET /");
+        assertThat(AccessLogSampler.endpoint("POST", "/bots")).isEqualTo("POST /bots");
+    }
+
+    private static AccessLogSampler newSampler(double rate) {
+        final AccessLogSampler ret = new AccessLogSampler(rate, 500, 400, 60_000);
+        ret.start();
+        return ret;
+    }
+
+    private static IAccessEvent messages(int status, long elapsed) {
+        return LogEvents.access("/bots/2f2c1a8e-6c4a-4a54-9d5b-3c1f2d3e4f5a/messages", null, status, elapsed);
+    }
+}
@@ -0,0 +1,101 @@
+package com.wire.lithium;
+
+import com.sun.net.httpserver.HttpServer;
+import com.wire.lithium.tools.AssetStreams;
+import jakarta.ws.rs.client.ClientBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class AssetDownloadTest {
+    private HttpServer server;
+    private API api;
+
+    private byte[] plain;
+    private byte[] data;
+    private AssetStreams.Encrypted encrypted;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        plain = new byte[300_000];
+        new Random(42).nextBytes(plain);
+        final ByteArrayOutputStream target = new ByteArrayOutputStream();
+        encrypted = AssetStreams.encrypt(new ByteArrayInputStream(plain), target);
+        data = target.toByteArray();
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        final String host = "http://localhost:" + server.getAddress().getPort();
+        server.createContext("/bot/assets", exchange -> {
+            exchange.getResponseHeaders().add("Location", host + "/blob");
+            exchange.sendResponseHeaders(302, -1);
+            exchange.close();
+        });
+        server.createContext("/blob", exchange -> {
+            exchange.sendResponseHeaders(200, data.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(data);
+            }
+        });
+        server.start();
+
+        api = new API(ClientBuilder.newClient(), "token", host);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void bytesAreStillReturned() throws Exception {
+        assertThat(api.downloadAsset("3-1-asset", "token")).isEqualTo(data);
+    }
+
+    @Test
+    public void streamDecryptsAndVerifies() throws Exception {
+        try (InputStream in = AssetStreams.decrypt(api.downloadAssetStream("3-1-asset", null), encrypted.otrKey, encrypted.sha256)) {
+            assertThat(in.readAllBytes()).isEqualTo(plain);
+        }
+    }
+
+    @Test
+    public void wrongSha256Fails() throws Exception {
+        final byte[] sha256 = encrypted.sha256.clone();
+        sha256[0] ^= 1;
+
+        try (InputStream in = AssetStreams.decrypt(api.downloadAssetStream("3-1-asset", null), encrypted.otrKey, sha256)) {
+            assertThatThrownBy(in::readAllBytes)
+                    .isInstanceOf(IOException.class)
+                    .hasMessage("Failed sha256 check");
+        }
+    }
+
+    @Test
+    public void transferIntoFile() throws Exception {
+        final Path file = Files.createTempFile("asset", ".bin");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            assertThat(api.downloadAsset("3-1-asset", null, channel)).isEqualTo(data.length);
+        }
+
+        try {
+            assertThat(Files.readAllBytes(file)).isEqualTo(data);
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.wire.lithium;
+
+import com.sun.net.httpserver.HttpServer;
+import com.wire.lithium.client.StreamingClient;
+import com.wire.lithium.tools.AssetStreams;
+import com.wire.xenon.assets.FileAsset;
+import com.wire.xenon.models.AssetKey;
+import com.wire.xenon.tools.Util;
+import jakarta.ws.rs.client.Client;
+import jakarta.ws.rs.client.ClientBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class AssetUploadTest {
+    private HttpServer server;
+    private final AtomicReference<byte[]> received = new AtomicReference<>();
+    private final AtomicReference<String> contentLength = new AtomicReference<>();
+    private API api;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/bot/assets", exchange -> {
+            contentLength.set(exchange.getRequestHeaders().getFirst("Content-Length"));
+            received.set(exchange.getRequestBody().readAllBytes());
+
+            byte[] response = "{\"key\": \"3-1-asset\", \"token\": \"asset-token\"}".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(201, response.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(response);
+            }
+        });
+        server.createContext("/stalled/bot/assets", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            try {
+                Thread.sleep(5_000);
+            } catch (InterruptedException ignored) {
+            }
+            exchange.close();
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+
+        api = new API(ClientBuilder.newClient(), "token", "http://localhost:" + server.getAddress().getPort());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void encryptedStreamDecrypts() throws Exception {
+        final byte[] plain = random(100_000);
+        final ByteArrayOutputStream target = new ByteArrayOutputStream();
+
+        final AssetStreams.Encrypted encrypted = AssetStreams.encrypt(new ByteArrayInputStream(plain), target);
+
+        final byte[] data = target.toByteArray();
+        assertThat(encrypted.length).isEqualTo(data.length);
+        assertThat(encrypted.md5).isEqualTo(Util.calcMd5(data));
+        assertThat(encrypted.sha256).isEqualTo(MessageDigest.getInstance("SHA-256").digest(data));
+        assertThat(Util.decrypt(encrypted.otrKey, data)).isEqualTo(plain);
+    }
+
+    @Test
+    public void fileUploadIsSentAsMultipart() throws Exception {
+        final Path file = Files.createTempFile("asset", ".bin");
+        try {
+            final AssetStreams.Encrypted encrypted = AssetStreams.encrypt(new ByteArrayInputStream(random(200_000)),
+                    Files.newOutputStream(file));
+
+            final AssetKey key = api.uploadAsset(file, "application/pdf", false, "persistent");
+
+            assertThat(key.id).isEqualTo("3-1-asset");
+            assertThat(key.token).isEqualTo("asset-token");
+
+            final byte[] expected = multipart(Files.readAllBytes(file), encrypted.md5, "application/pdf");
+            assertThat(received.get()).isEqualTo(expected);
+            assertThat(contentLength.get()).isEqualTo(String.valueOf(expected.length));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void assetUploadIsSentAsMultipart() throws Exception {
+        final FileAsset asset = new FileAsset(random(10_000), "application/pdf", UUID.randomUUID());
+
+        final AssetKey key = api.uploadAsset(asset);
+
+        assertThat(key.id).isEqualTo("3-1-asset");
+        final byte[] data = asset.getEncryptedData();
+        assertThat(received.get()).isEqualTo(multipart(data, Util.calcMd5(data), "application/pdf"));
+    }
+
+    @Test
+    public void stalledUploadTimesOut() throws Exception {
+        final StreamingClient streaming = new StreamingClient(HttpClient.newHttpClient(), Duration.ofMillis(200));
+        final Client client = ClientBuilder.newBuilder()
+                .property(StreamingClient.PROPERTY, streaming)
+                .build();
+        final API stalled = new API(client, "token", "http://localhost:" + server.getAddress().getPort() + "/stalled");
+        final byte[] data = random(1_000);
+
+        final long start = System.currentTimeMillis();
+        assertThatThrownBy(() -> stalled.uploadAsset(new ByteArrayInputStream(data), data.length, Util.calcMd5(data),
+                "application/pdf", false, "persistent"))
+                .isInstanceOf(HttpTimeoutException.class);
+        assertThat(System.currentTimeMillis() - start).isLessThan(4_000);
+    }
+
+    private static byte[] multipart(byte[] data, String md5, String mimeType) throws Exception {
+        final String head = "--frontier\r\n" +
+                "Content-Type: application/json; charset=utf-8\r\n" +
+                "Content-Length: 44\r\n\r\n" +
+                "{\"public\": false, \"retention\": \"persistent\"}\r\n" +
+                "--frontier\r\n" +
+                "Content-Type: " + mimeType + "\r\n" +
+                "Content-Length: " + data.length + "\r\n" +
+                "Content-MD5: " + md5 + "\r\n\r\n";
+        final String tail = "\r\n--frontier--\r\n";
+
+        final ByteArrayOutputStream ret = new ByteArrayOutputStream();
+        ret.write(head.getBytes(StandardCharsets.UTF_8));
+        ret.write(data);
+        ret.write(tail.getBytes(StandardCharsets.UTF_8));
+        return ret.toByteArray();
+    }
+
+    private static byte[] random(int size) {
+        final byte[] ret = new byte[size];
+        new Random(size).nextBytes(ret);
+        return ret;
+    }
+}
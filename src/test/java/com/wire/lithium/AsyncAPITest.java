@@ -0,0 +1,178 @@
+package com.wire.lithium;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.wire.lithium.client.StreamingClient;
+import com.wire.xenon.backend.models.User;
+import com.wire.xenon.exceptions.HttpException;
+import com.wire.xenon.models.otr.Devices;
+import com.wire.xenon.models.otr.OtrMessage;
+import com.wire.xenon.models.otr.Recipients;
+import jakarta.ws.rs.client.Client;
+import jakarta.ws.rs.client.ClientBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class AsyncAPITest {
+    private final UUID userId = UUID.randomUUID();
+    private final List<String> queries = new ArrayList<>();
+
+    private HttpServer server;
+    private String host;
+    private AsyncAPI api;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newFixedThreadPool(4));
+        host = "http://localhost:" + server.getAddress().getPort();
+
+        server.createContext("/bot/messages", exchange -> {
+            final String query = exchange.getRequestURI().getQuery();
+            synchronized (queries) {
+                queries.add(query);
+            }
+            exchange.getRequestBody().readAllBytes();
+            if (query == null)
+                respond(exchange, 412, String.format("{\"missing\": {\"%s\": [\"c1\", \"c2\"]}}", userId));
+            else
+                respond(exchange, 201, "{}");
+        });
+        server.createContext("/bot/users", exchange -> respond(exchange, 200,
+                String.format("[{\"id\": \"%s\", \"name\": \"Alice\", \"unknown\": 1}]", userId)));
+        server.createContext("/bot/self", exchange -> respond(exchange, 403, "{\"label\": \"forbidden\"}"));
+        server.createContext("/bot/assets", exchange -> {
+            exchange.getResponseHeaders().add("Location", host + "/blob");
+            exchange.sendResponseHeaders(302, -1);
+            exchange.close();
+        });
+        server.createContext("/blob", exchange -> respond(exchange, 200, "encrypted"));
+        server.createContext("/stalled/bot/self", exchange -> {
+            try {
+                Thread.sleep(5_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            respond(exchange, 200, "{}");
+        });
+        server.start();
+
+        api = new AsyncAPI("token", host);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void missingDevicesAreReturned() throws Exception {
+        final Devices devices = api.sendMessage(new OtrMessage("bot", new Recipients())).get();
+
+        assertThat(devices.missing.toClients(userId)).containsExactly("c1", "c2");
+        assertThat(queries).containsExactly((String) null);
+    }
+
+    @Test
+    public void ignoreMissingIsSent() throws Exception {
+        final Devices devices = api.sendMessage(new OtrMessage("bot", new Recipients()), true).get();
+
+        assertThat(devices.missing).isEmpty();
+        assertThat(queries).containsExactly("ignore_missing=true");
+    }
+
+    @Test
+    public void sendsRunConcurrently() throws Exception {
+        final CompletableFuture<?>[] sends = new CompletableFuture<?>[10];
+        for (int i = 0; i < sends.length; i++) {
+            sends[i] = api.sendMessage(new OtrMessage("bot", new Recipients()), true);
+        }
+        CompletableFuture.allOf(sends).get();
+
+        assertThat(queries).hasSize(10);
+    }
+
+    @Test
+    public void usersAreParsed() throws Exception {
+        final Collection<User> users = api.getUsers(Arrays.asList(userId, UUID.randomUUID())).get();
+
+        assertThat(users).extracting(user -> user.name).containsExactly("Alice");
+        assertThat(api.getUser(userId).get().id).isEqualTo(userId);
+    }
+
+    @Test
+    public void errorCompletesExceptionally() {
+        assertThatThrownBy(() -> api.getSelf().get())
+                .isInstanceOf(ExecutionException.class)
+                .cause()
+                .isInstanceOf(HttpException.class)
+                .hasMessageContaining("forbidden");
+    }
+
+    @Test
+    public void assetFollowsRedirect() throws Exception {
+        assertThat(api.downloadAsset("3-1-asset", "token").get()).isEqualTo("encrypted".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void stalledRequestTimesOut() {
+        final StreamingClient streaming = new StreamingClient(HttpClient.newHttpClient(), Duration.ofMillis(200));
+        final Client client = ClientBuilder.newBuilder()
+                .property(StreamingClient.PROPERTY, streaming)
+                .build();
+        final AsyncAPI stalled = new API(client, "token", host + "/stalled").async();
+
+        assertThatThrownBy(() -> stalled.getSelf().get(4, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .cause()
+                .isInstanceOf(HttpTimeoutException.class);
+        client.close();
+    }
+
+    @Test
+    public void unserializableMessageCompletesExceptionally() {
+        final OtrMessage msg = new OtrMessage("bot", new Recipients()) {
+            @SuppressWarnings("unused")
+            public String getBroken() {
+                throw new IllegalStateException("broken");
+            }
+        };
+
+        final CompletableFuture<Devices> ret = api.sendMessage(msg);
+        assertThatThrownBy(ret::get)
+                .isInstanceOf(ExecutionException.class)
+                .cause()
+                .isInstanceOf(IOException.class);
+        assertThat(queries).isEmpty();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+}
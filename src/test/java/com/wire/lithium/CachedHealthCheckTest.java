@@ -0,0 +1,161 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.health.HealthCheck;
+import com.wire.bots.cryptobox.CryptoException;
+import com.wire.lithium.healthchecks.Alice2Bob;
+import com.wire.lithium.healthchecks.CachedHealthCheck;
+import com.wire.lithium.healthchecks.CryptoHealthCheck;
+import com.wire.lithium.healthchecks.StorageHealthCheck;
+import com.wire.lithium.helpers.FakeCrypto;
+import com.wire.lithium.helpers.MemStorage;
+import com.wire.lithium.helpers.Util;
+import com.wire.xenon.backend.models.NewBot;
+import com.wire.xenon.crypto.CryptoDatabase;
+import com.wire.xenon.state.State;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CachedHealthCheckTest {
+    private String rootFolder;
+    private MetricRegistry metrics;
+    private ScheduledExecutorService executor;
+
+    @BeforeEach
+    public void setUp() {
+        rootFolder = "lithium-test-data-" + UUID.randomUUID();
+        metrics = new MetricRegistry();
+        executor = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @AfterEach
+    public void clean() throws Exception {
+        executor.shutdownNow();
+        Util.deleteDir(rootFolder);
+    }
+
+    @Test
+    public void probesGetTheCachedResult() throws Exception {
+        final Counting delegate = new Counting();
+        final CachedHealthCheck check = new CachedHealthCheck(delegate, 60_000, executor, metrics);
+
+        // the first probe runs the check
+        HealthCheck.Result result = check.execute();
+        assertThat(result.isHealthy()).isTrue();
+        assertThat(result.getDetails()).containsKeys("latencyMs", "p50Ms", "p99Ms");
+        assertThat(delegate.runs.get()).isEqualTo(1);
+
+        for (int i = 0; i < 10; i++) {
+            check.execute();
+        }
+        assertThat(delegate.runs.get()).isEqualTo(1);
+
+        delegate.healthy.set(false);
+        result = check.refresh();
+        assertThat(result.isHealthy()).isFalse();
+        assertThat(check.execute().isHealthy()).isFalse();
+        assertThat(check.execute().getMessage()).isEqualTo("down");
+
+        final String prefix = MetricRegistry.name(Counting.class);
+        assertThat(metrics.timer(prefix + ".latency").getCount()).isEqualTo(2);
+        assertThat(metrics.meter(prefix + ".failures").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void runsInTheBackgroundAndReportsHangs() throws Exception {
+        final Counting delegate = new Counting();
+        final CachedHealthCheck check = new CachedHealthCheck(delegate, 20, executor, metrics);
+        check.start();
+        for (int i = 0; i < 100 && delegate.runs.get() < 3; i++) {
+            Thread.sleep(10);
+        }
+        assertThat(delegate.runs.get()).isGreaterThanOrEqualTo(3);
+        assertThat(check.execute().isHealthy()).isTrue();
+
+        // no new result for more than three intervals
+        check.stop();
+        Thread.sleep(100);
+        final HealthCheck.Result result = check.execute();
+        assertThat(result.isHealthy()).isFalse();
+        assertThat(result.getMessage()).startsWith("No result for");
+    }
+
+    @Test
+    public void cryptoChecksLeaveNoKeys() {
+        final MemStorage storage = new MemStorage();
+
+        assertThat(new Alice2Bob(id -> new CryptoDatabase(id, storage, rootFolder)).execute().isHealthy()).isTrue();
+        assertThat(new CryptoHealthCheck(id -> new CryptoDatabase(id, storage, rootFolder)).execute().isHealthy())
+                .isTrue();
+        assertThat(storage.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void aliceIsPurgedWhenBobCannotBeCreated() {
+        final List<FakeCrypto> boxes = new ArrayList<>();
+
+        final HealthCheck.Result result = new Alice2Bob(id -> {
+            if (!boxes.isEmpty())
+                throw new CryptoException(new IOException("no storage for bob"));
+            final FakeCrypto ret = new FakeCrypto();
+            boxes.add(ret);
+            return ret;
+        }).execute();
+
+        assertThat(result.isHealthy()).isFalse();
+        assertThat(result.getMessage()).contains("no storage for bob");
+        assertThat(boxes).hasSize(1);
+        assertThat(boxes.get(0).isClosed()).isTrue();
+    }
+
+    @Test
+    public void storageCheckLeavesNoState() {
+        final Map<UUID, NewBot> states = new ConcurrentHashMap<>();
+
+        final HealthCheck.Result result = new StorageHealthCheck(id -> new State() {
+            @Override
+            public boolean saveState(NewBot newBot) {
+                states.put(id, newBot);
+                return true;
+            }
+
+            @Override
+            public NewBot getState() {
+                return states.get(id);
+            }
+
+            @Override
+            public boolean removeState() {
+                return states.remove(id) != null;
+            }
+        }).execute();
+
+        assertThat(result.isHealthy()).isTrue();
+        assertThat(states).isEmpty();
+    }
+
+    private static class Counting extends HealthCheck {
+        final AtomicInteger runs = new AtomicInteger();
+        final AtomicBoolean healthy = new AtomicBoolean(true);
+
+        @Override
+        protected Result check() {
+            runs.incrementAndGet();
+            return healthy.get() ? Result.healthy() : Result.unhealthy("down");
+        }
+    }
+}
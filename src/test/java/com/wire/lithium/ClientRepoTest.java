@@ -0,0 +1,198 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.MetricRegistry;
+import com.wire.xenon.WireClient;
+import com.wire.xenon.WireClientBase;
+import com.wire.xenon.backend.models.Conversation;
+import com.wire.xenon.backend.models.NewBot;
+import com.wire.xenon.crypto.Crypto;
+import com.wire.xenon.models.otr.Missing;
+import com.wire.xenon.models.otr.PreKey;
+import com.wire.xenon.models.otr.PreKeys;
+import com.wire.xenon.models.otr.Recipients;
+import com.wire.xenon.state.State;
+import jakarta.ws.rs.client.Client;
+import jakarta.ws.rs.client.ClientBuilder;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ClientRepoTest {
+    private final AtomicInteger stateLoads = new AtomicInteger();
+    private final AtomicInteger cryptoCreates = new AtomicInteger();
+    private final AtomicInteger cryptoCloses = new AtomicInteger();
+
+    private final Client httpClient = ClientBuilder.newClient();
+
+    private MetricRegistry metrics;
+    private ClientRepo repo;
+    private UUID botId;
+
+    @BeforeEach
+    public void setup() {
+        botId = UUID.randomUUID();
+        metrics = new MetricRegistry();
+        repo = new ClientRepo(httpClient, id -> newCrypto(), this::newState, new Configuration.ClientCache(), metrics);
+    }
+
+    @Test
+    public void stateAndCryptoAreReused() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            try (WireClient client = repo.getClient(botId)) {
+                assertThat(client.getId()).isEqualTo(botId);
+            }
+        }
+
+        assertThat(stateLoads.get()).isEqualTo(1);
+        assertThat(cryptoCreates.get()).isEqualTo(1);
+        assertThat(cryptoCloses.get()).isZero();
+        assertThat(metrics.counter("com.wire.lithium.ClientRepo.cache.hits").getCount()).isEqualTo(2);
+        assertThat(metrics.counter("com.wire.lithium.ClientRepo.cache.misses").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void concurrentClientGetsOwnCrypto() throws Exception {
+        try (WireClient first = repo.getClient(botId)) {
+            try (WireClient second = repo.getClient(botId)) {
+                assertThat(cryptoCreates.get()).isEqualTo(2);
+            }
+            // the second box was not cached so it is closed as before
+            assertThat(cryptoCloses.get()).isEqualTo(1);
+            assertThat(first.isClosed()).isFalse();
+        }
+    }
+
+    @Test
+    public void purgeInvalidates() throws Exception {
+        repo.getClient(botId).close();
+        repo.purgeBot(botId);
+        repo.getClient(botId).close();
+
+        assertThat(stateLoads.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void purgedCryptoIsEvicted() throws Exception {
+        try (WireClient client = repo.getClient(botId)) {
+            crypto(client).purge();
+        }
+        for (int i = 0; i < 2; i++) {
+            try (WireClient client = repo.getClient(botId)) {
+                assertThat(client.getId()).isEqualTo(botId);
+            }
+        }
+
+        // one new cached box after the purge, not a new box per client
+        assertThat(stateLoads.get()).isEqualTo(2);
+        assertThat(cryptoCreates.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void disabledCacheLoadsEveryTime() throws Exception {
+        Configuration.ClientCache config = new Configuration.ClientCache();
+        config.enabled = false;
+        repo = new ClientRepo(httpClient, id -> newCrypto(), this::newState, config, metrics);
+
+        repo.getClient(botId).close();
+        repo.getClient(botId).close();
+
+        assertThat(stateLoads.get()).isEqualTo(2);
+        assertThat(cryptoCloses.get()).isEqualTo(2);
+    }
+
+    private static Crypto crypto(WireClient client) throws Exception {
+        final Field field = WireClientBase.class.getDeclaredField("crypto");
+        field.setAccessible(true);
+        return (Crypto) field.get(client);
+    }
+
+    private State newState(UUID id) {
+        return new State() {
+            @Override
+            public boolean saveState(NewBot newBot) {
+                return true;
+            }
+
+            @Override
+            public NewBot getState() {
+                stateLoads.incrementAndGet();
+                NewBot bot = new NewBot();
+                bot.id = id;
+                bot.token = "token";
+                bot.client = "client";
+                bot.conversation = new Conversation();
+                bot.conversation.id = UUID.randomUUID();
+                return bot;
+            }
+
+            @Override
+            public boolean removeState() {
+                return true;
+            }
+        };
+    }
+
+    private Crypto newCrypto() {
+        cryptoCreates.incrementAndGet();
+        return new Crypto() {
+            private boolean closed;
+
+            @Override
+            public byte[] getIdentity() {
+                return new byte[0];
+            }
+
+            @Override
+            public byte[] getLocalFingerprint() {
+                return new byte[0];
+            }
+
+            @Override
+            public PreKey newLastPreKey() {
+                return new PreKey();
+            }
+
+            @Override
+            public ArrayList<PreKey> newPreKeys(int from, int count) {
+                return new ArrayList<>();
+            }
+
+            @Override
+            public Recipients encrypt(PreKeys preKeys, byte[] content) {
+                return new Recipients();
+            }
+
+            @Override
+            public Recipients encrypt(Missing missing, byte[] content) {
+                return new Recipients();
+            }
+
+            @Override
+            public String decrypt(UUID userId, String clientId, String cypher) {
+                return cypher;
+            }
+
+            @Override
+            public boolean isClosed() {
+                return closed;
+            }
+
+            @Override
+            public void purge() {
+                closed = true;
+            }
+
+            @Override
+            public void close() {
+                closed = true;
+                cryptoCloses.incrementAndGet();
+            }
+        };
+    }
+}
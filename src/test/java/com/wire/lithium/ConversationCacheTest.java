@@ -0,0 +1,147 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.MetricRegistry;
+import com.wire.lithium.helpers.FakeCrypto;
+import com.wire.lithium.helpers.StubAPI;
+import com.wire.lithium.server.resources.MessageResource;
+import com.wire.xenon.MessageHandlerBase;
+import com.wire.xenon.WireAPI;
+import com.wire.xenon.WireClient;
+import com.wire.xenon.backend.models.Conversation;
+import com.wire.xenon.backend.models.NewBot;
+import com.wire.xenon.backend.models.Payload;
+import com.wire.xenon.state.State;
+import jakarta.ws.rs.client.Client;
+import jakarta.ws.rs.client.ClientBuilder;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ConversationCacheTest {
+    private final Client httpClient = ClientBuilder.newClient();
+    private int loads;
+
+    private MetricRegistry metrics;
+    private StubAPI api;
+    private ClientRepo repo;
+    private MessageResource resource;
+    private UUID botId;
+    private UUID convId;
+
+    @BeforeEach
+    public void setup() {
+        botId = UUID.randomUUID();
+        convId = UUID.randomUUID();
+        metrics = new MetricRegistry();
+        api = new StubAPI(httpClient).onConversation(this::load);
+        repo = newRepo(new Configuration.ConversationCache());
+        resource = new MessageResource(new MessageHandlerBase() {
+        }, repo);
+    }
+
+    @Test
+    public void conversationIsLoadedOnce() throws Exception {
+        assertThat(conversation().name).isEqualTo("name-1");
+        assertThat(conversation().name).isEqualTo("name-1");
+
+        assertThat(loads).isEqualTo(1);
+        assertThat(metrics.counter("com.wire.lithium.ConversationCache.hits").getCount()).isEqualTo(1);
+        assertThat(metrics.counter("com.wire.lithium.ConversationCache.misses").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void renameInvalidates() throws Exception {
+        conversation();
+
+        assertThat(resource.newMessage(botId, UUID.randomUUID(), event("conversation.rename")).getStatus()).isEqualTo(200);
+
+        assertThat(conversation().name).isEqualTo("name-2");
+        assertThat(loads).isEqualTo(2);
+        assertThat(metrics.meter("com.wire.lithium.ConversationCache.invalidations").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void otherEventsKeepConversation() throws Exception {
+        conversation();
+
+        resource.newMessage(botId, UUID.randomUUID(), event("conversation.typing"));
+        conversation();
+
+        assertThat(loads).isEqualTo(1);
+    }
+
+    @Test
+    public void disabledLoadsEveryTime() throws Exception {
+        Configuration.ConversationCache config = new Configuration.ConversationCache();
+        config.enabled = false;
+        repo = newRepo(config);
+
+        conversation();
+        conversation();
+
+        assertThat(repo.getConversationCache()).isNull();
+        assertThat(loads).isEqualTo(2);
+    }
+
+    private Conversation conversation() throws Exception {
+        try (WireClient client = repo.getClient(botId)) {
+            return client.getConversation();
+        }
+    }
+
+    private Payload event(String type) {
+        Payload payload = new Payload();
+        payload.type = type;
+        payload.from = new Payload.Qualified(UUID.randomUUID(), "");
+        payload.conversation = new Payload.Qualified(convId, "");
+        payload.data = new Payload.Data();
+        payload.data.name = "renamed";
+        return payload;
+    }
+
+    private ClientRepo newRepo(Configuration.ConversationCache conversations) {
+        Configuration config = new Configuration();
+        config.conversationCache = conversations;
+        return new ClientRepo(httpClient, id -> new FakeCrypto(), this::newState, config, metrics) {
+            @Override
+            protected WireAPI createApi(NewBot state) {
+                return api;
+            }
+        };
+    }
+
+    private State newState(UUID id) {
+        return new State() {
+            @Override
+            public boolean saveState(NewBot newBot) {
+                return true;
+            }
+
+            @Override
+            public NewBot getState() {
+                NewBot bot = new NewBot();
+                bot.id = id;
+                bot.token = "token";
+                bot.client = "client";
+                bot.conversation = new Conversation();
+                bot.conversation.id = convId;
+                return bot;
+            }
+
+            @Override
+            public boolean removeState() {
+                return true;
+            }
+        };
+    }
+
+    private Conversation load(UUID botId) {
+        loads++;
+        Conversation conversation = new Conversation();
+        conversation.name = "name-" + loads;
+        return conversation;
+    }
+}
@@ -0,0 +1,193 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.MetricRegistry;
+import com.wire.lithium.helpers.FakeCrypto;
+import com.wire.lithium.helpers.StubAPI;
+import com.wire.xenon.WireAPI;
+import com.wire.xenon.WireClient;
+import com.wire.xenon.assets.MessageText;
+import com.wire.xenon.backend.models.Conversation;
+import com.wire.xenon.backend.models.NewBot;
+import com.wire.xenon.models.otr.Devices;
+import com.wire.xenon.models.otr.Missing;
+import com.wire.xenon.models.otr.OtrMessage;
+import com.wire.xenon.state.State;
+import jakarta.ws.rs.client.Client;
+import jakarta.ws.rs.client.ClientBuilder;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DeviceCacheTest {
+    private final Client httpClient = ClientBuilder.newClient();
+    private final Missing devices = new Missing();
+    private final Missing deleted = new Missing();
+    private int fetches;
+    private int sends;
+    private int retries;
+
+    private MetricRegistry metrics;
+    private ClientRepo repo;
+    private StubAPI api;
+    private UUID botId;
+    private UUID convId;
+    private UUID alice;
+    private UUID bob;
+
+    @BeforeEach
+    public void setup() {
+        botId = UUID.randomUUID();
+        convId = UUID.randomUUID();
+        alice = UUID.randomUUID();
+        bob = UUID.randomUUID();
+        metrics = new MetricRegistry();
+        api = new StubAPI(httpClient).onSend(this::reply);
+        devices.add(alice, "alice-1");
+        devices.add(bob, "bob-1");
+        repo = newRepo(new Configuration.DeviceCache());
+    }
+
+    @Test
+    public void devicesAreFetchedOncePerConversation() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            send(botId);
+        }
+
+        assertThat(fetches).isEqualTo(1);
+        assertThat(sends).isEqualTo(3);
+        assertThat(metrics.meter("com.wire.lithium.BotClient.sent").getCount()).isEqualTo(4);
+        assertThat(metrics.meter("com.wire.lithium.BotClient.412").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void botsInTheSameConversationAreCachedApart() throws Exception {
+        final UUID other = UUID.randomUUID();
+        send(botId);
+        send(other);
+        assertThat(fetches).isEqualTo(2);
+
+        repo.getDeviceCache().removeUsers(other, convId, Collections.singletonList(bob));
+        assertThat(repo.getDeviceCache().get(other, convId).toUserIds()).containsExactly(alice);
+        assertThat(repo.getDeviceCache().get(botId, convId).toUserIds()).containsExactlyInAnyOrder(alice, bob);
+
+        repo.getDeviceCache().invalidate(other, convId);
+        assertThat(repo.getDeviceCache().get(other, convId)).isNull();
+        assertThat(repo.getDeviceCache().get(botId, convId)).isNotNull();
+    }
+
+    @Test
+    public void newClientIsLearnedFrom412() throws Exception {
+        send(botId);
+        devices.add(bob, "bob-2");
+
+        send(botId);
+        assertThat(retries).isEqualTo(1);
+        assertThat(repo.getDeviceCache().get(botId, convId).toClients(bob)).containsExactlyInAnyOrder("bob-1", "bob-2");
+
+        send(botId);
+        assertThat(retries).isEqualTo(1);
+        assertThat(fetches).isEqualTo(1);
+        assertThat(metrics.meter("com.wire.lithium.BotClient.412").getCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void deletedAndLeftAreRemoved() throws Exception {
+        send(botId);
+
+        devices.remove(alice);
+        deleted.add(alice, "alice-1");
+        send(botId);
+        assertThat(repo.getDeviceCache().get(botId, convId).toUserIds()).containsExactly(bob);
+
+        repo.getDeviceCache().removeUsers(botId, convId, Collections.singletonList(bob));
+        assertThat(repo.getDeviceCache().get(botId, convId)).isEmpty();
+    }
+
+    @Test
+    public void disabledFetchesEveryTime() throws Exception {
+        Configuration.DeviceCache config = new Configuration.DeviceCache();
+        config.enabled = false;
+        repo = newRepo(config);
+
+        // each BotClient asks for the devices once
+        send(botId);
+        send(botId);
+
+        assertThat(repo.getDeviceCache()).isNull();
+        assertThat(fetches).isEqualTo(2);
+    }
+
+    private void send(UUID botId) throws Exception {
+        try (WireClient client = repo.getClient(botId)) {
+            client.send(new MessageText("Hi"));
+        }
+    }
+
+    private ClientRepo newRepo(Configuration.DeviceCache devices) {
+        Configuration config = new Configuration();
+        config.deviceCache = devices;
+        return new ClientRepo(httpClient, id -> new FakeCrypto(), this::newState, config, metrics) {
+            @Override
+            protected WireAPI createApi(NewBot state) {
+                return api;
+            }
+        };
+    }
+
+    /**
+     * Answers like the Backend: clients of the conversation the message was not encrypted for are missing
+     */
+    private Devices reply(OtrMessage msg, boolean ignoreMissing) {
+        if (ignoreMissing) {
+            retries++;
+            return new Devices();
+        }
+
+        if (msg.size() == 0)
+            fetches++;
+        else
+            sends++;
+
+        Devices ret = new Devices();
+        for (UUID userId : devices.toUserIds()) {
+            for (String clientId : devices.toClients(userId)) {
+                if (msg.get(userId, clientId) == null)
+                    ret.missing.add(userId, clientId);
+            }
+        }
+        for (UUID userId : deleted.toUserIds()) {
+            ret.deleted.add(userId, deleted.toClients(userId));
+        }
+        deleted.clear();
+        return ret;
+    }
+
+    private State newState(UUID id) {
+        return new State() {
+            @Override
+            public boolean saveState(NewBot newBot) {
+                return true;
+            }
+
+            @Override
+            public NewBot getState() {
+                NewBot bot = new NewBot();
+                bot.id = id;
+                bot.token = "token";
+                bot.client = "client";
+                bot.conversation = new Conversation();
+                bot.conversation.id = convId;
+                return bot;
+            }
+
+            @Override
+            public boolean removeState() {
+                return true;
+            }
+        };
+    }
+}
@@ -0,0 +1,163 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wire.lithium.helpers.FakeCrypto;
+import com.wire.lithium.helpers.StubAPI;
+import com.wire.lithium.server.tasks.FleetConversationTask;
+import com.wire.xenon.WireAPI;
+import com.wire.xenon.backend.models.Conversation;
+import com.wire.xenon.backend.models.NewBot;
+import com.wire.xenon.state.State;
+import jakarta.ws.rs.client.Client;
+import jakarta.ws.rs.client.ClientBuilder;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FleetTaskTest {
+    private final Client httpClient = ClientBuilder.newClient();
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final StubAPI.Probe probe = new StubAPI.Probe(20);
+
+    private List<UUID> bots;
+    private UUID broken;
+    private FleetConversationTask task;
+
+    @BeforeEach
+    public void setup() {
+        bots = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            bots.add(UUID.randomUUID());
+        }
+        broken = bots.get(7);
+
+        Configuration config = new Configuration();
+        ClientRepo repo = new ClientRepo(httpClient, id -> new FakeCrypto(), this::newState, config,
+                new MetricRegistry()) {
+            @Override
+            protected WireAPI createApi(NewBot state) {
+                return new StubAPI(httpClient, state.id, probe).onConversation(FleetTaskTest.this::conversation);
+            }
+        };
+        task = new FleetConversationTask(repo, () -> bots);
+    }
+
+    @Test
+    public void allBotsStreamedWithBoundedParallelism() throws Exception {
+        final List<JsonNode> lines = execute(Map.of("all", List.of("true"), "parallelism", List.of("4")));
+
+        assertThat(lines).hasSize(21);
+        final List<JsonNode> results = lines.subList(0, 20);
+        assertThat(results.stream().map(l -> UUID.fromString(l.get("bot").asText())).collect(Collectors.toSet()))
+                .containsExactlyInAnyOrderElementsOf(bots);
+        assertThat(results.stream().map(l -> l.get("done").asInt()).collect(Collectors.toList()))
+                .containsExactlyElementsOf(range(1, 20));
+        assertThat(results).allMatch(l -> l.get("total").asInt() == 20);
+
+        // the broken bot does not stop the others
+        final JsonNode failed = results.stream()
+                .filter(l -> l.get("bot").asText().equals(broken.toString()))
+                .findFirst()
+                .orElseThrow();
+        assertThat(failed.get("error").asText()).isEqualTo("backend is down");
+        assertThat(results.stream().filter(l -> l.has("result")).count()).isEqualTo(19);
+
+        final JsonNode summary = lines.get(20);
+        assertThat(summary.get("total").asInt()).isEqualTo(20);
+        assertThat(summary.get("failed").asInt()).isEqualTo(1);
+
+        assertThat(probe.getMaxInFlight()).isBetween(2, 4);
+    }
+
+    @Test
+    public void botList() throws Exception {
+        final String list = bots.get(0) + "," + bots.get(1);
+        final List<JsonNode> lines = execute(Map.of("bot", List.of(list, bots.get(2).toString())));
+
+        assertThat(lines).hasSize(4);
+        assertThat(lines.get(0).get("result").get("name").asText()).startsWith("conv-");
+        assertThat(lines.get(3).get("total").asInt()).isEqualTo(3);
+    }
+
+    @Test
+    public void missingBots() throws Exception {
+        final List<JsonNode> lines = execute(Map.of());
+
+        assertThat(lines).hasSize(1);
+        assertThat(lines.get(0).get("error").asText()).isEqualTo("Missing bot or all=true");
+    }
+
+    @Test
+    public void invalidParallelism() throws Exception {
+        final List<JsonNode> lines = execute(Map.of("all", List.of("true"), "parallelism", List.of("x")));
+
+        assertThat(lines).hasSize(1);
+        assertThat(lines.get(0).get("error").asText()).isEqualTo("Invalid parallelism: x, expected 1 to 64");
+        assertThat(probe.getMaxInFlight()).isZero();
+    }
+
+    private List<JsonNode> execute(Map<String, List<String>> parameters) throws Exception {
+        final StringWriter out = new StringWriter();
+        task.execute(parameters, new PrintWriter(out));
+
+        final List<JsonNode> ret = new ArrayList<>();
+        for (String line : out.toString().split("\n")) {
+            ret.add(mapper.readTree(line));
+        }
+        return ret;
+    }
+
+    private Conversation conversation(UUID botId) {
+        if (botId.equals(broken))
+            throw new IllegalStateException("backend is down");
+
+        Conversation conversation = new Conversation();
+        conversation.id = botId;
+        conversation.name = "conv-" + botId;
+        return conversation;
+    }
+
+    private static List<Integer> range(int from, int to) {
+        final List<Integer> ret = new ArrayList<>();
+        for (int i = from; i <= to; i++) {
+            ret.add(i);
+        }
+        return ret;
+    }
+
+    private State newState(UUID id) {
+        return new State() {
+            @Override
+            public boolean saveState(NewBot newBot) {
+                return true;
+            }
+
+            @Override
+            public NewBot getState() {
+                NewBot bot = new NewBot();
+                bot.id = id;
+                bot.token = "token";
+                bot.client = "client";
+                bot.conversation = new Conversation();
+                bot.conversation.id = id;
+                return bot;
+            }
+
+            @Override
+            public boolean removeState() {
+                return true;
+            }
+        };
+    }
+}
@@ -0,0 +1,120 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.jakarta.rs.json.JacksonJsonProvider;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.wire.lithium.client.Http2ConnectorProvider;
+import com.wire.xenon.backend.models.User;
+import com.wire.xenon.models.otr.Devices;
+import com.wire.xenon.models.otr.OtrMessage;
+import com.wire.xenon.models.otr.Recipients;
+import jakarta.ws.rs.client.Client;
+import jakarta.ws.rs.client.ClientBuilder;
+import org.glassfish.jersey.client.ClientConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class Http2ConnectorTest {
+    private final UUID userId = UUID.randomUUID();
+
+    private HttpServer server;
+    private MetricRegistry metrics;
+    private Client client;
+    private API api;
+    private String host;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        host = "http://localhost:" + server.getAddress().getPort();
+
+        server.createContext("/bot/messages", exchange -> {
+            final String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            assertThat(body).contains("\"sender\":\"bot\"");
+            assertThat(exchange.getRequestHeaders().getFirst("Authorization")).isEqualTo("Bearer token");
+            respond(exchange, 412, String.format("{\"missing\": {\"%s\": [\"c1\"]}}", userId));
+        });
+        server.createContext("/bot/users", exchange -> respond(exchange, 200,
+                String.format("[{\"id\": \"%s\", \"name\": \"Alice\"}]", userId)));
+        server.createContext("/bot/assets", exchange -> {
+            exchange.getResponseHeaders().add("Location", host + "/blob");
+            exchange.sendResponseHeaders(302, -1);
+            exchange.close();
+        });
+        server.createContext("/moved", exchange -> {
+            exchange.getResponseHeaders().add("Location", "/blob");
+            exchange.sendResponseHeaders(301, -1);
+            exchange.close();
+        });
+        server.createContext("/blob", exchange -> respond(exchange, 200, "encrypted"));
+        server.start();
+
+        metrics = new MetricRegistry();
+        final ClientConfig config = new ClientConfig()
+                .connectorProvider(new Http2ConnectorProvider(Duration.ofSeconds(5), null, metrics))
+                .register(JacksonJsonProvider.class);
+        client = ClientBuilder.newClient(config);
+        api = new API(client, "token", host);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        client.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void missingDevicesAreReturned() throws Exception {
+        final Devices devices = api.sendMessage(new OtrMessage("bot", new Recipients()));
+
+        assertThat(devices.missing.toClients(userId)).containsExactly("c1");
+        assertThat(metrics.meter("com.wire.lithium.client.Http2Connector.responses.http1").getCount()).isEqualTo(1);
+        assertThat(metrics.timer("com.wire.lithium.client.Http2Connector.requests").getCount()).isEqualTo(1);
+        assertThat(metrics.counter("com.wire.lithium.client.Http2Connector.streams.active").getCount()).isZero();
+    }
+
+    @Test
+    public void entityIsRead() {
+        final User user = api.getUser(userId);
+
+        assertThat(user.name).isEqualTo("Alice");
+        assertThat(api.getUsers(Collections.singletonList(userId))).hasSize(1);
+    }
+
+    @Test
+    public void redirectIsFollowedUnlessDisabled() throws Exception {
+        // downloadAsset turns redirects off and follows the Location itself
+        assertThat(api.downloadAsset("3-1-asset", "token")).isEqualTo("encrypted".getBytes(StandardCharsets.UTF_8));
+
+        final String body = client.target(host).path("moved").request().get(String.class);
+        assertThat(body).isEqualTo("encrypted");
+    }
+
+    @Test
+    public void asyncInvocation() throws Exception {
+        final String body = client.target(host).path("blob").request().async().get(String.class).get();
+
+        assertThat(body).isEqualTo("encrypted");
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+}
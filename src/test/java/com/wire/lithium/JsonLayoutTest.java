@@ -0,0 +1,91 @@
+package com.wire.lithium;
+
+import ch.qos.logback.access.spi.IAccessEvent;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import com.wire.lithium.helpers.LogEvents;
+import com.wire.lithium.helpers.MapJsonLayouts;
+import com.wire.lithium.server.monitoring.AbstractJsonLayout;
+import com.wire.lithium.server.monitoring.AccessEventJsonLayout;
+import com.wire.lithium.server.monitoring.JsonEncoder;
+import com.wire.lithium.server.monitoring.LoggingEventJsonLayout;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.MDC;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JsonLayoutTest {
+    private final AbstractJsonLayout<ILoggingEvent> logs = new LoggingEventJsonLayout(Collections.emptyList());
+    private final AbstractJsonLayout<IAccessEvent> access = new AccessEventJsonLayout(Collections.emptyList());
+
+    @AfterEach
+    public void tearDown() {
+        MDC.clear();
+    }
+
+    @Test
+    public void logIsUnchanged() {
+        assertSame(LogEvents.log("Hello {} \"quoted\" ü\n", null, "world"));
+        assertSame(LogEvents.log("Failed", new IllegalStateException("boom")));
+
+        MDC.put("botId", "2f2c1a8e-6c4a-4a54-9d5b-3c1f2d3e4f5a");
+        MDC.put("eventId", "e1");
+        MDC.put("conversationId", "c1");
+        assertSame(LogEvents.log("With MDC", null));
+
+        // MDC value replaces the field of the same name
+        MDC.put("message", "from mdc");
+        MDC.put("exception", "from mdc");
+        assertSame(LogEvents.log("Overridden", new IllegalStateException("boom")));
+        assertSame(LogEvents.log("Not thrown", null));
+    }
+
+    @Test
+    public void accessIsUnchanged() {
+        assertSame(LogEvents.access(null));
+        assertSame(LogEvents.access("id=1"));
+
+        MDC.put("requestId", "r1");
+        MDC.put("method", "GET");
+        assertSame(LogEvents.access(" "));
+    }
+
+    @Test
+    public void encoderWritesUtf8() {
+        MDC.put("botId", "büot");
+        final ILoggingEvent event = LogEvents.log("Grüße", null);
+
+        final JsonEncoder<ILoggingEvent> encoder = new JsonEncoder<>(logs);
+        final String expected = new MapJsonLayouts.LoggingEvent().doLayout(event);
+
+        assertThat(new String(encoder.encode(event), StandardCharsets.UTF_8)).isEqualTo(expected);
+        assertThat(new String(encoder.encode(event), StandardCharsets.UTF_8)).isEqualTo(expected);
+    }
+
+    @Test
+    public void layoutOverridingDoLayoutOnlyEncodes() {
+        MDC.put("botId", "bot-1");
+        final ILoggingEvent event = LogEvents.log("Legacy", null);
+        final MapJsonLayouts.LoggingEvent legacy = new MapJsonLayouts.LoggingEvent();
+
+        assertThat(new String(new JsonEncoder<>(legacy).encode(event), StandardCharsets.UTF_8))
+                .isEqualTo(legacy.doLayout(event))
+                .contains("\"botId\":\"bot-1\"");
+    }
+
+    private void assertSame(ILoggingEvent event) {
+        final String expected = new MapJsonLayouts.LoggingEvent().doLayout(event);
+        assertThat(logs.doLayout(event)).isEqualTo(expected);
+        assertThat(logs.doLayout(event)).isEqualTo(expected);
+        assertThat(logs.encode(event)).isEqualTo(expected.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void assertSame(IAccessEvent event) {
+        final String expected = new MapJsonLayouts.AccessEvent().doLayout(event);
+        assertThat(access.doLayout(event)).isEqualTo(expected);
+        assertThat(access.encode(event)).isEqualTo(expected.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,163 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.MetricRegistry;
+import com.wire.bots.cryptobox.IRecord;
+import com.wire.bots.cryptobox.StorageException;
+import com.wire.lithium.crypto.LockingStorage;
+import com.wire.lithium.helpers.MemStorage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class LockingStorageTest {
+    private MetricRegistry metrics;
+    private LockingStorage storage;
+
+    @BeforeEach
+    public void setUp() {
+        metrics = new MetricRegistry();
+        storage = new LockingStorage(new Sessions(), 16, true, 200, metrics);
+    }
+
+    @Test
+    public void sessionIsHeldUntilPersisted() throws Exception {
+        IRecord first = storage.fetchSession("bot", "alice");
+
+        CompletableFuture<byte[]> second = CompletableFuture.supplyAsync(() -> {
+            try {
+                IRecord record = storage.fetchSession("bot", "alice");
+                byte[] data = record.getData();
+                record.persist(new byte[]{2});
+                return data;
+            } catch (StorageException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        Thread.sleep(50);
+        assertThat(second).isNotDone();
+
+        first.persist(new byte[]{1});
+
+        assertThat(second.get(1, TimeUnit.SECONDS)).containsExactly(1);
+        assertThat(metrics.meter("com.wire.lithium.crypto.LockingStorage.contended").getCount()).isEqualTo(1);
+        assertThat(metrics.timer("com.wire.lithium.crypto.LockingStorage.wait").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void otherSessionsAreNotBlocked() throws Exception {
+        storage = new LockingStorage(new Sessions(), 1 << 16, true, 200, metrics);
+        IRecord alice = CompletableFuture.supplyAsync(() -> {
+            try {
+                return storage.fetchSession("bot", "alice");
+            } catch (StorageException e) {
+                throw new IllegalStateException(e);
+            }
+        }).get(1, TimeUnit.SECONDS);
+
+        IRecord bob = storage.fetchSession("bot", "bob");
+        bob.persist(new byte[]{1});
+        alice.persist(new byte[]{1});
+
+        assertThat(metrics.meter("com.wire.lithium.crypto.LockingStorage.contended").getCount()).isZero();
+    }
+
+    @Test
+    public void waitTimesOut() throws Exception {
+        IRecord first = storage.fetchSession("bot", "alice");
+
+        CompletableFuture<IRecord> second = CompletableFuture.supplyAsync(() -> {
+            try {
+                return storage.fetchSession("bot", "alice");
+            } catch (StorageException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        assertThatThrownBy(() -> second.get(1, TimeUnit.SECONDS))
+                .hasCauseInstanceOf(IllegalStateException.class)
+                .hasRootCauseInstanceOf(StorageException.class);
+        assertThat(metrics.meter("com.wire.lithium.crypto.LockingStorage.timeouts").getCount()).isEqualTo(1);
+
+        first.persist(new byte[]{1});
+        storage.fetchSession("bot", "alice").persist(new byte[]{2});
+    }
+
+    @Test
+    public void failedFetchReleasesSession() throws Exception {
+        storage = new LockingStorage(new MemStorage() {
+            @Override
+            public IRecord fetchSession(String id, String sid) {
+                throw new IllegalStateException("database is down");
+            }
+        }, 16, true, 200, metrics);
+
+        assertThatThrownBy(() -> storage.fetchSession("bot", "alice")).isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> storage.fetchSession("bot", "alice")).isInstanceOf(IllegalStateException.class);
+
+        assertThat(metrics.meter("com.wire.lithium.crypto.LockingStorage.contended").getCount()).isZero();
+    }
+
+    @Test
+    public void abandonedSessionIsReleasedOnNextFetch() throws Exception {
+        // the box failed between fetch and persist: the record is never persisted
+        storage.fetchSession("bot", "alice").getData();
+
+        IRecord record = storage.fetchSession("bot", "alice");
+        record.persist(new byte[]{1});
+
+        assertThat(storage.fetchSession("bot", "alice").getData()).containsExactly(1);
+        assertThat(metrics.meter("com.wire.lithium.crypto.LockingStorage.abandoned").getCount()).isEqualTo(1);
+        assertThat(metrics.meter("com.wire.lithium.crypto.LockingStorage.contended").getCount()).isZero();
+    }
+
+    @Test
+    public void abandonedSessionIsReleasedWhenTheThreadIsDone() throws Exception {
+        storage.fetchSession("bot", "alice").getData();
+        LockingStorage.releaseHeld();
+
+        CompletableFuture<byte[]> other = CompletableFuture.supplyAsync(() -> {
+            try {
+                IRecord record = storage.fetchSession("bot", "alice");
+                record.persist(new byte[]{2});
+                return record.getData();
+            } catch (StorageException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        assertThat(other.get(1, TimeUnit.SECONDS)).containsExactly(2);
+        assertThat(metrics.meter("com.wire.lithium.crypto.LockingStorage.timeouts").getCount()).isZero();
+        assertThat(metrics.meter("com.wire.lithium.crypto.LockingStorage.abandoned").getCount()).isEqualTo(1);
+    }
+
+    /**
+     * Keeps the persisted sessions, without any locking of its own
+     */
+    private static class Sessions extends MemStorage {
+        private final Map<String, byte[]> sessions = new ConcurrentHashMap<>();
+
+        @Override
+        public IRecord fetchSession(String id, String sid) {
+            final String key = id + "/" + sid;
+            return new IRecord() {
+                @Override
+                public byte[] getData() {
+                    return sessions.get(key);
+                }
+
+                @Override
+                public void persist(byte[] data) {
+                    sessions.put(key, data);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.MetricRegistry;
+import com.wire.bots.cryptobox.IRecord;
+import com.wire.lithium.storage.MappedState;
+import com.wire.lithium.storage.MappedStorage;
+import com.wire.lithium.storage.SegmentStore;
+import com.wire.xenon.backend.models.Conversation;
+import com.wire.xenon.backend.models.NewBot;
+import com.wire.xenon.exceptions.MissingStateException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MappedStorageTest {
+    @TempDir
+    Path dir;
+
+    private SegmentStore store;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        store = new SegmentStore(dir, 1024 * 1024, false, 0.5, 60_000, Executors.defaultThreadFactory(),
+                new MetricRegistry());
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        store.close();
+    }
+
+    @Test
+    public void state() throws Exception {
+        final UUID botId = UUID.randomUUID();
+        final MappedState state = new MappedState(botId, store);
+
+        NewBot bot = new NewBot();
+        bot.id = botId;
+        bot.client = "client";
+        bot.token = "token";
+        bot.conversation = new Conversation();
+        bot.conversation.id = UUID.randomUUID();
+        assertThat(state.saveState(bot)).isTrue();
+
+        assertThat(state.getState().conversation.id).isEqualTo(bot.conversation.id);
+        assertThat(MappedState.botIds(store)).containsExactly(botId);
+        assertThat(state.removeState()).isTrue();
+        assertThat(MappedState.botIds(store)).isEmpty();
+        assertThatThrownBy(state::getState).isInstanceOf(MissingStateException.class);
+    }
+
+    @Test
+    public void crypto() throws Exception {
+        final MappedStorage storage = new MappedStorage(store);
+
+        IRecord record = storage.fetchSession("bot", "alice");
+        assertThat(record.getData()).isNull();
+        record.persist(new byte[]{1});
+        assertThat(storage.fetchSession("bot", "alice").getData()).containsExactly(1);
+
+        storage.insertIdentity("bot", new byte[]{2});
+        storage.insertPrekey("bot", 1, new byte[]{3});
+        storage.insertPrekey("bot", 65535, new byte[]{4});
+        storage.insertPrekey("other", 1, new byte[]{5});
+
+        assertThat(storage.fetchIdentity("bot")).containsExactly(2);
+        assertThat(storage.fetchPrekeys("bot")).extracting(preKey -> preKey.id).containsExactly(1, 65535);
+
+        storage.purge("bot");
+
+        assertThat(storage.fetchSession("bot", "alice").getData()).isNull();
+        assertThat(storage.fetchIdentity("bot")).isNull();
+        assertThat(storage.fetchPrekeys("bot")).isNull();
+        assertThat(storage.fetchPrekeys("other")).extracting(preKey -> preKey.data).containsExactly(new byte[]{5});
+    }
+}
@@ -0,0 +1,89 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.MetricRegistry;
+import com.wire.lithium.server.dispatch.MessageDispatcher;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MessageDispatcherTest {
+    private MessageDispatcher dispatcher;
+
+    @AfterEach
+    public void cleanup() throws Exception {
+        dispatcher.stop();
+    }
+
+    @Test
+    public void messagesOfOneBotAreOrdered() throws Exception {
+        dispatcher = new MessageDispatcher(4, 1_000, 5, 5_000, Executors.defaultThreadFactory(), new MetricRegistry());
+        dispatcher.start();
+
+        final UUID botId = UUID.randomUUID();
+        final List<Integer> processed = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch latch = new CountDownLatch(100);
+        for (int i = 0; i < 100; i++) {
+            final int seq = i;
+            assertThat(dispatcher.offer(botId, () -> {
+                processed.add(seq);
+                latch.countDown();
+            })).isTrue();
+        }
+
+        assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+        for (int i = 0; i < 100; i++) {
+            assertThat(processed.get(i)).isEqualTo(i);
+        }
+    }
+
+    @Test
+    public void fullLaneRejects() throws Exception {
+        final MetricRegistry metrics = new MetricRegistry();
+        dispatcher = new MessageDispatcher(1, 1, 5, 5_000, Executors.defaultThreadFactory(), metrics);
+        dispatcher.start();
+
+        final UUID botId = UUID.randomUUID();
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch running = new CountDownLatch(1);
+
+        // occupy the only lane and fill its queue
+        assertThat(dispatcher.offer(botId, () -> {
+            running.countDown();
+            await(blocked);
+        })).isTrue();
+        assertThat(running.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(dispatcher.offer(botId, () -> {
+        })).isTrue();
+
+        assertThat(dispatcher.offer(UUID.randomUUID(), () -> {
+        })).isFalse();
+        assertThat(metrics.meter("com.wire.lithium.server.dispatch.MessageDispatcher.rejected").getCount()).isEqualTo(1);
+
+        blocked.countDown();
+    }
+
+    @Test
+    public void notStartedRejects() {
+        dispatcher = new MessageDispatcher(1, 10, 5, 5_000, Executors.defaultThreadFactory(), new MetricRegistry());
+
+        assertThat(dispatcher.offer(UUID.randomUUID(), () -> {
+        })).isFalse();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
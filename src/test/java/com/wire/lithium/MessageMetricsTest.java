@@ -0,0 +1,155 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.MetricRegistry;
+import com.wire.lithium.helpers.FakeCrypto;
+import com.wire.lithium.server.monitoring.MessageMetrics;
+import com.wire.lithium.server.resources.MessageResource;
+import com.wire.xenon.MessageHandlerBase;
+import com.wire.xenon.WireAPI;
+import com.wire.xenon.WireClient;
+import com.wire.xenon.assets.MessageText;
+import com.wire.xenon.backend.models.Conversation;
+import com.wire.xenon.backend.models.NewBot;
+import com.wire.xenon.backend.models.Payload;
+import com.wire.xenon.exceptions.MissingStateException;
+import com.wire.xenon.models.TextMessage;
+import com.wire.xenon.models.otr.Devices;
+import com.wire.xenon.models.otr.OtrMessage;
+import com.wire.xenon.state.State;
+import jakarta.ws.rs.client.ClientBuilder;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Base64;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MessageMetricsTest {
+    private static final String PREFIX = "com.wire.lithium.server.resources.MessageResource.";
+    private static final String TYPE = "conversation.otr-message-add";
+
+    private MetricRegistry metrics;
+    private MessageResource resource;
+    private UUID convId;
+
+    @BeforeEach
+    public void setup() {
+        metrics = new MetricRegistry();
+        convId = UUID.randomUUID();
+
+        final WireAPI api = new API(ClientBuilder.newClient(), "token", "http://localhost") {
+            @Override
+            public Devices sendMessage(OtrMessage msg, Object... ignoreMissing) {
+                return new Devices();
+            }
+        };
+        final ClientRepo repo = new ClientRepo(null, id -> new FakeCrypto(), this::newState, new Configuration(), metrics) {
+            @Override
+            protected WireAPI createApi(NewBot state) {
+                return api;
+            }
+        };
+        final MessageHandlerBase handler = new MessageHandlerBase() {
+            @Override
+            public void onText(WireClient client, TextMessage msg) {
+                try {
+                    client.send(new MessageText("pong"));
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        resource = new MessageResource(handler, repo, null, new MessageMetrics(metrics));
+    }
+
+    @Test
+    public void stagesAreTimed() throws Exception {
+        assertThat(resource.newMessage(UUID.randomUUID(), UUID.randomUUID(), text()).getStatus()).isEqualTo(200);
+
+        for (String stage : new String[]{"total", "state", "crypto", "decrypt", "handler", "send", "close"}) {
+            assertThat(metrics.timer(PREFIX + stage + "." + TYPE + ".200").getCount()).as(stage).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void outcomeIsTagged() throws Exception {
+        assertThat(resource.newMessage(MissingBot.ID, UUID.randomUUID(), text()).getStatus()).isEqualTo(410);
+
+        assertThat(metrics.timer(PREFIX + "total." + TYPE + ".410").getCount()).isEqualTo(1);
+        assertThat(metrics.getTimers().keySet()).noneMatch(name -> name.endsWith(".200"));
+    }
+
+    @Test
+    public void unknownTypesAreFolded() {
+        final MessageMetrics messageMetrics = new MessageMetrics(metrics);
+        for (int i = 0; i < 3; i++) {
+            messageMetrics.report("evil." + UUID.randomUUID(), 400, null, 1_000);
+        }
+        messageMetrics.report(null, 400, null, 1_000);
+
+        assertThat(metrics.timer(PREFIX + "total.other.400").getCount()).isEqualTo(3);
+        assertThat(metrics.timer(PREFIX + "total.unknown.400").getCount()).isEqualTo(1);
+        assertThat(metrics.getTimers().keySet()).noneMatch(name -> name.contains("evil"));
+    }
+
+    private Payload text() {
+        final Payload payload = new Payload();
+        payload.type = TYPE;
+        payload.from = new Payload.Qualified(UUID.randomUUID(), "");
+        payload.conversation = new Payload.Qualified(convId, "");
+        payload.data = new Payload.Data();
+        payload.data.sender = "sender";
+        payload.data.recipient = "client";
+        // FakeCrypto decrypts to the cipher itself
+        payload.data.text = Base64.getEncoder().encodeToString(new MessageText("ping").createGenericMsg().toByteArray());
+        return payload;
+    }
+
+    private State newState(UUID id) {
+        if (MissingBot.ID.equals(id))
+            return new MissingBot();
+
+        return new State() {
+            @Override
+            public boolean saveState(NewBot newBot) {
+                return true;
+            }
+
+            @Override
+            public NewBot getState() {
+                NewBot bot = new NewBot();
+                bot.id = id;
+                bot.token = "token";
+                bot.client = "client";
+                bot.conversation = new Conversation();
+                bot.conversation.id = convId;
+                return bot;
+            }
+
+            @Override
+            public boolean removeState() {
+                return true;
+            }
+        };
+    }
+
+    private static class MissingBot implements State {
+        static final UUID ID = UUID.randomUUID();
+
+        @Override
+        public boolean saveState(NewBot newBot) {
+            return true;
+        }
+
+        @Override
+        public NewBot getState() throws MissingStateException {
+            throw new MissingStateException(ID);
+        }
+
+        @Override
+        public boolean removeState() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.MetricRegistry;
+import com.wire.lithium.crypto.PrekeyPool;
+import com.wire.lithium.helpers.MemStorage;
+import com.wire.lithium.helpers.Util;
+import com.wire.xenon.crypto.CryptoDatabase;
+import com.wire.xenon.models.otr.PreKeys;
+import com.wire.xenon.models.otr.Recipients;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Base64;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PrekeyPoolTest {
+    private String rootFolder;
+    private MemStorage storage;
+    private MetricRegistry metrics;
+    private PrekeyPool pool;
+
+    @BeforeEach
+    public void setUp() {
+        rootFolder = "lithium-test-data-" + UUID.randomUUID();
+        storage = new MemStorage();
+        metrics = new MetricRegistry();
+        pool = new PrekeyPool(storage, 2, 10, 1, Executors.defaultThreadFactory(), metrics);
+    }
+
+    @AfterEach
+    public void clean() throws Exception {
+        pool.stop();
+        Util.deleteDir(rootFolder);
+    }
+
+    @Test
+    public void emptyPoolMisses() throws Exception {
+        assertThat(pool.take(UUID.randomUUID())).isNull();
+        assertThat(metrics.meter("com.wire.lithium.crypto.PrekeyPool.misses").getCount()).isEqualTo(1);
+        assertThat(metrics.meter("com.wire.lithium.crypto.PrekeyPool.hits").getCount()).isZero();
+    }
+
+    @Test
+    public void boundKeysDecrypt() throws Exception {
+        pool.start();
+        for (int i = 0; i < 100 && pool.size() == 0; i++) {
+            Thread.sleep(100);
+        }
+
+        final UUID botId = UUID.randomUUID();
+        final PrekeyPool.Keys keys = pool.take(botId);
+        assertThat(keys).isNotNull();
+        assertThat(keys.preKeys).hasSize(10);
+        assertThat(storage.fetchIdentity(botId.toString())).isNotNull();
+        assertThat(storage.fetchPrekeys(botId.toString())).hasSize(11);
+
+        // Alice uses the handed out prekeys, the bot's box is opened from the storage
+        final UUID aliceId = UUID.randomUUID();
+        final String botClient = "bot-client";
+        try (CryptoDatabase alice = new CryptoDatabase(aliceId, storage, rootFolder);
+             CryptoDatabase bot = new CryptoDatabase(botId, storage, rootFolder)) {
+            final byte[] text = "Hello Bob, This is Alice!".getBytes();
+            final Recipients encrypt = alice.encrypt(new PreKeys(keys.preKeys, botClient, botId), text);
+            final String decrypt = bot.decrypt(aliceId, "alice-client", encrypt.get(botId, botClient));
+
+            assertThat(Base64.getDecoder().decode(decrypt)).isEqualTo(text);
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.MetricRegistry;
+import com.wire.lithium.crypto.PrekeyReplenisher;
+import com.wire.lithium.helpers.FakeCrypto;
+import com.wire.lithium.helpers.StubAPI;
+import com.wire.lithium.storage.FileLeaderLock;
+import com.wire.lithium.storage.LeaderLock;
+import com.wire.xenon.WireAPI;
+import com.wire.xenon.WireClient;
+import com.wire.xenon.backend.models.Conversation;
+import com.wire.xenon.backend.models.NewBot;
+import com.wire.xenon.models.otr.PreKey;
+import com.wire.xenon.state.State;
+import jakarta.ws.rs.client.Client;
+import jakarta.ws.rs.client.ClientBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PrekeyReplenisherTest {
+    private static final String PREFIX = MetricRegistry.name(PrekeyReplenisher.class);
+
+    private final Client httpClient = ClientBuilder.newClient();
+    private final Map<UUID, ArrayList<Integer>> available = new ConcurrentHashMap<>();
+    private final Map<UUID, List<PreKey>> uploads = new ConcurrentHashMap<>();
+    private final StubAPI.Probe probe = new StubAPI.Probe(30);
+    private final List<FakeCrypto> boxes = new CopyOnWriteArrayList<>();
+
+    @TempDir
+    Path folder;
+
+    private MetricRegistry metrics;
+    private ClientRepo repo;
+    private PrekeyReplenisher replenisher;
+
+    @BeforeEach
+    public void setup() {
+        metrics = new MetricRegistry();
+        repo = new ClientRepo(httpClient, id -> box(), this::newState, new Configuration(), metrics) {
+            @Override
+            protected WireAPI createApi(NewBot state) {
+                return new StubAPI(httpClient, state.id, probe)
+                        .onAvailablePrekeys(PrekeyReplenisherTest.this::available)
+                        .onUpload(uploads::put);
+            }
+        };
+    }
+
+    @AfterEach
+    public void clean() throws Exception {
+        if (replenisher != null)
+            replenisher.stop();
+    }
+
+    @Test
+    public void topsUpBotsBelowThreshold() throws Exception {
+        final UUID empty = bot(List.of(0xFFFF));
+        final UUID low = bot(List.of(40, 41, 0xFFFF));
+        final UUID full = bot(range(0, 20));
+        final UUID high = bot(List.of(65_530));
+        replenisher = replenisher(List.of(empty, low, full, high), 100);
+
+        assertThat(replenisher.scan()).isEqualTo(3);
+
+        // last resort prekey does not count
+        assertThat(ids(empty)).containsExactlyElementsOf(range(0, 30));
+        assertThat(ids(low)).containsExactlyElementsOf(range(42, 28));
+        assertThat(uploads).doesNotContainKey(full);
+        // ids start over before reaching the last resort id
+        assertThat(ids(high)).containsExactlyElementsOf(range(0, 29));
+
+        assertThat(metrics.meter(PREFIX + ".checks").getCount()).isEqualTo(4);
+        assertThat(metrics.meter(PREFIX + ".replenished").getCount()).isEqualTo(3);
+        assertThat(metrics.meter(PREFIX + ".uploaded").getCount()).isEqualTo(30 + 28 + 29);
+        assertThat(metrics.timer(PREFIX + ".scans").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void failingBotDoesNotStopTheScan() throws Exception {
+        final UUID broken = UUID.randomUUID();
+        final UUID empty = bot(List.of());
+        replenisher = replenisher(List.of(broken, empty), 100);
+
+        assertThat(replenisher.scan()).isEqualTo(1);
+        assertThat(ids(empty)).hasSize(30);
+        assertThat(metrics.meter(PREFIX + ".errors").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void boundedConcurrencyAndRate() throws Exception {
+        final List<UUID> bots = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            bots.add(bot(List.of()));
+        }
+        replenisher = replenisher(bots, 50);
+
+        final long start = System.currentTimeMillis();
+        assertThat(replenisher.scan()).isEqualTo(20);
+
+        // 20 checks at 50 per second take at least 19 pauses of 20ms
+        assertThat(System.currentTimeMillis() - start).isGreaterThanOrEqualTo(380);
+        assertThat(probe.getMaxInFlight()).isLessThanOrEqualTo(2);
+        assertThat(uploads).hasSize(20);
+    }
+
+    @Test
+    public void cachedBoxIsRetiredAfterUpload() throws Exception {
+        final UUID empty = bot(List.of());
+        final UUID full = bot(range(0, 20));
+        replenisher = replenisher(List.of(empty, full), 100);
+
+        // a request holds the cached box of the bot: the prekeys are generated in a box of their own
+        final WireClient request = repo.getClient(empty);
+        repo.getClient(full).close();
+        assertThat(boxes).hasSize(2);
+
+        assertThat(replenisher.scan()).isEqualTo(1);
+        assertThat(boxes).hasSize(3);
+        assertThat(boxes.get(0).isClosed()).isFalse();
+
+        request.close();
+        assertThat(boxes.get(0).isClosed()).isTrue();
+
+        // the next request opens a box from the storage, which has the new prekeys
+        repo.getClient(empty).close();
+        assertThat(boxes).hasSize(4);
+        assertThat(boxes.get(3).isClosed()).isFalse();
+
+        // nothing uploaded, the cached box is kept
+        assertThat(boxes.get(1).isClosed()).isFalse();
+        repo.getClient(full).close();
+        assertThat(boxes).hasSize(4);
+    }
+
+    @Test
+    public void oneInstanceScansAtATime() throws Exception {
+        final UUID first = bot(List.of());
+        final UUID second = bot(List.of());
+        replenisher = replenisher(List.of(first), 100);
+        final PrekeyReplenisher other = replenisher(List.of(first, second),
+                new FileLeaderLock(folder.resolve("replenish.lock")));
+        try {
+            assertThat(replenisher.scan()).isEqualTo(1);
+            available.put(first, new ArrayList<>(range(0, 30)));
+
+            // the first instance holds the lock
+            assertThat(other.scan()).isEqualTo(0);
+            assertThat(uploads).doesNotContainKey(second);
+            assertThat(metrics.meter(PREFIX + ".skipped").getCount()).isEqualTo(1);
+
+            // the holder stops, the next scan of the other instance takes over
+            replenisher.stop();
+            assertThat(other.scan()).isEqualTo(1);
+            assertThat(uploads).containsKey(second);
+        } finally {
+            other.stop();
+        }
+    }
+
+    private FakeCrypto box() {
+        final FakeCrypto ret = new FakeCrypto();
+        boxes.add(ret);
+        return ret;
+    }
+
+    private PrekeyReplenisher replenisher(List<UUID> bots, double rate) {
+        return new PrekeyReplenisher(repo, () -> bots, new FileLeaderLock(folder.resolve("replenish.lock")),
+                10, 30, 60_000, 0, 3, 2, rate, Executors.defaultThreadFactory(), metrics);
+    }
+
+    private PrekeyReplenisher replenisher(List<UUID> bots, LeaderLock lock) {
+        return new PrekeyReplenisher(repo, () -> bots, lock, 10, 30, 60_000, 0, 3, 2, 100,
+                Executors.defaultThreadFactory(), metrics);
+    }
+
+    private UUID bot(List<Integer> ids) {
+        final UUID botId = UUID.randomUUID();
+        available.put(botId, new ArrayList<>(ids));
+        return botId;
+    }
+
+    private List<Integer> ids(UUID botId) {
+        final List<Integer> ret = new ArrayList<>();
+        for (PreKey preKey : uploads.get(botId)) {
+            ret.add(preKey.id);
+        }
+        return ret;
+    }
+
+    private ArrayList<Integer> available(UUID botId) {
+        final ArrayList<Integer> ret = available.get(botId);
+        if (ret == null)
+            throw new IllegalStateException("backend is down");
+        return ret;
+    }
+
+    private static List<Integer> range(int from, int count) {
+        final List<Integer> ret = new ArrayList<>();
+        for (int i = from; i < from + count; i++) {
+            ret.add(i);
+        }
+        return ret;
+    }
+
+    private State newState(UUID id) {
+        return new State() {
+            @Override
+            public boolean saveState(NewBot newBot) {
+                return true;
+            }
+
+            @Override
+            public NewBot getState() {
+                NewBot bot = new NewBot();
+                bot.id = id;
+                bot.token = "token";
+                bot.client = "client";
+                bot.conversation = new Conversation();
+                bot.conversation.id = id;
+                return bot;
+            }
+
+            @Override
+            public boolean removeState() {
+                return true;
+            }
+        };
+    }
+}
@@ -0,0 +1,110 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.wire.lithium.server.monitoring.PrometheusServlet;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PrometheusServletTest {
+    private MetricRegistry metrics;
+    private PrometheusServlet servlet;
+
+    @BeforeEach
+    public void setUp() {
+        metrics = new MetricRegistry();
+        servlet = new PrometheusServlet(metrics);
+    }
+
+    @Test
+    public void metricsAreRendered() throws Exception {
+        metrics.counter("jobs.queued").inc(3);
+        metrics.meter("com.wire.lithium.BotClient.sent").mark(5);
+        metrics.register("logger.errors", (Gauge<Integer>) () -> 2);
+        metrics.register("pool.ratio", (Gauge<Double>) () -> 0.25);
+        metrics.register("ignored", (Gauge<String>) () -> "text");
+        metrics.timer("MessageResource.decrypt.conversation.otr-message-add.200").update(250, TimeUnit.MILLISECONDS);
+        metrics.histogram("batch-size").update(64);
+
+        final String text = render();
+
+        assertThat(text).contains(
+                "# TYPE jobs_queued gauge\njobs_queued 3\n",
+                "# TYPE com_wire_lithium_BotClient_sent_total counter\ncom_wire_lithium_BotClient_sent_total 5\n",
+                "# TYPE logger_errors gauge\nlogger_errors 2\n",
+                "pool_ratio 0.25\n",
+                "# TYPE MessageResource_decrypt_conversation_otr_message_add_200 gauge\n",
+                "MessageResource_decrypt_conversation_otr_message_add_200{quantile=\"0.99\"} 0.25\n",
+                "# TYPE MessageResource_decrypt_conversation_otr_message_add_200_count counter\n"
+                        + "MessageResource_decrypt_conversation_otr_message_add_200_count 1\n",
+                "batch_size{quantile=\"0.5\"} 64\n",
+                "batch_size_count 1\n");
+        assertThat(text).doesNotContain("summary", "_sum");
+        assertThat(text).doesNotContain("ignored");
+    }
+
+    @Test
+    public void collidingNamesGetASuffix() throws Exception {
+        metrics.counter("a.b").inc(1);
+        metrics.counter("a_b").inc(2);
+        metrics.counter("a-b").inc(3);
+        metrics.meter("sent").mark(4);
+        metrics.counter("sent.total").inc(5);
+        metrics.timer("send").update(1, TimeUnit.SECONDS);
+        metrics.counter("send.count").inc(6);
+
+        final String text = render();
+
+        final List<String> types = new ArrayList<>();
+        for (String line : text.split("\n")) {
+            if (line.startsWith("# TYPE "))
+                types.add(line.split(" ")[2]);
+        }
+        // which of the colliding metrics keeps the plain name depends on the order of the registry
+        assertThat(types).hasSize(8).doesNotHaveDuplicates();
+        assertThat(types).contains("a_b", "a_b_2", "a_b_3");
+        assertThat(text)
+                .containsPattern("(?m)^a_b(_[23])? 1$")
+                .containsPattern("(?m)^a_b(_[23])? 2$")
+                .containsPattern("(?m)^a_b(_[23])? 3$")
+                .containsPattern("(?m)^sent(_2)?_total 4$")
+                .containsPattern("(?m)^sent_total(_2)? 5$")
+                .containsPattern("(?m)^send(_2)?\\{quantile=\"0.5\"} 1$")
+                .containsPattern("(?m)^send(_2)?_count 1$")
+                .containsPattern("(?m)^send_count(_2)? 6$");
+
+        // a metric keeps its name, also when a colliding one is added
+        metrics.counter("a b").inc(7);
+        final String next = render();
+        for (String line : text.split("\n")) {
+            assertThat(next).contains(line + "\n");
+        }
+        assertThat(next).contains("a_b_4 7\n");
+    }
+
+    @Test
+    public void largeRegistryIsRenderedInChunks() throws Exception {
+        for (int i = 0; i < 5_000; i++) {
+            metrics.counter("counter." + i).inc(i);
+        }
+
+        final String text = render();
+
+        assertThat(text.split("\n")).hasSize(10_000);
+        assertThat(text).contains("counter_4999 4999\n");
+        assertThat(render()).isEqualTo(text);
+    }
+
+    private String render() throws Exception {
+        final StringWriter writer = new StringWriter();
+        servlet.render(writer);
+        return writer.toString();
+    }
+}
@@ -0,0 +1,69 @@
+package com.wire.lithium;
+
+import com.wire.lithium.server.monitoring.RequestIds;
+import com.wire.lithium.server.monitoring.RequestMdcFactoryFilter;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import org.junit.jupiter.api.Test;
+import org.slf4j.MDC;
+
+import java.lang.reflect.Proxy;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RequestIdsTest {
+
+    @Test
+    public void idsAreTimeOrderedVersion7() {
+        final long before = System.currentTimeMillis();
+        UUID last = RequestIds.next();
+        // more than the counter holds within one ms
+        for (int i = 0; i < 10_000; i++) {
+            final UUID id = RequestIds.next();
+            assertThat(id.version()).isEqualTo(7);
+            assertThat(id.variant()).isEqualTo(2);
+            assertThat(Long.compareUnsigned(id.getMostSignificantBits(), last.getMostSignificantBits())).isPositive();
+            last = id;
+        }
+        assertThat(last.getMostSignificantBits() >>> 16).isGreaterThanOrEqualTo(before);
+    }
+
+    @Test
+    public void idsAreUniqueAcrossThreads() throws Exception {
+        final Set<UUID> ids = ConcurrentHashMap.newKeySet();
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            executor.submit(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    ids.add(RequestIds.next());
+                }
+            });
+        }
+        executor.shutdown();
+        assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(ids).hasSize(80_000);
+    }
+
+    @Test
+    public void filterReplacesMdcOfPreviousRequest() {
+        final RequestMdcFactoryFilter filter = new RequestMdcFactoryFilter();
+        final ContainerRequestContext request = (ContainerRequestContext) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class[]{ContainerRequestContext.class},
+                (proxy, method, args) -> "X-Request-Id".equals(args[0]) ? "nginx-1" : null);
+
+        MDC.put("botId", "previous");
+        filter.filter(request);
+        assertThat(MDC.get("forwardedFor")).isEqualTo("nginx-1");
+        assertThat(UUID.fromString(MDC.get("appRequest")).version()).isEqualTo(7);
+        assertThat(MDC.get("botId")).isNull();
+
+        new RequestMdcFactoryFilter.ClearOnComplete().onComplete(null);
+        assertThat(MDC.getCopyOfContextMap()).isNullOrEmpty();
+    }
+}
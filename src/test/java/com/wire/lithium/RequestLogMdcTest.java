@@ -0,0 +1,111 @@
+package com.wire.lithium;
+
+import ch.qos.logback.access.spi.IAccessEvent;
+import ch.qos.logback.core.AppenderBase;
+import com.wire.lithium.server.monitoring.AccessEventJsonLayout;
+import com.wire.lithium.server.monitoring.RequestMdcFactoryFilter;
+import io.dropwizard.request.logging.LogbackAccessRequestLog;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import org.eclipse.jetty.server.HttpChannel;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.MDC;
+
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RequestLogMdcTest {
+    private final List<String> accessLog = new CopyOnWriteArrayList<>();
+    private final List<Map<String, String>> afterComplete = new CopyOnWriteArrayList<>();
+
+    private Server server;
+    private URI uri;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        server = new Server();
+        final ServerConnector connector = new ServerConnector(server);
+        connector.setPort(0);
+        connector.addBean(new RequestMdcFactoryFilter.ClearOnComplete());
+        // runs after the cleanup
+        connector.addBean(new HttpChannel.Listener() {
+            @Override
+            public void onComplete(Request request) {
+                final Map<String, String> mdc = MDC.getCopyOfContextMap();
+                afterComplete.add(mdc != null ? mdc : Collections.emptyMap());
+            }
+        });
+        server.addConnector(connector);
+
+        final RequestMdcFactoryFilter filter = new RequestMdcFactoryFilter();
+        server.setHandler(new AbstractHandler() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request,
+                               HttpServletResponse response) {
+                filter.filter(context(request));
+                response.setStatus(200);
+                baseRequest.setHandled(true);
+            }
+        });
+
+        final LogbackAccessRequestLog requestLog = new LogbackAccessRequestLog();
+        final AccessEventJsonLayout layout = new AccessEventJsonLayout(Collections.emptyList());
+        final AppenderBase<IAccessEvent> appender = new AppenderBase<>() {
+            @Override
+            protected void append(IAccessEvent event) {
+                accessLog.add(layout.doLayout(event));
+            }
+        };
+        appender.setContext(requestLog);
+        appender.start();
+        requestLog.addAppender(appender);
+        server.setRequestLog(requestLog);
+
+        server.start();
+        uri = URI.create("http://localhost:" + connector.getLocalPort() + "/bots");
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        server.stop();
+    }
+
+    @Test
+    public void accessLogHasTheRequestMdc() throws Exception {
+        final HttpResponse<Void> response = HttpClient.newHttpClient().send(HttpRequest.newBuilder(uri)
+                .header("X-Request-Id", "nginx-1")
+                .build(), HttpResponse.BodyHandlers.discarding());
+        assertThat(response.statusCode()).isEqualTo(200);
+
+        for (int i = 0; i < 100 && afterComplete.isEmpty(); i++) {
+            Thread.sleep(10);
+        }
+        assertThat(accessLog).hasSize(1);
+        assertThat(accessLog.get(0)).contains("\"forwardedFor\":\"nginx-1\"", "\"appRequest\":");
+        assertThat(afterComplete).containsExactly(Collections.emptyMap());
+    }
+
+    private static ContainerRequestContext context(HttpServletRequest request) {
+        return (ContainerRequestContext) Proxy.newProxyInstance(RequestLogMdcTest.class.getClassLoader(),
+                new Class[]{ContainerRequestContext.class},
+                (proxy, method, args) -> "getHeaderString".equals(method.getName())
+                        ? request.getHeader((String) args[0])
+                        : null);
+    }
+}
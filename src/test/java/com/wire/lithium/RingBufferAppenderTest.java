@@ -0,0 +1,207 @@
+package com.wire.lithium;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.PatternLayout;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wire.lithium.helpers.LogEvents;
+import com.wire.lithium.helpers.MapJsonLayouts;
+import com.wire.lithium.server.monitoring.JsonAccessAsyncAppenderFactory;
+import com.wire.lithium.server.monitoring.JsonAsyncAppenderFactory;
+import com.wire.lithium.server.monitoring.LoggingEventJsonLayout;
+import com.wire.lithium.server.monitoring.RingBufferAppender;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.logging.common.AppenderFactory;
+import io.dropwizard.logging.common.filter.ThresholdLevelFilterFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.MDC;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class RingBufferAppenderTest {
+    private RingBufferAppender<ILoggingEvent> appender;
+
+    @AfterEach
+    public void tearDown() {
+        MDC.clear();
+        appender.stop();
+    }
+
+    @Test
+    public void eventsAreWrittenInOrder() {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        appender = newAppender(out, 128);
+
+        MDC.put("botId", "bot-1");
+        for (int i = 0; i < 100; i++) {
+            appender.doAppend(LogEvents.log("Message {}", null, i));
+        }
+        MDC.clear();
+        appender.stop();
+
+        final String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertThat(lines).hasSize(100);
+        assertThat(lines[0]).contains("\"message\":\"Message 0\"", "\"botId\":\"bot-1\"");
+        assertThat(lines[99]).contains("\"message\":\"Message 99\"");
+        assertThat(appender.getDropped().getCount()).isZero();
+        assertThat(appender.getBatches().getSnapshot().getMax()).isGreaterThan(0);
+    }
+
+    @Test
+    public void layoutOverridingDoLayoutOnlyGetsTheMdc() {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        appender = RingBufferAppender.forLogs(new MapJsonLayouts.LoggingEvent(), out);
+        appender.setContext(new LoggerContext());
+        appender.setName("test");
+        appender.start();
+
+        MDC.put("botId", "bot-1");
+        appender.doAppend(LogEvents.log("Legacy", null));
+        MDC.clear();
+        appender.stop();
+
+        assertThat(out.toString(StandardCharsets.UTF_8)).contains("\"message\":\"Legacy\"", "\"botId\":\"bot-1\"");
+    }
+
+    @Test
+    public void overflowDropsDebugFirstAndBlocksErrors() throws Exception {
+        final BlockingStream out = new BlockingStream();
+        appender = newAppender(out, 8);
+        appender.setBatchSize(1);
+        appender.setMaxBlockTime(50);
+
+        appender.doAppend(LogEvents.log("Taken", null));
+        assertThat(out.entered.await(5, TimeUnit.SECONDS)).isTrue();
+
+        for (int i = 0; i < 6; i++) {
+            appender.doAppend(LogEvents.log("Queued", null));
+        }
+        // 80% full: debug is dropped, info still fits
+        appender.doAppend(LogEvents.log(Level.DEBUG, "Debug", null));
+        assertThat(appender.getDropped().getCount()).isEqualTo(1);
+        appender.doAppend(LogEvents.log("Queued", null));
+        appender.doAppend(LogEvents.log("Queued", null));
+        assertThat(appender.getQueued()).isEqualTo(8);
+
+        // full: info is dropped, error waits and gives up after maxBlockTime
+        appender.doAppend(LogEvents.log(Level.INFO, "Info", null));
+        appender.doAppend(LogEvents.log(Level.ERROR, "Timed out", null));
+        assertThat(appender.getDropped().getCount()).isEqualTo(3);
+        assertThat(appender.getBlocked().getCount()).isEqualTo(1);
+
+        // error waits until the writer makes space
+        appender.setMaxBlockTime(5_000);
+        new Thread(() -> {
+            sleep(100);
+            out.release.countDown();
+        }).start();
+        appender.doAppend(LogEvents.log(Level.ERROR, "Waited", null));
+        assertThat(appender.getBlocked().getCount()).isEqualTo(2);
+        assertThat(appender.getDropped().getCount()).isEqualTo(3);
+
+        appender.stop();
+        final String log = out.toString(StandardCharsets.UTF_8);
+        assertThat(log.split("\n")).hasSize(10);
+        assertThat(log).contains("Waited").doesNotContain("Debug", "Info", "Timed out");
+    }
+
+    @Test
+    public void metricsAreRegistered() {
+        final MetricRegistry metrics = new MetricRegistry();
+        RingBufferAppender.registerMetrics(metrics);
+        appender = newAppender(new ByteArrayOutputStream(), 16);
+
+        assertThat(metrics.getNames()).contains(
+                "com.wire.lithium.server.monitoring.RingBufferAppender.test.queued",
+                "com.wire.lithium.server.monitoring.RingBufferAppender.test.dropped",
+                "com.wire.lithium.server.monitoring.RingBufferAppender.test.blocked",
+                "com.wire.lithium.server.monitoring.RingBufferAppender.test.batch");
+    }
+
+    @Test
+    public void factoriesAreDiscovered() throws Exception {
+        appender = newAppender(new ByteArrayOutputStream(), 16);
+        final ObjectMapper mapper = Jackson.newObjectMapper();
+
+        final AppenderFactory<?> logs = mapper.readValue("{\"type\": \"json-async\", \"capacity\": 1024}",
+                AppenderFactory.class);
+        assertThat(logs).isInstanceOf(JsonAsyncAppenderFactory.class);
+        assertThat(((JsonAsyncAppenderFactory) logs).capacity).isEqualTo(1024);
+
+        assertThat(mapper.readValue("{\"type\": \"json-access-async\"}", AppenderFactory.class))
+                .isInstanceOf(JsonAccessAsyncAppenderFactory.class);
+    }
+
+    @Test
+    public void configuredLayoutIsUsed() {
+        final MapJsonLayouts.LoggingEvent layout = new MapJsonLayouts.LoggingEvent();
+        final JsonAsyncAppenderFactory factory = new JsonAsyncAppenderFactory();
+        factory.layout = (context, timeZone) -> layout;
+
+        appender = (RingBufferAppender<ILoggingEvent>) factory.build(new LoggerContext(), "test", null,
+                new ThresholdLevelFilterFactory(), null);
+
+        assertThat(appender.isStarted()).isTrue();
+        assertThat(layout.isStarted()).isTrue();
+    }
+
+    @Test
+    public void layoutThatDoesNotStreamJsonIsRejected() {
+        appender = newAppender(new ByteArrayOutputStream(), 16);
+        final JsonAsyncAppenderFactory factory = new JsonAsyncAppenderFactory();
+        factory.layout = (context, timeZone) -> new PatternLayout();
+
+        assertThatThrownBy(() -> factory.build(new LoggerContext(), "test", null, new ThresholdLevelFilterFactory(),
+                null))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("json-async", PatternLayout.class.getName(), "AbstractJsonLayout");
+    }
+
+    private static RingBufferAppender<ILoggingEvent> newAppender(OutputStream out, int capacity) {
+        final RingBufferAppender<ILoggingEvent> ret =
+                RingBufferAppender.forLogs(new LoggingEventJsonLayout(Collections.emptyList()), out);
+        ret.setContext(new LoggerContext());
+        ret.setName("test");
+        ret.setCapacity(capacity);
+        ret.start();
+        return ret;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stdout that blocks until released
+     */
+    private static class BlockingStream extends ByteArrayOutputStream {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.write(b, off, len);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.MetricRegistry;
+import com.wire.lithium.storage.SegmentStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SegmentStoreTest {
+    private static final int SEGMENT = 4 * 1024;
+
+    @TempDir
+    Path dir;
+
+    private MetricRegistry metrics = new MetricRegistry();
+    private SegmentStore store;
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        if (store != null)
+            store.close();
+    }
+
+    @Test
+    public void valuesSurviveReopen() throws Exception {
+        store = open();
+        store.put("states/a", bytes(1));
+        store.put("states/b", bytes(2));
+        store.put("states/a", bytes(3));
+        store.delete("states/b");
+        store.close();
+
+        store = open();
+        assertThat(store.get("states/a")).containsExactly(3);
+        assertThat(store.get("states/b")).isNull();
+        assertThat(store.keys("states/")).containsExactly("states/a");
+    }
+
+    @Test
+    public void tornWriteIsDropped() throws Exception {
+        store = open();
+        store.put("a", bytes(1));
+        store.put("b", bytes(2));
+        store.close();
+
+        // flip a byte of b's value, as if the write was torn by a crash
+        final Path segment = segments()[0];
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final int offset = 12 + 1 + 1 + 12 + 1;
+            channel.write(ByteBuffer.wrap(new byte[]{42}), offset);
+        }
+
+        store = open();
+        assertThat(store.get("a")).containsExactly(1);
+        assertThat(store.get("b")).isNull();
+
+        store.put("c", bytes(3));
+        store.close();
+
+        store = open();
+        assertThat(store.keys("")).containsExactly("a", "c");
+    }
+
+    @Test
+    public void garbageIsCompacted() throws Exception {
+        store = open();
+        for (int i = 0; i < 100; i++) {
+            store.put("sessions/" + (i % 3), new byte[100]);
+        }
+        store.put("deleted", bytes(1));
+        store.delete("deleted");
+        final int before = segments().length;
+        assertThat(before).isGreaterThan(2);
+
+        final int compacted = store.compact();
+        assertThat(compacted).isGreaterThan(1);
+        assertThat(segments()).hasSizeLessThan(before);
+        assertThat(metrics.meter("com.wire.lithium.storage.SegmentStore.compactions").getCount()).isEqualTo(compacted);
+        store.close();
+
+        store = open();
+        assertThat(store.keys("")).containsExactly("sessions/0", "sessions/1", "sessions/2");
+    }
+
+    @Test
+    public void tombstoneOutlivesCompaction() throws Exception {
+        store = open();
+        store.put("deleted", bytes(1));
+        store.put("kept", new byte[3000]);      // first segment: mostly live
+        store.put("temp", new byte[3000]);      // second segment
+        store.delete("deleted");
+        store.put("temp", new byte[3000]);      // third segment: the second holds a tombstone and a dead value
+
+        // the first segment still holds the deleted value: compacting only the second must keep the tombstone
+        assertThat(store.compact()).isEqualTo(1);
+        assertThat(segments()).hasSize(2);
+        store.close();
+
+        store = open();
+        assertThat(store.get("deleted")).isNull();
+    }
+
+    private SegmentStore open() throws IOException {
+        metrics = new MetricRegistry();
+        return new SegmentStore(dir, SEGMENT, false, 0.5, 60_000, Executors.defaultThreadFactory(), metrics);
+    }
+
+    private Path[] segments() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.sorted().toArray(Path[]::new);
+        }
+    }
+
+    private static byte[] bytes(int value) {
+        return new byte[]{(byte) value};
+    }
+}
@@ -0,0 +1,81 @@
+package com.wire.lithium;
+
+import com.wire.lithium.server.filters.AuthenticationFilter;
+import com.wire.lithium.server.filters.ServiceTokens;
+import com.wire.lithium.server.tasks.ServiceTokenTask;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import org.junit.jupiter.api.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ServiceTokensTest {
+    private final ServiceTokens tokens = new ServiceTokens(List.of("old-token"));
+
+    @Test
+    public void headerIsMatched() {
+        assertThat(tokens.match("Bearer old-token")).isEqualTo("old-token");
+        assertThat(tokens.match("old-token")).isEqualTo("old-token");
+        assertThat(tokens.match("Bearer old-tokeN")).isNull();
+        assertThat(tokens.match("Bearer old-token-2")).isNull();
+        assertThat(tokens.match("Bearer ")).isNull();
+        assertThat(tokens.match(null)).isNull();
+    }
+
+    @Test
+    public void tokensAreRotated() {
+        final ServiceTokenTask task = new ServiceTokenTask(tokens);
+
+        assertThat(execute(task, "old-token", "new-token")).contains("2 service tokens accepted");
+        assertThat(tokens.match("Bearer old-token")).isEqualTo("old-token");
+        assertThat(tokens.match("Bearer new-token")).isEqualTo("new-token");
+
+        assertThat(execute(task, "new-token")).contains("1 service tokens accepted");
+        assertThat(tokens.match("Bearer old-token")).isNull();
+
+        // invalid input keeps the tokens
+        assertThat(execute(task)).contains("Missing token");
+        assertThat(execute(task, "")).contains("invalid");
+        assertThat(tokens.match("Bearer new-token")).isEqualTo("new-token");
+    }
+
+    @Test
+    public void filterSetsMatchedToken() {
+        final AuthenticationFilter filter = new AuthenticationFilter(tokens);
+        final Map<String, Object> properties = new HashMap<>();
+
+        filter.filter(request("Bearer old-token", properties));
+        assertThat(properties).containsEntry("wire-auth", "old-token");
+
+        assertThatThrownBy(() -> filter.filter(request("Bearer wrong", properties)))
+                .isInstanceOf(WebApplicationException.class);
+        assertThatThrownBy(() -> filter.filter(request(null, properties)))
+                .isInstanceOf(WebApplicationException.class);
+    }
+
+    private static String execute(ServiceTokenTask task, String... values) {
+        final StringWriter out = new StringWriter();
+        task.execute(Map.of("token", List.of(values)), new PrintWriter(out));
+        return out.toString();
+    }
+
+    private static ContainerRequestContext request(String authorization, Map<String, Object> properties) {
+        return (ContainerRequestContext) Proxy.newProxyInstance(ServiceTokensTest.class.getClassLoader(),
+                new Class[]{ContainerRequestContext.class},
+                (proxy, method, args) -> {
+                    if ("getHeaderString".equals(method.getName()))
+                        return authorization;
+                    if ("setProperty".equals(method.getName()))
+                        properties.put((String) args[0], args[1]);
+                    return null;
+                });
+    }
+}
@@ -0,0 +1,185 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.MetricRegistry;
+import com.wire.lithium.helpers.StubAPI;
+import com.wire.xenon.backend.models.User;
+import io.dropwizard.util.Duration;
+import jakarta.ws.rs.ProcessingException;
+import jakarta.ws.rs.client.ClientBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class UserCacheTest {
+    private static final UUID UNKNOWN = UUID.randomUUID();
+
+    private final UUID botId = UUID.randomUUID();
+    private final List<Collection<UUID>> requests = new CopyOnWriteArrayList<>();
+    private final Set<String> callers = ConcurrentHashMap.newKeySet();
+    private volatile boolean fail;
+
+    private StubAPI api;
+    private MetricRegistry metrics;
+    private UserCache cache;
+
+    @BeforeEach
+    public void setUp() {
+        api = new StubAPI(ClientBuilder.newClient()).onUsers(this::users);
+        metrics = new MetricRegistry();
+
+        Configuration.UserCache config = new Configuration.UserCache();
+        config.window = Duration.milliseconds(50);
+        config.batchSize = 10;
+        cache = new UserCache(config, metrics);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        cache.close();
+    }
+
+    @Test
+    public void closeSendsPendingLookupsAndStopsThreads() throws Exception {
+        cache.close();
+        final Configuration.UserCache config = new Configuration.UserCache();
+        config.window = Duration.minutes(1);
+        cache = new UserCache(config, metrics);
+
+        // the lookup waits for the window
+        final UUID id = UUID.randomUUID();
+        final Thread[] caller = new Thread[1];
+        final ExecutorService executor = Executors.newSingleThreadExecutor(r -> caller[0] = new Thread(r));
+        final Future<User> user = executor.submit(() -> cache.getUser(botId, api, id));
+        while (caller[0] == null || caller[0].getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+
+        cache.close();
+        executor.shutdown();
+
+        assertThat(user.get().id).isEqualTo(id);
+        assertThat(threads()).isEmpty();
+        assertThatThrownBy(() -> cache.getUser(botId, api, UUID.randomUUID()))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void legacyRepoStartsNoThreads() {
+        final ClientRepo repo = new ClientRepo(null, null, null, new Configuration.ClientCache(), metrics);
+
+        assertThat(repo.getUserCache()).isNull();
+    }
+
+    @Test
+    public void concurrentLookupsShareRequest() throws Exception {
+        final List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            ids.add(UUID.randomUUID());
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(ids.size());
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<User>> users = new ArrayList<>();
+        for (UUID id : ids) {
+            users.add(executor.submit(() -> {
+                start.await();
+                return cache.getUser(botId, api, id);
+            }));
+        }
+        start.countDown();
+
+        for (int i = 0; i < ids.size(); i++) {
+            assertThat(users.get(i).get().id).isEqualTo(ids.get(i));
+        }
+        executor.shutdown();
+
+        assertThat(requests).hasSize(1);
+        assertThat(requests.get(0)).containsExactlyInAnyOrderElementsOf(ids);
+    }
+
+    @Test
+    public void cachedUserIsNotFetched() {
+        final UUID id = UUID.randomUUID();
+        cache.getUser(botId, api, id);
+        cache.getUser(botId, api, id);
+
+        assertThat(requests).hasSize(1);
+        assertThat(metrics.counter("com.wire.lithium.UserCache.hits").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void longListIsSplit() {
+        final List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            ids.add(UUID.randomUUID());
+        }
+
+        final Collection<User> users = cache.getUsers(botId, api, ids);
+
+        assertThat(users).extracting(user -> user.id).containsExactlyElementsOf(ids);
+        assertThat(requests).hasSize(3);
+        assertThat(requests).allSatisfy(request -> assertThat(request).hasSizeLessThanOrEqualTo(10));
+        assertThat(callers.size()).isGreaterThan(1);
+    }
+
+    @Test
+    public void unknownUserIsNull() {
+        assertThat(cache.getUser(botId, api, UNKNOWN)).isNull();
+    }
+
+    @Test
+    public void errorIsThrown() {
+        fail = true;
+
+        assertThatThrownBy(() -> cache.getUser(botId, api, UUID.randomUUID()))
+                .isInstanceOf(ProcessingException.class);
+    }
+
+    private Collection<User> users(Collection<UUID> ids) {
+        requests.add(new ArrayList<>(ids));
+        callers.add(Thread.currentThread().getName());
+        if (fail)
+            throw new ProcessingException("Backend is down");
+
+        try {
+            Thread.sleep(50);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        final List<User> ret = new ArrayList<>();
+        for (UUID id : ids) {
+            if (UNKNOWN.equals(id))
+                continue;
+            User user = new User();
+            user.id = id;
+            user.name = "user-" + id;
+            ret.add(user);
+        }
+        return ret;
+    }
+
+    private static List<String> threads() {
+        final List<String> ret = new ArrayList<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive() && thread.getName().startsWith("user-cache"))
+                ret.add(thread.getName());
+        }
+        return ret;
+    }
+}
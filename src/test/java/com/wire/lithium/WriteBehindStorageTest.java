@@ -0,0 +1,137 @@
+package com.wire.lithium;
+
+import com.codahale.metrics.MetricRegistry;
+import com.wire.bots.cryptobox.IRecord;
+import com.wire.lithium.crypto.WriteBehindStorage;
+import com.wire.lithium.helpers.MemStorage;
+import com.wire.xenon.crypto.storage.Session;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WriteBehindStorageTest {
+    private final Map<String, byte[]> written = new ConcurrentHashMap<>();
+    private final List<Integer> batches = new CopyOnWriteArrayList<>();
+    private volatile boolean fail;
+
+    private MetricRegistry metrics;
+    private WriteBehindStorage storage;
+
+    @BeforeEach
+    public void setUp() {
+        metrics = new MetricRegistry();
+        storage = new WriteBehindStorage(new MemStorage(), this::write, 60_000, 3,
+                Executors.defaultThreadFactory(), metrics);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        storage.stop();
+    }
+
+    @Test
+    public void updatesAreCoalesced() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            IRecord record = storage.fetchSession("bot", "alice");
+            record.persist(new byte[]{(byte) i});
+        }
+
+        assertThat(written).isEmpty();
+        assertThat(storage.fetchSession("bot", "alice").getData()).containsExactly(2);
+
+        storage.flush();
+
+        assertThat(batches).containsExactly(1);
+        assertThat(written.get("bot/alice")).containsExactly(2);
+        assertThat(storage.pending()).isZero();
+        assertThat(metrics.meter("com.wire.lithium.crypto.WriteBehindStorage.coalesced").getCount()).isEqualTo(2);
+        assertThat(metrics.histogram("com.wire.lithium.crypto.WriteBehindStorage.flush-lag").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void batchSizeTriggersFlush() throws Exception {
+        storage.start();
+        for (String sid : List.of("alice", "bob", "carol")) {
+            storage.fetchSession("bot", sid).persist(new byte[]{1});
+        }
+
+        for (int i = 0; i < 100 && storage.pending() > 0; i++) {
+            Thread.sleep(10);
+        }
+
+        assertThat(storage.pending()).isZero();
+        assertThat(written).containsKeys("bot/alice", "bot/bob", "bot/carol");
+    }
+
+    @Test
+    public void failedFlushIsRetried() throws Exception {
+        storage.fetchSession("bot", "alice").persist(new byte[]{1});
+
+        fail = true;
+        storage.flush();
+        assertThat(storage.pending()).isEqualTo(1);
+        assertThat(metrics.meter("com.wire.lithium.crypto.WriteBehindStorage.errors").getCount()).isEqualTo(1);
+
+        fail = false;
+        storage.flush();
+        assertThat(storage.pending()).isZero();
+        assertThat(written).containsKey("bot/alice");
+    }
+
+    @Test
+    public void stopFlushes() throws Exception {
+        storage.start();
+        storage.fetchSession("bot", "alice").persist(new byte[]{1});
+
+        storage.stop();
+
+        assertThat(written).containsKey("bot/alice");
+    }
+
+    @Test
+    public void purgeDropsPending() throws Exception {
+        storage.fetchSession("bot", "alice").persist(new byte[]{1});
+        storage.fetchSession("other", "alice").persist(new byte[]{1});
+
+        storage.purge("bot");
+        storage.flush();
+
+        assertThat(written).containsOnlyKeys("other/alice");
+    }
+
+    @Test
+    public void sessionFetchedBeforePurgeIsNotWrittenBack() throws Exception {
+        storage.fetchSession("bot", "alice").persist(new byte[]{1});
+        final IRecord inFlight = storage.fetchSession("bot", "bob");
+
+        storage.purge("bot");
+        inFlight.persist(new byte[]{2});
+        storage.flush();
+
+        assertThat(storage.pending()).isZero();
+        assertThat(written).isEmpty();
+
+        // the bot is created again
+        storage.fetchSession("bot", "alice").persist(new byte[]{3});
+        storage.flush();
+        assertThat(written.get("bot/alice")).containsExactly(3);
+    }
+
+    private void write(List<Session> sessions) {
+        if (fail)
+            throw new IllegalStateException("database is down");
+
+        batches.add(sessions.size());
+        for (Session session : sessions) {
+            written.put(session.id + "/" + session.sid, session.data);
+        }
+    }
+}
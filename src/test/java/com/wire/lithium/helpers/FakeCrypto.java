@@ -0,0 +1,80 @@
+package com.wire.lithium.helpers;
+
+import com.wire.xenon.crypto.Crypto;
+import com.wire.xenon.models.otr.Missing;
+import com.wire.xenon.models.otr.PreKey;
+import com.wire.xenon.models.otr.PreKeys;
+import com.wire.xenon.models.otr.Recipients;
+
+import java.util.ArrayList;
+import java.util.UUID;
+
+/**
+ * Crypto box without native code: "encrypts" for every known client, decrypt returns the cipher as is
+ */
+public class FakeCrypto implements Crypto {
+    private boolean closed;
+
+    @Override
+    public byte[] getIdentity() {
+        return new byte[0];
+    }
+
+    @Override
+    public byte[] getLocalFingerprint() {
+        return new byte[0];
+    }
+
+    @Override
+    public PreKey newLastPreKey() {
+        return new PreKey();
+    }
+
+    @Override
+    public ArrayList<PreKey> newPreKeys(int from, int count) {
+        final ArrayList<PreKey> ret = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            PreKey preKey = new PreKey();
+            preKey.id = from + i;
+            preKey.key = "key-" + preKey.id;
+            ret.add(preKey);
+        }
+        return ret;
+    }
+
+    @Override
+    public Recipients encrypt(PreKeys preKeys, byte[] content) {
+        return new Recipients();
+    }
+
+    @Override
+    public Recipients encrypt(Missing missing, byte[] content) {
+        Recipients ret = new Recipients();
+        for (UUID userId : missing.toUserIds()) {
+            for (String clientId : missing.toClients(userId)) {
+                ret.add(userId, clientId, "cipher");
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public String decrypt(UUID userId, String clientId, String cypher) {
+        return cypher;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void purge() {
+        closed = true;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+}
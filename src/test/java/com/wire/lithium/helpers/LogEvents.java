@@ -0,0 +1,67 @@
+package com.wire.lithium.helpers;
+
+import ch.qos.logback.access.spi.IAccessEvent;
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.lang.reflect.Proxy;
+
+/**
+ * Logging and access events for the layout tests and benchmarks
+ */
+public class LogEvents {
+    private static final LoggerContext context = new LoggerContext();
+
+    public static ILoggingEvent log(String message, Throwable throwable, Object... args) {
+        return log(Level.INFO, message, throwable, args);
+    }
+
+    public static ILoggingEvent log(Level level, String message, Throwable throwable, Object... args) {
+        final LoggingEvent event = new LoggingEvent("com.wire.lithium", context.getLogger("com.wire.lithium.Test"),
+                level, message, throwable, args);
+        event.setTimeStamp(1_700_000_000_123L);
+        return event;
+    }
+
+    /**
+     * @param query Query string or null
+     */
+    public static IAccessEvent access(String query) {
+        return access("/bots/2f2c1a8e-6c4a-4a54-9d5b-3c1f2d3e4f5a/messages", query, 200, 12L);
+    }
+
+    public static IAccessEvent access(String uri, String query, int status, long elapsed) {
+        final HttpServletResponse response = (HttpServletResponse) Proxy.newProxyInstance(
+                LogEvents.class.getClassLoader(), new Class[]{HttpServletResponse.class},
+                (proxy, method, args) -> "getStatus".equals(method.getName()) ? status : null);
+
+        return (IAccessEvent) Proxy.newProxyInstance(
+                LogEvents.class.getClassLoader(), new Class[]{IAccessEvent.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getTimeStamp":
+                            return 1_700_000_000_123L;
+                        case "getRequestURI":
+                            return uri;
+                        case "getQueryString":
+                            return query;
+                        case "getRemoteHost":
+                        case "getRemoteAddr":
+                            return "10.0.0.1";
+                        case "getMethod":
+                            return "POST";
+                        case "getElapsedTime":
+                            return elapsed;
+                        case "getStatusCode":
+                            return status;
+                        case "getResponse":
+                            return response;
+                        default:
+                            return null;
+                    }
+                });
+    }
+}
@@ -0,0 +1,83 @@
+package com.wire.lithium.helpers;
+
+import ch.qos.logback.access.spi.IAccessEvent;
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.ThrowableProxyUtil;
+import com.wire.lithium.server.monitoring.AbstractJsonLayout;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The JSON layouts as they were before streaming: a map per event serialized with the ObjectMapper.
+ * Reference for the output and the allocation of the streaming layouts
+ */
+public class MapJsonLayouts {
+    public static class LoggingEvent extends AbstractJsonLayout<ILoggingEvent> {
+        public LoggingEvent() {
+            super(Collections.emptyList());
+        }
+
+        @Override
+        public String doLayout(ILoggingEvent event) {
+            final Map<String, Object> jsonMap = new LinkedHashMap<>(6);
+
+            jsonMap.put("@timestamp", formatTime(event));
+            jsonMap.put("type", "log");
+            jsonMap.put("message", event.getFormattedMessage());
+
+            jsonMap.put("logger", event.getLoggerName());
+            jsonMap.put("level", event.getLevel().levelStr);
+            jsonMap.put("threadName", event.getThreadName());
+
+            if (event.getThrowableProxy() != null) {
+                jsonMap.put("exception", exception(event.getThrowableProxy()));
+            }
+
+            return finalizeLog(jsonMap, event.getFormattedMessage());
+        }
+
+        private Map<String, String> exception(IThrowableProxy proxy) {
+            final Map<String, String> jsonMap = new LinkedHashMap<>(3);
+            jsonMap.put("stacktrace", ThrowableProxyUtil.asString(proxy));
+            jsonMap.put("message", proxy.getMessage());
+            jsonMap.put("class", proxy.getClassName());
+            return jsonMap;
+        }
+    }
+
+    public static class AccessEvent extends AbstractJsonLayout<IAccessEvent> {
+        public AccessEvent() {
+            super(Collections.emptyList());
+        }
+
+        @Override
+        public String doLayout(IAccessEvent event) {
+            final Map<String, Object> jsonMap = new LinkedHashMap<>(10);
+
+            jsonMap.put("@timestamp", formatTime(event));
+            jsonMap.put("type", "http");
+            jsonMap.put("logger", "com.wire.HttpRequest");
+
+            jsonMap.put("level", Level.INFO.levelStr);
+            jsonMap.put("requestURI", event.getRequestURI());
+            final String query = event.getQueryString();
+            if (query != null && !query.trim().isEmpty()) {
+                jsonMap.put("query", query);
+            }
+            jsonMap.put("remoteHost", event.getRemoteHost());
+            jsonMap.put("remoteAddr", event.getRemoteAddr());
+            jsonMap.put("method", event.getMethod());
+            jsonMap.put("elapsedMls", event.getElapsedTime());
+            final HttpServletResponse response = event.getResponse();
+            if (response != null) {
+                jsonMap.put("responseStatus", response.getStatus());
+            }
+            return finalizeLog(jsonMap);
+        }
+    }
+}
@@ -53,11 +53,15 @@ public class MemStorage implements IStorage {
 
     @Override
     public void purge(String id) {
-        sessions.remove(id);
+        sessions.keySet().removeIf(key -> key.startsWith(id + "-"));
         prekeys.remove(id);
         identities.remove(id);
     }
 
+    public boolean isEmpty() {
+        return sessions.isEmpty() && prekeys.isEmpty() && identities.isEmpty();
+    }
+
     private void sleep(int millis) {
         try {
             Thread.sleep(millis);
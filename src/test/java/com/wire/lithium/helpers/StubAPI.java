@@ -0,0 +1,147 @@
+package com.wire.lithium.helpers;
+
+import com.wire.lithium.API;
+import com.wire.xenon.backend.models.Conversation;
+import com.wire.xenon.backend.models.User;
+import com.wire.xenon.models.otr.Devices;
+import com.wire.xenon.models.otr.Missing;
+import com.wire.xenon.models.otr.OtrMessage;
+import com.wire.xenon.models.otr.PreKey;
+import com.wire.xenon.models.otr.PreKeys;
+import jakarta.ws.rs.client.Client;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * API of a bot that answers from the test instead of the Backend. Calls without an answer fail. Calls that have one
+ * pass through the {@link Probe}, if set, before they answer
+ */
+public class StubAPI extends API {
+    private final UUID botId;
+    private final Probe probe;
+
+    private Function<UUID, Conversation> conversation;
+    private Function<UUID, ArrayList<Integer>> availablePrekeys;
+    private BiConsumer<UUID, ArrayList<PreKey>> uploads;
+    private Function<Collection<UUID>, Collection<User>> users;
+    private BiFunction<OtrMessage, Boolean, Devices> send;
+
+    public StubAPI(Client httpClient) {
+        this(httpClient, UUID.randomUUID(), null);
+    }
+
+    /**
+     * @param httpClient Never called
+     * @param botId      Bot passed to the answers
+     * @param probe      Shared by the APIs of all bots of the test, null for none
+     */
+    public StubAPI(Client httpClient, UUID botId, Probe probe) {
+        super(httpClient, "token", "http://localhost");
+        this.botId = botId;
+        this.probe = probe;
+    }
+
+    public StubAPI onConversation(Function<UUID, Conversation> conversation) {
+        this.conversation = conversation;
+        return this;
+    }
+
+    public StubAPI onAvailablePrekeys(Function<UUID, ArrayList<Integer>> availablePrekeys) {
+        this.availablePrekeys = availablePrekeys;
+        return this;
+    }
+
+    public StubAPI onUpload(BiConsumer<UUID, ArrayList<PreKey>> uploads) {
+        this.uploads = uploads;
+        return this;
+    }
+
+    public StubAPI onUsers(Function<Collection<UUID>, Collection<User>> users) {
+        this.users = users;
+        return this;
+    }
+
+    /**
+     * @param send Devices of the reply, from the message and whether missing devices are ignored
+     */
+    public StubAPI onSend(BiFunction<OtrMessage, Boolean, Devices> send) {
+        this.send = send;
+        return this;
+    }
+
+    @Override
+    public Conversation getConversation() {
+        return answer(conversation).apply(botId);
+    }
+
+    @Override
+    public ArrayList<Integer> getAvailablePrekeys(String clientId) {
+        return answer(availablePrekeys).apply(botId);
+    }
+
+    @Override
+    public void uploadPreKeys(ArrayList<PreKey> preKeys) {
+        answer(uploads).accept(botId, preKeys);
+    }
+
+    @Override
+    public Collection<User> getUsers(Collection<UUID> ids) {
+        return answer(users).apply(ids);
+    }
+
+    @Override
+    public Devices sendMessage(OtrMessage msg, Object... ignoreMissing) {
+        final boolean ignore = ignoreMissing.length > 0 && (Boolean) ignoreMissing[0];
+        return answer(send).apply(msg, ignore);
+    }
+
+    @Override
+    public PreKeys getPreKeys(Missing missing) {
+        return new PreKeys();
+    }
+
+    private <T> T answer(T answer) {
+        if (answer == null)
+            throw new IllegalStateException("No answer stubbed");
+        if (probe != null)
+            probe.call();
+        return answer;
+    }
+
+    /**
+     * Holds every call for a while and records how many calls were in flight at once
+     */
+    public static class Probe {
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger maxInFlight = new AtomicInteger();
+        private final long millis;
+
+        /**
+         * @param millis Time each call takes
+         */
+        public Probe(long millis) {
+            this.millis = millis;
+        }
+
+        void call() {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        public int getMaxInFlight() {
+            return maxInFlight.get();
+        }
+    }
+}